@@ -42,4 +42,21 @@ public class Bootstrapper<T> {
 
     }
 
+    /**
+     * Draws a bootstrap sample of row positions; equivalent to bootstrap(Random) on a List of size n.
+     *
+     * @param n The number of rows in the data.
+     * @param random The source of randomness.
+     * @return An array of n row positions, drawn with replacement.
+     */
+    public static int[] bootstrapIndices(int n, Random random){
+        final int[] indices = new int[n];
+
+        for(int i=0; i<n; i++){
+            indices[i] = random.nextInt(n);
+        }
+
+        return indices;
+    }
+
 }
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest;
+
+import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.covariates.bool.BooleanCovariate;
+import ca.joeltherrien.randomforest.covariates.factor.FactorCovariate;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericBinning;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericCovariate;
+import ca.joeltherrien.randomforest.utils.Utils;
+import lombok.Getter;
+
+import java.io.ObjectStreamException;
+import java.util.*;
+
+/**
+ * Training data stored column by column in primitive arrays, rather than as a List of Rows holding
+ * Covariate.Value objects. Numeric covariates are stored as doubles with NaN meaning NA, factor covariates as
+ * level codes (see FactorCovariate.FactorValue#getCode) with -1 meaning NA, and boolean covariates as a pair of BitSets.
+ *
+ * Rows are referred to by their position in the dataset (0 to getNumberOfRows()-1); getId(int) provides the id
+ * that the trees record for out-of-bag calculations.
+ *
+ */
+public class ColumnarDataset<Y> {
+
+    @Getter
+    private final List<Covariate> covariates;
+    private final Covariate[] covariatesByIndex;
+
+    private final int[] ids;
+
+    @Getter
+    private final ResponseColumn<Y> responses;
+
+    // Indexed by covariate index; only the array of the appropriate type is non-null for a given covariate
+    private final double[][] numericColumns;
+    private final int[][] factorColumns;
+    private final BitSet[] booleanColumns;
+    private final BitSet[] booleanNAs;
+
+    // Lazily calculated; for each numeric covariate its non-NA rows sorted by value (ties in row order)
+    private final int[][] sortedNumericRows;
+    private final NumericBinning[] numericBinnings;
+
+    /**
+     * Creates a dataset where every covariate value is NA; fill it in using setValue.
+     *
+     * @param covariates The covariates; their indexes must be between 0 and covariates.size()-1.
+     * @param ids The id of each row.
+     * @param responses The response of each row.
+     */
+    public ColumnarDataset(final List<Covariate> covariates, final int[] ids, final ResponseColumn<Y> responses){
+        if(ids.length != responses.size()){
+            throw new IllegalArgumentException("ids and responses must be the same length");
+        }
+
+        final int n = ids.length;
+        final int p = covariates.size();
+
+        this.covariates = covariates;
+        this.covariatesByIndex = new Covariate[p];
+        this.ids = ids;
+        this.responses = responses;
+
+        this.numericColumns = new double[p][];
+        this.factorColumns = new int[p][];
+        this.booleanColumns = new BitSet[p];
+        this.booleanNAs = new BitSet[p];
+        this.sortedNumericRows = new int[p][];
+        this.numericBinnings = new NumericBinning[p];
+
+        for(final Covariate covariate : covariates){
+            final int index = covariate.getIndex();
+            if(index < 0 || index >= p || covariatesByIndex[index] != null){
+                throw new IllegalArgumentException("Covariate indexes must be unique and between 0 and " + (p-1));
+            }
+            covariatesByIndex[index] = covariate;
+
+            if(covariate instanceof NumericCovariate){
+                numericColumns[index] = new double[n];
+                Arrays.fill(numericColumns[index], Double.NaN);
+            }
+            else if(covariate instanceof FactorCovariate){
+                factorColumns[index] = new int[n];
+                Arrays.fill(factorColumns[index], -1);
+            }
+            else if(covariate instanceof BooleanCovariate){
+                booleanColumns[index] = new BitSet(n);
+                booleanNAs[index] = new BitSet(n);
+                booleanNAs[index].set(0, n);
+            }
+            else{
+                throw new IllegalArgumentException("ColumnarDataset doesn't support covariates of type " + covariate.getClass().getSimpleName());
+            }
+        }
+    }
+
+    public static <Y> ColumnarDataset<Y> fromRows(final List<Row<Y>> rows, final List<Covariate> covariates){
+        final int n = rows.size();
+        final int[] ids = new int[n];
+        final List<Y> responses = new ArrayList<>(n);
+
+        for(int i=0; i<n; i++){
+            ids[i] = rows.get(i).getId();
+            responses.add(rows.get(i).getResponse());
+        }
+
+        final ColumnarDataset<Y> dataset = new ColumnarDataset<>(covariates, ids, ResponseColumn.of(responses));
+
+        for(int i=0; i<n; i++){
+            final Row<Y> row = rows.get(i);
+            for(final Covariate covariate : covariates){
+                dataset.setValue(i, row.getCovariateValue(covariate));
+            }
+        }
+
+        return dataset;
+    }
+
+    public void setValue(final int row, final Covariate.Value value){
+        final int index = value.getParent().getIndex();
+
+        if(numericColumns[index] != null){
+            numericColumns[index][row] = value.isNA() ? Double.NaN : (Double) value.getValue();
+            sortedNumericRows[index] = null;
+            numericBinnings[index] = null;
+        }
+        else if(factorColumns[index] != null){
+            factorColumns[index][row] = ((FactorCovariate.FactorValue) value).getCode();
+        }
+        else{
+            booleanNAs[index].set(row, value.isNA());
+            booleanColumns[index].set(row, !value.isNA() && (Boolean) value.getValue());
+        }
+    }
+
+    public int getNumberOfRows(){
+        return ids.length;
+    }
+
+    public int getId(int row){
+        return ids[row];
+    }
+
+    public Y getResponse(int row){
+        return responses.get(row);
+    }
+
+    public Covariate getCovariate(int covariateIndex){
+        return covariatesByIndex[covariateIndex];
+    }
+
+    public double[] getNumericColumn(int covariateIndex){
+        return numericColumns[covariateIndex];
+    }
+
+    /**
+     * Returns the rows that aren't NA for a NumericCovariate, sorted by value with ties kept in row order.
+     * This is calculated once and then cached; do not modify the returned array.
+     *
+     */
+    public synchronized int[] getSortedNumericRows(int covariateIndex){
+        int[] sortedRows = sortedNumericRows[covariateIndex];
+
+        if(sortedRows == null){
+            final double[] column = numericColumns[covariateIndex];
+
+            int size = 0;
+            for(final double value : column){
+                if(!Double.isNaN(value)){
+                    size++;
+                }
+            }
+
+            sortedRows = new int[size];
+            int position = 0;
+            for(int row=0; row<column.length; row++){
+                if(!Double.isNaN(column[row])){
+                    sortedRows[position++] = row;
+                }
+            }
+
+            Utils.stableSortByValue(sortedRows, 0, size, column);
+            sortedNumericRows[covariateIndex] = sortedRows;
+        }
+
+        return sortedRows;
+    }
+
+    /**
+     * Returns the quantile bins for a NumericCovariate; these are calculated once and then cached.
+     *
+     * @param maxBins The maximum number of bins to use.
+     */
+    public synchronized NumericBinning getNumericBinning(int covariateIndex, int maxBins){
+        NumericBinning binning = numericBinnings[covariateIndex];
+
+        if(binning == null || binning.getMaxBins() != maxBins){
+            binning = NumericBinning.create(numericColumns[covariateIndex], getSortedNumericRows(covariateIndex), maxBins);
+            numericBinnings[covariateIndex] = binning;
+        }
+
+        return binning;
+    }
+
+    public int[] getFactorColumn(int covariateIndex){
+        return factorColumns[covariateIndex];
+    }
+
+    public BitSet getBooleanColumn(int covariateIndex){
+        return booleanColumns[covariateIndex];
+    }
+
+    public BitSet getBooleanNAs(int covariateIndex){
+        return booleanNAs[covariateIndex];
+    }
+
+    public boolean isNA(int covariateIndex, int row){
+        if(numericColumns[covariateIndex] != null){
+            return Double.isNaN(numericColumns[covariateIndex][row]);
+        }
+        else if(factorColumns[covariateIndex] != null){
+            return factorColumns[covariateIndex][row] < 0;
+        }
+        else{
+            return booleanNAs[covariateIndex].get(row);
+        }
+    }
+
+    /**
+     * Creates the Covariate.Value for a specific cell. This allocates, so avoid it in the training loops.
+     *
+     */
+    public Covariate.Value getValue(int covariateIndex, int row){
+        final Covariate covariate = covariatesByIndex[covariateIndex];
+
+        if(numericColumns[covariateIndex] != null){
+            final double value = numericColumns[covariateIndex][row];
+            return ((NumericCovariate) covariate).createValue(Double.isNaN(value) ? null : value);
+        }
+        else if(factorColumns[covariateIndex] != null){
+            return ((FactorCovariate) covariate).getValueByCode(factorColumns[covariateIndex][row]);
+        }
+        else{
+            final Boolean value = booleanNAs[covariateIndex].get(row) ? null : booleanColumns[covariateIndex].get(row);
+            return ((BooleanCovariate) covariate).createValue(value);
+        }
+    }
+
+    /**
+     * Provides a Row view over a row of the dataset; covariate values are created as they're requested.
+     *
+     */
+    public Row<Y> getRow(int row){
+        return new ColumnarRow<>(this, row);
+    }
+
+    public List<Row<Y>> asRows(){
+        return new AbstractList<Row<Y>>() {
+            @Override
+            public Row<Y> get(int index) {
+                return getRow(index);
+            }
+
+            @Override
+            public int size() {
+                return getNumberOfRows();
+            }
+        };
+    }
+
+    private static final class ColumnarRow<Y> extends Row<Y> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient ColumnarDataset<Y> dataset;
+        private final int row;
+
+        private ColumnarRow(final ColumnarDataset<Y> dataset, final int row){
+            super(null, dataset.getId(row), dataset.getResponse(row));
+            this.dataset = dataset;
+            this.row = row;
+        }
+
+        @Override
+        public <V> Covariate.Value<V> getValueByIndex(int index) {
+            return dataset.getValue(index, row);
+        }
+
+        @Override
+        public CovariateRow clone() {
+            return new CovariateRow(materializeValues(), getId());
+        }
+
+        private Covariate.Value[] materializeValues(){
+            final Covariate.Value[] valueArray = new Covariate.Value[dataset.covariatesByIndex.length];
+            for(int i=0; i<valueArray.length; i++){
+                valueArray[i] = getValueByIndex(i);
+            }
+            return valueArray;
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            // the dataset isn't serialized, so write out a regular Row instead
+            return new Row<>(materializeValues(), getId(), getResponse());
+        }
+
+    }
+
+}
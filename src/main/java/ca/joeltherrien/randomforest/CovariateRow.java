@@ -35,7 +35,7 @@ public class CovariateRow implements Serializable, Cloneable {
     private final int id;
 
     public <V> Covariate.Value<V> getCovariateValue(Covariate<V> covariate){
-        return valueArray[covariate.getIndex()];
+        return getValueByIndex(covariate.getIndex());
     }
 
     public <V> Covariate.Value<V> getValueByIndex(int index){
@@ -89,7 +89,7 @@ public class CovariateRow implements Serializable, Cloneable {
 
         final int covariateToScrambleIndex = covariateToScramble.getIndex();
         for(int i=0; i < covariateRows.size(); i++){
-            clonedRowList.get(i).valueArray[covariateToScrambleIndex] = permutedCovariateRowList.get(i).valueArray[covariateToScrambleIndex];
+            clonedRowList.get(i).valueArray[covariateToScrambleIndex] = permutedCovariateRowList.get(i).getValueByIndex(covariateToScrambleIndex);
         }
 
         return clonedRowList;
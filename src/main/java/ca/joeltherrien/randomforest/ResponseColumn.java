@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest;
+
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponseColumn;
+import ca.joeltherrien.randomforest.responses.regression.RegressionResponseColumn;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage for the responses of a ColumnarDataset. Implementations are free to store the responses as primitive arrays,
+ * in which case get(int) constructs the response object on demand.
+ *
+ */
+public interface ResponseColumn<Y> extends Serializable {
+
+    int size();
+
+    Y get(int row);
+
+    /**
+     * Picks the most compact ResponseColumn available for the provided responses.
+     *
+     * @param responses The responses, in row order.
+     * @return A ResponseColumn containing the responses.
+     */
+    @SuppressWarnings("unchecked")
+    static <Y> ResponseColumn<Y> of(List<Y> responses){
+        if(!responses.isEmpty() && responses.stream().allMatch(response -> response instanceof Double)){
+            return (ResponseColumn<Y>) new RegressionResponseColumn((List<Double>) responses);
+        }
+
+        if(!responses.isEmpty() && responses.stream().allMatch(response -> response instanceof CompetingRiskResponse)){
+            return (ResponseColumn<Y>) CompetingRiskResponseColumn.of((List<CompetingRiskResponse>) responses);
+        }
+
+        return new ObjectResponseColumn<>(responses);
+    }
+
+    final class ObjectResponseColumn<Y> implements ResponseColumn<Y> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Y> responses;
+
+        private ObjectResponseColumn(final List<Y> responses){
+            this.responses = new ArrayList<>(responses);
+        }
+
+        @Override
+        public int size() {
+            return responses.size();
+        }
+
+        @Override
+        public Y get(int row) {
+            return responses.get(row);
+        }
+    }
+
+}
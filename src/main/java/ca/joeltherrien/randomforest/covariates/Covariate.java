@@ -17,6 +17,8 @@
 package ca.joeltherrien.randomforest.covariates;
 
 import ca.joeltherrien.randomforest.Row;
+import ca.joeltherrien.randomforest.tree.ColumnarNode;
+import ca.joeltherrien.randomforest.tree.ColumnarSplit;
 import ca.joeltherrien.randomforest.tree.Split;
 
 import java.io.Serializable;
@@ -33,6 +35,14 @@ public interface Covariate<V> extends Serializable, Comparable<Covariate> {
 
     <Y> Iterator<Split<Y, V>> generateSplitRuleUpdater(final List<Row<Y>> data, final int number, final Random random);
 
+    /**
+     * Columnar equivalent of generateSplitRuleUpdater; rows with NA values are left out of the splits.
+     * The same number of values are drawn from random as in generateSplitRuleUpdater.
+     *
+     * @return An Iterator of candidate splits, or null if every row in the node is NA for this covariate.
+     */
+    <Y> Iterator<ColumnarSplit<V>> generateColumnarSplits(final ColumnarNode<Y> node, final int number, final Random random);
+
     Value<V> createValue(V value);
 
     /**
@@ -16,6 +16,7 @@
 
 package ca.joeltherrien.randomforest.covariates;
 
+import ca.joeltherrien.randomforest.ColumnarDataset;
 import ca.joeltherrien.randomforest.CovariateRow;
 import ca.joeltherrien.randomforest.Row;
 import ca.joeltherrien.randomforest.tree.Split;
@@ -111,5 +112,14 @@ public interface SplitRule<V> extends Serializable{
 
     boolean isLeftHand(Covariate.Value<V> value);
 
+    /**
+     * Determines which hand a row of a ColumnarDataset belongs to. The value must not be NA.
+     * Implementations should override this to read the primitive column directly.
+     *
+     */
+    default boolean isLeftHand(ColumnarDataset<?> data, int row){
+        return isLeftHand((Covariate.Value<V>) data.getValue(getParentCovariateIndex(), row));
+    }
+
 
 }
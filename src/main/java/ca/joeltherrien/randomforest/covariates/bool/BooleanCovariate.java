@@ -18,10 +18,13 @@ package ca.joeltherrien.randomforest.covariates.bool;
 
 import ca.joeltherrien.randomforest.Row;
 import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.tree.ColumnarNode;
+import ca.joeltherrien.randomforest.tree.ColumnarSplit;
 import ca.joeltherrien.randomforest.tree.Split;
 import ca.joeltherrien.randomforest.utils.SingletonIterator;
 import lombok.Getter;
 
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -64,6 +67,42 @@ public final class BooleanCovariate implements Covariate<Boolean> {
         return new SingletonIterator<>(this.splitRule.applyRule(data));
     }
 
+    @Override
+    public <Y> Iterator<ColumnarSplit<Boolean>> generateColumnarSplits(ColumnarNode<Y> node, int number, Random random) {
+        final BitSet values = node.getData().getBooleanColumn(index);
+        final BitSet nas = node.getData().getBooleanNAs(index);
+        final int[] nodeRows = node.getRows();
+
+        int leftCount = 0;
+        int size = 0;
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            final int row = nodeRows[i];
+            if(!nas.get(row)){
+                size++;
+                if(!values.get(row)){
+                    leftCount++;
+                }
+            }
+        }
+
+        final int[] orderedRows = node.getScratchRows();
+        int leftPosition = 0;
+        int rightPosition = leftCount;
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            final int row = nodeRows[i];
+            if(!nas.get(row)){
+                if(!values.get(row)){
+                    orderedRows[leftPosition++] = row;
+                }
+                else{
+                    orderedRows[rightPosition++] = row;
+                }
+            }
+        }
+
+        return new SingletonIterator<>(new ColumnarSplit<>(this.splitRule, orderedRows, 0, leftCount, size));
+    }
+
     @Override
     public BooleanValue createValue(Boolean value) {
         return new BooleanValue(value);
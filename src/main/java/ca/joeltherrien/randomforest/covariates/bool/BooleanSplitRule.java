@@ -16,6 +16,7 @@
 
 package ca.joeltherrien.randomforest.covariates.bool;
 
+import ca.joeltherrien.randomforest.ColumnarDataset;
 import ca.joeltherrien.randomforest.covariates.Covariate;
 import ca.joeltherrien.randomforest.covariates.SplitRule;
 
@@ -26,7 +27,11 @@ public class BooleanSplitRule implements SplitRule<Boolean> {
     private final int parentCovariateIndex;
 
     public BooleanSplitRule(BooleanCovariate parent){
-        this.parentCovariateIndex = parent.getIndex();
+        this(parent.getIndex());
+    }
+
+    public BooleanSplitRule(final int parentCovariateIndex){
+        this.parentCovariateIndex = parentCovariateIndex;
     }
 
     @Override
@@ -47,4 +52,9 @@ public class BooleanSplitRule implements SplitRule<Boolean> {
 
         return !value.getValue();
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean isLeftHand(final ColumnarDataset<?> data, final int row) {
+        return !data.getBooleanColumn(parentCovariateIndex).get(row);
+    }
+}
@@ -17,7 +17,11 @@
 package ca.joeltherrien.randomforest.covariates.factor;
 
 import ca.joeltherrien.randomforest.Row;
+import ca.joeltherrien.randomforest.ColumnarDataset;
 import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.covariates.SplitRule;
+import ca.joeltherrien.randomforest.tree.ColumnarNode;
+import ca.joeltherrien.randomforest.tree.ColumnarSplit;
 import ca.joeltherrien.randomforest.tree.Split;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -36,6 +40,7 @@ public final class FactorCovariate implements Covariate<String> {
     private final int index;
 
     private final Map<String, FactorValue> factorLevels;
+    private final FactorValue[] factorLevelsByCode;
     private final FactorValue naValue;
     private final int numberOfPossiblePairings;
 
@@ -53,15 +58,18 @@ public final class FactorCovariate implements Covariate<String> {
         this.name = name;
         this.index = index;
         this.factorLevels = new HashMap<>();
+        this.factorLevelsByCode = new FactorValue[levels.size()];
 
-        for(final String level : levels){
+        for(int code=0; code<levels.size(); code++){
+            final String level = levels.get(code);
             if(level.equalsIgnoreCase("na")){
                 throw new IllegalArgumentException("Cannot use NA (case-insensitive) as a level in factor covariate " + name);
             }
 
-            final FactorValue newValue = new FactorValue(level);
+            final FactorValue newValue = new FactorValue(level, code);
 
             factorLevels.put(level, newValue);
+            factorLevelsByCode[code] = newValue;
         }
 
         int numberOfPossiblePairingsTemp = 1;
@@ -70,7 +78,7 @@ public final class FactorCovariate implements Covariate<String> {
         }
         this.numberOfPossiblePairings = numberOfPossiblePairingsTemp-1;
 
-        this.naValue = new FactorValue(null);
+        this.naValue = new FactorValue(null, -1);
 
         this.haveNASplitPenalty = haveNASplitPenalty;
     }
@@ -112,6 +120,66 @@ public final class FactorCovariate implements Covariate<String> {
     }
 
 
+    @Override
+    public <Y> Iterator<ColumnarSplit<String>> generateColumnarSplits(ColumnarNode<Y> node, int number, Random random) {
+        final ColumnarDataset<Y> data = node.getData();
+        final int[] codes = data.getFactorColumn(index);
+        final int[] nodeRows = node.getRows();
+
+        final int[] nonNARows = node.getScratchRows();
+        int size = 0;
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            if(codes[nodeRows[i]] >= 0){
+                nonNARows[size++] = nodeRows[i];
+            }
+        }
+
+        if(number == 0){ // nsplit = 0 => try every possibility, although we limit it to the number of observations.
+            number = size;
+        }
+
+        // Same process as in generateSplitRuleUpdater; two rules are only equal if their splits would be.
+        final Set<FactorSplitRule> splitRules = new LinkedHashSet<>();
+
+        number = Math.min(number, numberOfPossiblePairings);
+        final List<FactorValue> levels = new ArrayList<>(factorLevels.values());
+
+        while(splitRules.size() < number){
+            Collections.shuffle(levels, random);
+            final Set<String> leftSideValues = new HashSet<>();
+            leftSideValues.add(levels.get(0).getValue());
+
+            for(int i=1; i<levels.size()/2; i++){
+                if(random.nextBoolean()){
+                    leftSideValues.add(levels.get(i).getValue());
+                }
+            }
+
+            splitRules.add(new FactorSplitRule(this, leftSideValues));
+        }
+
+        final int finalSize = size;
+        return splitRules.stream()
+                .map(splitRule -> {
+                    final int[] orderedRows = new int[finalSize];
+                    int leftCount = 0;
+                    for(int i=0; i<finalSize; i++){
+                        if(splitRule.isLeftHand(data, nonNARows[i])){
+                            orderedRows[leftCount++] = nonNARows[i];
+                        }
+                    }
+                    int rightPosition = leftCount;
+                    for(int i=0; i<finalSize; i++){
+                        if(!splitRule.isLeftHand(data, nonNARows[i])){
+                            orderedRows[rightPosition++] = nonNARows[i];
+                        }
+                    }
+
+                    return new ColumnarSplit<>((SplitRule<String>) splitRule, orderedRows, 0, leftCount, finalSize);
+                })
+                .iterator();
+    }
+
     @Override
     public FactorValue createValue(String value) {
         if(value == null || value.equalsIgnoreCase("na")){
@@ -129,6 +197,18 @@ public final class FactorCovariate implements Covariate<String> {
     }
 
 
+    /**
+     * Returns the FactorValue with the provided code, where a negative code means NA.
+     *
+     */
+    public FactorValue getValueByCode(int code){
+        return code < 0 ? naValue : factorLevelsByCode[code];
+    }
+
+    public int getNumberOfLevels(){
+        return factorLevelsByCode.length;
+    }
+
     @Override
     public boolean hasNAs() {
         return hasNAs;
@@ -146,8 +226,15 @@ public final class FactorCovariate implements Covariate<String> {
 
         private final String value;
 
-        private FactorValue(final String value){
+        /**
+         * Position of the level in the list the FactorCovariate was constructed with; -1 for NA.
+         */
+        @Getter
+        private final int code;
+
+        private FactorValue(final String value, final int code){
             this.value = value;
+            this.code = code;
         }
 
         @Override
@@ -16,10 +16,12 @@
 
 package ca.joeltherrien.randomforest.covariates.factor;
 
+import ca.joeltherrien.randomforest.ColumnarDataset;
 import ca.joeltherrien.randomforest.covariates.Covariate;
 import ca.joeltherrien.randomforest.covariates.SplitRule;
 import lombok.EqualsAndHashCode;
 
+import java.util.Collections;
 import java.util.Set;
 
 @EqualsAndHashCode
@@ -30,11 +32,21 @@ public final class FactorSplitRule implements SplitRule<String> {
     private final int parentCovariateIndex;
     private final Set<String> leftSideValues;
 
+    private transient boolean[] leftSideCodes; // lazily created from leftSideValues for ColumnarDatasets
+
     public FactorSplitRule(final FactorCovariate parent, final Set<String> leftSideValues){
-        this.parentCovariateIndex = parent.getIndex();
+        this(parent.getIndex(), leftSideValues);
+    }
+
+    public FactorSplitRule(final int parentCovariateIndex, final Set<String> leftSideValues){
+        this.parentCovariateIndex = parentCovariateIndex;
         this.leftSideValues = leftSideValues;
     }
 
+    public Set<String> getLeftSideValues(){
+        return Collections.unmodifiableSet(leftSideValues);
+    }
+
     @Override
     public int getParentCovariateIndex() {
         return parentCovariateIndex;
@@ -48,4 +60,21 @@ public final class FactorSplitRule implements SplitRule<String> {
 
         return leftSideValues.contains(value.getValue());
     }
+
+    @Override
+    public boolean isLeftHand(final ColumnarDataset<?> data, final int row) {
+        boolean[] leftSideCodes = this.leftSideCodes;
+
+        if(leftSideCodes == null){
+            // no harm if two threads do this at once
+            final FactorCovariate covariate = (FactorCovariate) data.getCovariate(parentCovariateIndex);
+            leftSideCodes = new boolean[covariate.getNumberOfLevels()];
+            for(int code=0; code<leftSideCodes.length; code++){
+                leftSideCodes[code] = leftSideValues.contains(covariate.getValueByCode(code).getValue());
+            }
+            this.leftSideCodes = leftSideCodes;
+        }
+
+        return leftSideCodes[data.getFactorColumn(parentCovariateIndex)[row]];
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.covariates.numeric;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Quantizes the values of a NumericCovariate into at most 256 bins of roughly equal numbers of rows, used when training
+ * with histograms. Tied values are always placed in the same bin, so a covariate with few unique values gets one bin per
+ * value and loses nothing.
+ *
+ */
+public final class NumericBinning {
+
+    public static final int MAX_BINS = 256;
+
+    @Getter
+    private final int maxBins;
+
+    private final byte[] binCodes; // indexed by row; meaningless for NA rows
+    private final double[] upperBounds; // largest value in each bin
+
+    private NumericBinning(int maxBins, byte[] binCodes, double[] upperBounds){
+        this.maxBins = maxBins;
+        this.binCodes = binCodes;
+        this.upperBounds = upperBounds;
+    }
+
+    /**
+     * @param column The covariate's values, with NaN for NA.
+     * @param sortedRows The non-NA rows sorted by their values.
+     * @param maxBins The maximum number of bins; no more than MAX_BINS.
+     */
+    public static NumericBinning create(final double[] column, final int[] sortedRows, final int maxBins){
+        if(maxBins < 1 || maxBins > MAX_BINS){
+            throw new IllegalArgumentException("maxBins must be between 1 and " + MAX_BINS);
+        }
+
+        final byte[] binCodes = new byte[column.length];
+        final double[] upperBounds = new double[maxBins];
+        final int size = sortedRows.length;
+
+        int numberOfUniqueValues = 0;
+        for(int i=0; i<size; i++){
+            if(i == 0 || Double.compare(column[sortedRows[i-1]], column[sortedRows[i]]) != 0){
+                numberOfUniqueValues++;
+            }
+        }
+        final boolean binPerValue = numberOfUniqueValues <= maxBins;
+
+        int bin = 0;
+        int runStart = 0;
+        boolean binHasRows = false;
+        for(int runEnd=1; runEnd<=size; runEnd++){
+            final double value = column[sortedRows[runEnd-1]];
+            if(runEnd < size && Double.compare(value, column[sortedRows[runEnd]]) == 0){
+                continue;
+            }
+
+            for(int i=runStart; i<runEnd; i++){
+                binCodes[sortedRows[i]] = (byte) bin;
+            }
+            upperBounds[bin] = value;
+            binHasRows = true;
+            runStart = runEnd;
+
+            // close the bin once it has reached its share of the rows
+            if(binPerValue || (bin < maxBins-1 && (long) runEnd * maxBins >= (long) (bin+1) * size)){
+                bin++;
+                binHasRows = false;
+            }
+        }
+
+        final int numberOfBins = binHasRows ? bin+1 : bin;
+
+        return new NumericBinning(maxBins, binCodes, Arrays.copyOf(upperBounds, numberOfBins));
+    }
+
+    public int getNumberOfBins(){
+        return upperBounds.length;
+    }
+
+    public int getBin(int row){
+        return binCodes[row] & 0xFF;
+    }
+
+    public double getUpperBound(int bin){
+        return upperBounds[bin];
+    }
+
+}
@@ -18,18 +18,18 @@ package ca.joeltherrien.randomforest.covariates.numeric;
 
 import ca.joeltherrien.randomforest.Row;
 import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.tree.ColumnarNode;
+import ca.joeltherrien.randomforest.tree.ColumnarSplit;
 import ca.joeltherrien.randomforest.utils.IndexedIterator;
 import ca.joeltherrien.randomforest.utils.UniqueSubsetValueIterator;
 import ca.joeltherrien.randomforest.utils.UniqueValueIterator;
+import ca.joeltherrien.randomforest.utils.Utils;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 
-import java.util.Iterator;
-import java.util.List;
-import java.util.Random;
-import java.util.TreeSet;
+import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -107,6 +107,83 @@ public final class NumericCovariate implements Covariate<Double> {
 
     }
 
+    @Override
+    public <Y> Iterator<ColumnarSplit<Double>> generateColumnarSplits(ColumnarNode<Y> node, int number, Random random) {
+        final double[] column = node.getData().getNumericColumn(index);
+
+        final int[] presortedRows = node.getSortedRows(index);
+        if(presortedRows != null){
+            // the rows that are NA for this covariate are at the end
+            int end = node.getTo();
+            while(end > node.getFrom() && Double.isNaN(column[presortedRows[end-1]])){
+                end--;
+            }
+
+            if(end == node.getFrom()){
+                return null;
+            }
+            return createColumnarSplits(presortedRows, node.getFrom(), end, column, number, random);
+        }
+
+        final int[] nodeRows = node.getRows();
+
+        final int[] orderedRows = node.getScratchRows();
+        int size = 0;
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            final int row = nodeRows[i];
+            if(!Double.isNaN(column[row])){
+                orderedRows[size++] = row;
+            }
+        }
+
+        if(size == 0){
+            return null;
+        }
+
+        Utils.stableSortByValue(orderedRows, 0, size, column);
+
+        return createColumnarSplits(orderedRows, 0, size, column, number, random);
+    }
+
+    private Iterator<ColumnarSplit<Double>> createColumnarSplits(int[] orderedRows, int from, int to, double[] column, int number, Random random){
+        final int size = to - from;
+
+        // Mirror generateSplitRuleUpdater; a cut is made at the end of every run of tied values that contains
+        // one of the randomly selected indexes (or at the end of every run if number == 0).
+        final int[] selectedIndexes;
+        if(number == 0){
+            selectedIndexes = null;
+        }
+        else{
+            final TreeSet<Integer> indexSet = new TreeSet<>();
+            for(int i=0; i<number; i++){
+                indexSet.add(random.nextInt(size));
+            }
+            selectedIndexes = indexSet.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        final List<ColumnarSplit<Double>> splits = new ArrayList<>();
+        int selectedPosition = 0;
+        for(int runEnd=1; runEnd<=size; runEnd++){
+            final double value = column[orderedRows[from + runEnd-1]];
+            if(runEnd < size && Double.compare(value, column[orderedRows[from + runEnd]]) == 0){
+                continue;
+            }
+
+            boolean selected = selectedIndexes == null;
+            while(selectedIndexes != null && selectedPosition < selectedIndexes.length && selectedIndexes[selectedPosition] < runEnd){
+                selected = true;
+                selectedPosition++;
+            }
+
+            if(selected){
+                splits.add(new ColumnarSplit<>(new NumericSplitRule(this, value), orderedRows, from, from + runEnd, to));
+            }
+        }
+
+        return splits.iterator();
+    }
+
     @Override
     public NumericValue createValue(Double value) {
         return new NumericValue(value);
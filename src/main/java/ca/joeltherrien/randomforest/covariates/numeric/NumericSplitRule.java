@@ -16,9 +16,11 @@
 
 package ca.joeltherrien.randomforest.covariates.numeric;
 
+import ca.joeltherrien.randomforest.ColumnarDataset;
 import ca.joeltherrien.randomforest.covariates.Covariate;
 import ca.joeltherrien.randomforest.covariates.SplitRule;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 
 @EqualsAndHashCode
 public class NumericSplitRule implements SplitRule<Double> {
@@ -26,10 +28,15 @@ public class NumericSplitRule implements SplitRule<Double> {
     private static final long serialVersionUID = 1L;
 
     private final int parentCovariateIndex;
+    @Getter
     private final double threshold;
 
     public NumericSplitRule(NumericCovariate parent, final double threshold){
-        this.parentCovariateIndex = parent.getIndex();
+        this(parent.getIndex(), threshold);
+    }
+
+    public NumericSplitRule(final int parentCovariateIndex, final double threshold){
+        this.parentCovariateIndex = parentCovariateIndex;
         this.threshold = threshold;
     }
 
@@ -53,4 +60,9 @@ public class NumericSplitRule implements SplitRule<Double> {
 
         return xNum <= threshold;
     }
+
+    @Override
+    public boolean isLeftHand(final ColumnarDataset<?> data, final int row) {
+        return data.getNumericColumn(parentCovariateIndex)[row] <= threshold;
+    }
 }
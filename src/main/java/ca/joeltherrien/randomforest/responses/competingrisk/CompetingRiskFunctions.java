@@ -21,6 +21,7 @@ import lombok.Builder;
 import lombok.Getter;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
 @Builder
@@ -34,6 +35,10 @@ public class CompetingRiskFunctions implements Serializable {
     @Getter
     private final RightContinuousStepFunction survivalCurve;
 
+    public int getNumberOfEvents(){
+        return causeSpecificHazards.size();
+    }
+
     public RightContinuousStepFunction getCauseSpecificHazardFunction(int cause){
         return causeSpecificHazards.get(cause-1);
     }
@@ -42,6 +47,27 @@ public class CompetingRiskFunctions implements Serializable {
         return cumulativeIncidenceCurves.get(cause-1);
     }
 
+    /**
+     * Returns a copy of these functions with each curve's y values stored as floats; see
+     * RightContinuousStepFunction#toSinglePrecision.
+     *
+     */
+    public CompetingRiskFunctions toSinglePrecision(){
+        final List<RightContinuousStepFunction> newCauseSpecificHazards = new ArrayList<>(causeSpecificHazards.size());
+        final List<RightContinuousStepFunction> newCumulativeIncidenceCurves = new ArrayList<>(cumulativeIncidenceCurves.size());
+
+        for(int e=0; e<causeSpecificHazards.size(); e++){
+            newCauseSpecificHazards.add(causeSpecificHazards.get(e).toSinglePrecision());
+            newCumulativeIncidenceCurves.add(cumulativeIncidenceCurves.get(e).toSinglePrecision());
+        }
+
+        return CompetingRiskFunctions.builder()
+                .causeSpecificHazards(newCauseSpecificHazards)
+                .cumulativeIncidenceCurves(newCumulativeIncidenceCurves)
+                .survivalCurve(survivalCurve.toSinglePrecision())
+                .build();
+    }
+
     public double calculateEventSpecificMortality(final int event, final double tau){
         final RightContinuousStepFunction cif = getCumulativeIncidenceFunction(event);
         return cif.integrate(0, tau);
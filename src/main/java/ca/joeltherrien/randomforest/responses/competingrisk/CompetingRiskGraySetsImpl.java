@@ -18,20 +18,38 @@ package ca.joeltherrien.randomforest.responses.competingrisk;
 
 import java.util.Arrays;
 
+/**
+ * Each row adds to the Gray risk sets over one or two ranges of times; updates only record where those ranges start
+ * and end, and the left hand's risk sets are calculated from them the next time they're needed. Moving a row thus
+ * costs O(J) instead of O(J*m).
+ *
+ */
 public class CompetingRiskGraySetsImpl implements CompetingRiskSets<CompetingRiskResponseWithCensorTime> {
 
     final double[] times; // length m array
-    int[][] riskSetLeft; // J x m array
     final int[][] riskSetTotal; // J x m array
     int[][] numberOfEventsLeft; // J+1 x m array
     final int[][] numberOfEventsTotal; // J+1 x m array
 
+    private final int[][] riskSetLeftDifferences; // J x m+1 array; riskSetLeft[j][i] is the sum of its first i+1 entries
+    private final int[][] riskSetLeft; // J x m array; only valid if riskSetLeftIsCurrent
+    private boolean riskSetLeftIsCurrent;
+
     public CompetingRiskGraySetsImpl(double[] times, int[][] riskSetLeft, int[][] riskSetTotal, int[][] numberOfEventsLeft, int[][] numberOfEventsTotal) {
         this.times = times;
         this.riskSetLeft = riskSetLeft;
         this.riskSetTotal = riskSetTotal;
         this.numberOfEventsLeft = numberOfEventsLeft;
         this.numberOfEventsTotal = numberOfEventsTotal;
+
+        final int m = times.length;
+        this.riskSetLeftDifferences = new int[riskSetLeft.length][m+1];
+        for(int j=0; j<riskSetLeft.length; j++){
+            for(int i=0; i<m; i++){
+                riskSetLeftDifferences[j][i] = riskSetLeft[j][i] - (i > 0 ? riskSetLeft[j][i-1] : 0);
+            }
+        }
+        this.riskSetLeftIsCurrent = true;
     }
 
     @Override
@@ -41,7 +59,7 @@ public class CompetingRiskGraySetsImpl implements CompetingRiskSets<CompetingRis
 
     @Override
     public int getRiskSetLeft(int timeIndex, int event) {
-        return riskSetLeft[event-1][timeIndex];
+        return getRiskSetLeftArray(event)[timeIndex];
     }
 
     @Override
@@ -60,34 +78,79 @@ public class CompetingRiskGraySetsImpl implements CompetingRiskSets<CompetingRis
         return numberOfEventsTotal[event][timeIndex];
     }
 
+    @Override
+    public int[] getRiskSetLeftArray(int event) {
+        if(!riskSetLeftIsCurrent){
+            for(int j=0; j<riskSetLeft.length; j++){
+                final int[] differences = riskSetLeftDifferences[j];
+                final int[] riskSetLeftJ = riskSetLeft[j];
+
+                int runningTotal = 0;
+                for(int i=0; i<times.length; i++){
+                    runningTotal += differences[i];
+                    riskSetLeftJ[i] = runningTotal;
+                }
+            }
+            riskSetLeftIsCurrent = true;
+        }
+
+        return riskSetLeft[event-1];
+    }
+
+    @Override
+    public int[] getRiskSetTotalArray(int event) {
+        return riskSetTotal[event-1];
+    }
+
+    @Override
+    public int[] getNumberOfEventsLeftArray(int event) {
+        return numberOfEventsLeft[event];
+    }
+
+    @Override
+    public int[] getNumberOfEventsTotalArray(int event) {
+        return numberOfEventsTotal[event];
+    }
+
     @Override
     public void update(CompetingRiskResponseWithCensorTime rowMovedToLeft) {
         final double time = rowMovedToLeft.getU();
         final int k = Arrays.binarySearch(times, time);
-        final int delta_m_1 = rowMovedToLeft.getDelta() - 1;
-        final double censorTime = rowMovedToLeft.getC();
 
-        for(int j=0; j<riskSetLeft.length; j++){
-            final int[] riskSetLeftJ = riskSetLeft[j];
+        final int censorSearch = Arrays.binarySearch(times, rowMovedToLeft.getC());
+        final int censorTimeIndex = censorSearch >= 0 ? censorSearch : -censorSearch - 1;
+
+        update(k, rowMovedToLeft.getDelta(), censorTimeIndex, 1);
+    }
+
+    @Override
+    public void update(int timeIndex, int delta, int censorTimeIndex, int count) {
+        addToRiskSets(riskSetLeftDifferences, timeIndex, delta, censorTimeIndex, count);
+        riskSetLeftIsCurrent = false;
+
+        numberOfEventsLeft[delta][timeIndex] += count;
+    }
+
+    /**
+     * Adds count rows with the given response to Gray risk sets stored as differences; see riskSetLeftDifferences.
+     *
+     * @param differences J x m+1 array
+     */
+    static void addToRiskSets(int[][] differences, int timeIndex, int delta, int censorTimeIndex, int count){
+        final int delta_m_1 = delta - 1;
+
+        for(int j=0; j<differences.length; j++){
+            final int[] differencesJ = differences[j];
 
-            // first iteration; perform normal increment as if Y is normal
             // corresponds to the first part, U_i >= t, in I(...)
-            for(int i=0; i<=k; i++){
-                riskSetLeftJ[i]++;
-            }
+            differencesJ[0] += count;
+            differencesJ[timeIndex+1] -= count;
 
-            // second iteration; only if delta-1 != j
             // corresponds to the second part, U_i < t & delta_i != j & C_i > t
-            if(delta_m_1 != j && !rowMovedToLeft.isCensored()){
-                int i = k+1;
-                while(i < times.length && times[i] < censorTime){
-                    riskSetLeftJ[i]++;
-                    i++;
-                }
+            if(delta_m_1 != j && delta != 0 && censorTimeIndex > timeIndex+1){
+                differencesJ[timeIndex+1] += count;
+                differencesJ[censorTimeIndex] -= count;
             }
-
         }
-
-        numberOfEventsLeft[rowMovedToLeft.getDelta()][k]++;
     }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk;
+
+import ca.joeltherrien.randomforest.tree.SplitHistogram;
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * A SplitHistogram for competing risk responses. Within each bin rows with the same response are aggregated into an
+ * entry holding the rank of the response's time (see CompetingRiskResponseColumn#getTimeRank), its event, the rank of
+ * its censor time (Gray's test only), and the number of rows. Entries are sorted by those values within each bin.
+ *
+ * For scoring, the ranks are also converted into indexes into getTimes(), the distinct times among the histogram's rows.
+ *
+ */
+@Getter
+public final class CompetingRiskHistogram implements SplitHistogram {
+
+    private final double[] allTimes; // CompetingRiskResponseColumn#getDistinctTimes
+
+    private final int[] binCounts;
+    private final int[] binEntryStart; // entries of bin b are [binEntryStart[b], binEntryStart[b+1])
+
+    private final int[] entryTimeRank;
+    private final int[] entryDelta;
+    private final int[] entryCensorTimeRank; // null if censor times aren't used
+    private final int[] entryCount;
+
+    private final double[] times;
+    private final int[] entryTimeIndex;
+    private final int[] entryCensorTimeIndex; // null if censor times aren't used
+
+    public CompetingRiskHistogram(double[] allTimes, int[] binCounts, int[] binEntryStart,
+                                  int[] entryTimeRank, int[] entryDelta, int[] entryCensorTimeRank, int[] entryCount){
+        this.allTimes = allTimes;
+        this.binCounts = binCounts;
+        this.binEntryStart = binEntryStart;
+        this.entryTimeRank = entryTimeRank;
+        this.entryDelta = entryDelta;
+        this.entryCensorTimeRank = entryCensorTimeRank;
+        this.entryCount = entryCount;
+
+        final int[] timeRanks = Arrays.stream(entryTimeRank).sorted().distinct().toArray();
+
+        this.times = new double[timeRanks.length];
+        for(int i=0; i<timeRanks.length; i++){
+            times[i] = allTimes[timeRanks[i]];
+        }
+
+        this.entryTimeIndex = new int[entryTimeRank.length];
+        this.entryCensorTimeIndex = entryCensorTimeRank != null ? new int[entryTimeRank.length] : null;
+        for(int entry=0; entry<entryTimeRank.length; entry++){
+            entryTimeIndex[entry] = Arrays.binarySearch(timeRanks, entryTimeRank[entry]);
+
+            if(entryCensorTimeIndex != null){
+                final int search = Arrays.binarySearch(timeRanks, entryCensorTimeRank[entry]);
+                entryCensorTimeIndex[entry] = search >= 0 ? search : -search - 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the histogram of the rows in parent but not in child; child's rows must all be in parent.
+     *
+     */
+    public static CompetingRiskHistogram subtract(CompetingRiskHistogram parent, CompetingRiskHistogram child){
+        final int numberOfBins = parent.getNumberOfBins();
+        final boolean haveCensorTimes = parent.entryCensorTimeRank != null;
+
+        final int[] binCounts = new int[numberOfBins];
+        final int[] binEntryStart = new int[numberOfBins + 1];
+
+        final int maxEntries = parent.entryCount.length;
+        final int[] entryTimeRank = new int[maxEntries];
+        final int[] entryDelta = new int[maxEntries];
+        final int[] entryCensorTimeRank = haveCensorTimes ? new int[maxEntries] : null;
+        final int[] entryCount = new int[maxEntries];
+
+        int numberOfEntries = 0;
+        for(int bin=0; bin<numberOfBins; bin++){
+            binEntryStart[bin] = numberOfEntries;
+            binCounts[bin] = parent.binCounts[bin] - child.binCounts[bin];
+
+            // both lists of entries are sorted, and every child entry has a matching parent entry
+            int childEntry = child.binEntryStart[bin];
+            for(int parentEntry=parent.binEntryStart[bin]; parentEntry<parent.binEntryStart[bin+1]; parentEntry++){
+                int count = parent.entryCount[parentEntry];
+
+                if(childEntry < child.binEntryStart[bin+1] && parent.sameResponse(parentEntry, child, childEntry)){
+                    count -= child.entryCount[childEntry];
+                    childEntry++;
+                }
+
+                if(count > 0){
+                    entryTimeRank[numberOfEntries] = parent.entryTimeRank[parentEntry];
+                    entryDelta[numberOfEntries] = parent.entryDelta[parentEntry];
+                    if(haveCensorTimes){
+                        entryCensorTimeRank[numberOfEntries] = parent.entryCensorTimeRank[parentEntry];
+                    }
+                    entryCount[numberOfEntries] = count;
+                    numberOfEntries++;
+                }
+            }
+        }
+        binEntryStart[numberOfBins] = numberOfEntries;
+
+        return new CompetingRiskHistogram(
+                parent.allTimes,
+                binCounts,
+                binEntryStart,
+                Arrays.copyOf(entryTimeRank, numberOfEntries),
+                Arrays.copyOf(entryDelta, numberOfEntries),
+                haveCensorTimes ? Arrays.copyOf(entryCensorTimeRank, numberOfEntries) : null,
+                Arrays.copyOf(entryCount, numberOfEntries)
+        );
+    }
+
+    private boolean sameResponse(int entry, CompetingRiskHistogram other, int otherEntry){
+        return entryTimeRank[entry] == other.entryTimeRank[otherEntry]
+                && entryDelta[entry] == other.entryDelta[otherEntry]
+                && (entryCensorTimeRank == null || entryCensorTimeRank[entry] == other.entryCensorTimeRank[otherEntry]);
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return binCounts.length;
+    }
+
+    @Override
+    public int getCount(int bin) {
+        return binCounts[bin];
+    }
+
+    public int getCensorTimeIndex(int entry){
+        return entryCensorTimeIndex != null ? entryCensorTimeIndex[entry] : 0;
+    }
+
+}
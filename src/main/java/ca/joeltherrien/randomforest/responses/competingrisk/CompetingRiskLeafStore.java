@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk;
+
+import ca.joeltherrien.randomforest.tree.LeafStore;
+import ca.joeltherrien.randomforest.utils.RightContinuousStepFunction;
+import ca.joeltherrien.randomforest.utils.TreeCodec;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores the CompetingRiskFunctions of all of a tree's terminal nodes in a few flat arrays. Every function of a
+ * terminal node (the survival curve, and the J cause-specific hazards and cumulative incidence functions) has the same
+ * times, so each terminal node keeps its times once as indices into a time grid shared by the whole tree, followed by
+ * the 2J+1 functions' y values packed together.
+ *
+ * getLeaf builds a terminal node's CompetingRiskFunctions the first time it's called and then returns the same object.
+ * Its functions read their y values directly from the packed array (see RightContinuousStepFunction#ofRange), so a
+ * cached terminal node only adds its times and a few small objects.
+ *
+ */
+public class CompetingRiskLeafStore implements LeafStore<CompetingRiskFunctions> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int numberOfEvents;
+    private final double[] timeGrid; // sorted distinct times of all the terminal nodes
+
+    // Terminal node l has times timeGrid[timeIndices[k]] for k from leafOffsets[l] up to leafOffsets[l+1].
+    // Its y values start at (2J+1)*leafOffsets[l]; first the survival curve, then the hazards, then the CIFs.
+    private final int[] leafOffsets;
+    private final int[] timeIndices;
+    private final double[] yValues;
+
+    // defaultY of the survival curve, each hazard and each CIF, in the same order as in yValues
+    private final double[] defaultYs;
+
+    // filled in by getLeaf; the objects are immutable, so threads racing to fill an entry is harmless
+    private transient volatile CompetingRiskFunctions[] leafCache;
+
+    public CompetingRiskLeafStore(final List<CompetingRiskFunctions> leaves, final int numberOfEvents){
+        this.numberOfEvents = numberOfEvents;
+
+        final int numberOfLeaves = leaves.size();
+        final int functionsPerLeaf = 2*numberOfEvents + 1;
+
+        final List<double[]> leafTimes = new ArrayList<>(numberOfLeaves);
+        this.leafOffsets = new int[numberOfLeaves+1];
+        for(int l=0; l<numberOfLeaves; l++){
+            final double[] times = leaves.get(l).getSurvivalCurve().getX();
+            leafTimes.add(times);
+            leafOffsets[l+1] = leafOffsets[l] + times.length;
+        }
+
+        final int totalLength = leafOffsets[numberOfLeaves];
+
+        final double[] allTimes = new double[totalLength];
+        for(int l=0; l<numberOfLeaves; l++){
+            System.arraycopy(leafTimes.get(l), 0, allTimes, leafOffsets[l], leafTimes.get(l).length);
+        }
+        Arrays.sort(allTimes);
+
+        int numberOfDistinctTimes = 0;
+        for(int i=0; i<totalLength; i++){
+            if(i == 0 || allTimes[i] != allTimes[i-1]){
+                allTimes[numberOfDistinctTimes++] = allTimes[i];
+            }
+        }
+        this.timeGrid = Arrays.copyOf(allTimes, numberOfDistinctTimes);
+
+        this.timeIndices = new int[totalLength];
+        this.yValues = new double[functionsPerLeaf*totalLength];
+        this.defaultYs = new double[functionsPerLeaf];
+
+        for(int l=0; l<numberOfLeaves; l++){
+            final double[] times = leafTimes.get(l);
+            final int offset = leafOffsets[l];
+
+            for(int k=0; k<times.length; k++){
+                timeIndices[offset + k] = Arrays.binarySearch(timeGrid, times[k]);
+            }
+
+            final List<RightContinuousStepFunction> functions = listFunctions(leaves.get(l));
+            for(int f=0; f<functionsPerLeaf; f++){
+                final RightContinuousStepFunction function = functions.get(f);
+
+                if(!Arrays.equals(times, function.getX())){
+                    throw new IllegalArgumentException("All of a CompetingRiskFunctions' functions must have the same times");
+                }
+                if(l == 0){
+                    defaultYs[f] = function.getDefaultY();
+                }
+                else if(defaultYs[f] != function.getDefaultY()){
+                    throw new IllegalArgumentException("Each function must have the same defaultY in every CompetingRiskFunctions");
+                }
+
+                System.arraycopy(function.getY(), 0, yValues, functionsPerLeaf*offset + f*times.length, times.length);
+            }
+        }
+    }
+
+    private CompetingRiskLeafStore(final int numberOfEvents, final double[] timeGrid, final int[] leafOffsets,
+                                   final int[] timeIndices, final double[] yValues, final double[] defaultYs){
+        this.numberOfEvents = numberOfEvents;
+        this.timeGrid = timeGrid;
+        this.leafOffsets = leafOffsets;
+        this.timeIndices = timeIndices;
+        this.yValues = yValues;
+        this.defaultYs = defaultYs;
+    }
+
+    /**
+     * Writes this store for TreeCodec; see read.
+     *
+     */
+    public void write(final DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(numberOfEvents);
+        TreeCodec.writeDoubles(outputStream, timeGrid);
+        TreeCodec.writeInts(outputStream, leafOffsets);
+        TreeCodec.writeInts(outputStream, timeIndices);
+        TreeCodec.writeDoubles(outputStream, yValues);
+        TreeCodec.writeDoubles(outputStream, defaultYs);
+    }
+
+    public static CompetingRiskLeafStore read(final ByteBuffer buffer){
+        final int numberOfEvents = buffer.getInt();
+        final double[] timeGrid = TreeCodec.readDoubles(buffer);
+        final int[] leafOffsets = TreeCodec.readInts(buffer);
+        final int[] timeIndices = TreeCodec.readInts(buffer);
+        final double[] yValues = TreeCodec.readDoubles(buffer);
+        final double[] defaultYs = TreeCodec.readDoubles(buffer);
+
+        return new CompetingRiskLeafStore(numberOfEvents, timeGrid, leafOffsets, timeIndices, yValues, defaultYs);
+    }
+
+    public int getNumberOfEvents(){
+        return numberOfEvents;
+    }
+
+    private List<RightContinuousStepFunction> listFunctions(final CompetingRiskFunctions functions){
+        final List<RightContinuousStepFunction> functionList = new ArrayList<>(2*numberOfEvents + 1);
+        functionList.add(functions.getSurvivalCurve());
+        for(int event=1; event<=numberOfEvents; event++){
+            functionList.add(functions.getCauseSpecificHazardFunction(event));
+        }
+        for(int event=1; event<=numberOfEvents; event++){
+            functionList.add(functions.getCumulativeIncidenceFunction(event));
+        }
+        return functionList;
+    }
+
+    @Override
+    public CompetingRiskFunctions getLeaf(final int leafIndex) {
+        CompetingRiskFunctions[] cache = leafCache;
+        if(cache == null){
+            cache = new CompetingRiskFunctions[getNumberOfLeaves()];
+            leafCache = cache;
+        }
+
+        CompetingRiskFunctions leaf = cache[leafIndex];
+        if(leaf == null){
+            leaf = createLeaf(leafIndex);
+            cache[leafIndex] = leaf;
+        }
+
+        return leaf;
+    }
+
+    private CompetingRiskFunctions createLeaf(final int leafIndex) {
+        final int offset = leafOffsets[leafIndex];
+        final int length = leafOffsets[leafIndex+1] - offset;
+        final int functionsPerLeaf = 2*numberOfEvents + 1;
+
+        // the functions never modify their x, so they can share one array
+        final double[] times = new double[length];
+        for(int k=0; k<length; k++){
+            times[k] = timeGrid[timeIndices[offset + k]];
+        }
+
+        final List<RightContinuousStepFunction> functions = new ArrayList<>(functionsPerLeaf);
+        for(int f=0; f<functionsPerLeaf; f++){
+            final int start = functionsPerLeaf*offset + f*length;
+            functions.add(RightContinuousStepFunction.ofRange(times, yValues, start, defaultYs[f]));
+        }
+
+        return CompetingRiskFunctions.builder()
+                .survivalCurve(functions.get(0))
+                .causeSpecificHazards(new ArrayList<>(functions.subList(1, numberOfEvents + 1)))
+                .cumulativeIncidenceCurves(new ArrayList<>(functions.subList(numberOfEvents + 1, functionsPerLeaf)))
+                .build();
+    }
+
+    @Override
+    public int getNumberOfLeaves() {
+        return leafOffsets.length - 1;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk;
+
+import ca.joeltherrien.randomforest.ResponseColumn;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores competing risk responses as primitive arrays. If every response provided had a censor time then
+ * the responses are returned as CompetingRiskResponseWithCensorTime; otherwise as CompetingRiskResponse.
+ *
+ */
+public final class CompetingRiskResponseColumn<Y extends CompetingRiskResponse> implements ResponseColumn<Y> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] delta;
+    private final double[] u;
+    private final double[] c; // null if censor times aren't available
+
+    // Calculated on first use; see calculateTimeRanks
+    private transient volatile double[] distinctTimes; // assigned last, so the ranks are visible once it's non-null
+    private transient int[] timeRanks;
+    private transient int[] censorTimeRanks;
+
+    public CompetingRiskResponseColumn(final int[] delta, final double[] u, final double[] c){
+        if(delta.length != u.length || (c != null && c.length != u.length)){
+            throw new IllegalArgumentException("delta, u, and c must all be the same length");
+        }
+
+        this.delta = delta;
+        this.u = u;
+        this.c = c;
+    }
+
+    public static <Y extends CompetingRiskResponse> CompetingRiskResponseColumn<Y> of(final List<Y> responses){
+        final int n = responses.size();
+        final boolean haveCensorTimes = responses.stream().allMatch(response -> response instanceof CompetingRiskResponseWithCensorTime);
+
+        final int[] delta = new int[n];
+        final double[] u = new double[n];
+        final double[] c = haveCensorTimes ? new double[n] : null;
+
+        for(int i=0; i<n; i++){
+            final CompetingRiskResponse response = responses.get(i);
+            delta[i] = response.getDelta();
+            u[i] = response.getU();
+
+            if(haveCensorTimes){
+                c[i] = ((CompetingRiskResponseWithCensorTime) response).getC();
+            }
+        }
+
+        return new CompetingRiskResponseColumn<>(delta, u, c);
+    }
+
+    @Override
+    public int size() {
+        return delta.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Y get(int row) {
+        if(c != null){
+            return (Y) new CompetingRiskResponseWithCensorTime(delta[row], u[row], c[row]);
+        }
+
+        return (Y) new CompetingRiskResponse(delta[row], u[row]);
+    }
+
+    public int getDelta(int row){
+        return delta[row];
+    }
+
+    public double getU(int row){
+        return u[row];
+    }
+
+    public boolean hasCensorTimes(){
+        return c != null;
+    }
+
+    public double getC(int row){
+        return c[row];
+    }
+
+    /**
+     * @return Every distinct value of u, sorted.
+     */
+    public double[] getDistinctTimes(){
+        if(distinctTimes == null){
+            calculateTimeRanks();
+        }
+        return distinctTimes;
+    }
+
+    /**
+     * @return The index of the row's u in getDistinctTimes().
+     */
+    public int getTimeRank(int row){
+        if(distinctTimes == null){
+            calculateTimeRanks();
+        }
+        return timeRanks[row];
+    }
+
+    /**
+     * @return The index of the first time in getDistinctTimes() that is not less than the row's censor time.
+     */
+    public int getCensorTimeRank(int row){
+        if(distinctTimes == null){
+            calculateTimeRanks();
+        }
+        return censorTimeRanks[row];
+    }
+
+    private synchronized void calculateTimeRanks(){
+        if(distinctTimes != null){
+            return;
+        }
+
+        final double[] times = Arrays.stream(u).sorted().distinct().toArray();
+        final int[] ranks = new int[u.length];
+        final int[] censorRanks = c != null ? new int[u.length] : null;
+
+        for(int row=0; row<u.length; row++){
+            ranks[row] = Arrays.binarySearch(times, u[row]);
+
+            if(c != null){
+                final int search = Arrays.binarySearch(times, c[row]);
+                censorRanks[row] = search >= 0 ? search : -search - 1;
+            }
+        }
+
+        this.timeRanks = ranks;
+        this.censorTimeRanks = censorRanks;
+        this.distinctTimes = times;
+    }
+
+}
@@ -24,6 +24,26 @@ public interface CompetingRiskSets<T extends CompetingRiskResponse> {
     int getNumberOfEventsLeft(int timeIndex, int event);
     int getNumberOfEventsTotal(int timeIndex, int event);
 
+    /*
+     * The arrays behind the above methods for an event, indexed by time index. They're for reading only, so that
+     * scores can be calculated over whole arrays at once.
+     */
+    int[] getRiskSetLeftArray(int event);
+    int[] getRiskSetTotalArray(int event);
+    int[] getNumberOfEventsLeftArray(int event);
+    int[] getNumberOfEventsTotalArray(int event);
+
     void update(T rowMovedToLeft);
 
+    /**
+     * Moves rows that share the same response to the left hand.
+     *
+     * @param timeIndex The index of the rows' time in getDistinctTimes().
+     * @param delta The rows' event.
+     * @param censorTimeIndex The index of the first distinct time that is not less than the rows' censor time; only used
+     *                        by the sets for Gray's test.
+     * @param count The number of rows being moved.
+     */
+    void update(int timeIndex, int delta, int censorTimeIndex, int count);
+
 }
@@ -18,14 +18,22 @@ package ca.joeltherrien.randomforest.responses.competingrisk;
 
 import java.util.Arrays;
 
+/**
+ * Updates only record how many rows were moved left at each time; the left hand's risk sets are then calculated
+ * from those counts the next time they're needed, so that moving a row costs O(1) instead of O(m).
+ *
+ */
 public class CompetingRiskSetsImpl implements CompetingRiskSets<CompetingRiskResponse> {
 
     final double[] times; // length m array
-    int[] riskSetLeft; // length m array
     final int[] riskSetTotal; // length m array
     int[][] numberOfEventsLeft; // J+1 x m array
     final int[][] numberOfEventsTotal; // J+1 x m array
 
+    private final int[] numberLeftAtTime; // length m array; the number of left hand rows at each time
+    private final int[] riskSetLeft; // length m array; only valid if riskSetLeftIsCurrent
+    private boolean riskSetLeftIsCurrent;
+
 
     public CompetingRiskSetsImpl(double[] times, int[] riskSetLeft, int[] riskSetTotal, int[][] numberOfEventsLeft, int[][] numberOfEventsTotal) {
         this.times = times;
@@ -33,6 +41,13 @@ public class CompetingRiskSetsImpl implements CompetingRiskSets<CompetingRiskRes
         this.riskSetTotal = riskSetTotal;
         this.numberOfEventsLeft = numberOfEventsLeft;
         this.numberOfEventsTotal = numberOfEventsTotal;
+
+        final int m = times.length;
+        this.numberLeftAtTime = new int[m];
+        for(int k=0; k<m; k++){
+            numberLeftAtTime[k] = riskSetLeft[k] - (k+1 < m ? riskSetLeft[k+1] : 0);
+        }
+        this.riskSetLeftIsCurrent = true;
     }
 
     @Override
@@ -42,7 +57,7 @@ public class CompetingRiskSetsImpl implements CompetingRiskSets<CompetingRiskRes
 
     @Override
     public int getRiskSetLeft(int timeIndex, int event) {
-        return riskSetLeft[timeIndex];
+        return getRiskSetLeftArray(event)[timeIndex];
     }
 
     @Override
@@ -61,15 +76,49 @@ public class CompetingRiskSetsImpl implements CompetingRiskSets<CompetingRiskRes
         return numberOfEventsTotal[event][timeIndex];
     }
 
+    @Override
+    public int[] getRiskSetLeftArray(int event) {
+        if(!riskSetLeftIsCurrent){
+            // risk set at time k is everyone with a time >= k
+            int runningTotal = 0;
+            for(int k=times.length-1; k>=0; k--){
+                runningTotal += numberLeftAtTime[k];
+                riskSetLeft[k] = runningTotal;
+            }
+            riskSetLeftIsCurrent = true;
+        }
+
+        return riskSetLeft;
+    }
+
+    @Override
+    public int[] getRiskSetTotalArray(int event) {
+        return riskSetTotal;
+    }
+
+    @Override
+    public int[] getNumberOfEventsLeftArray(int event) {
+        return numberOfEventsLeft[event];
+    }
+
+    @Override
+    public int[] getNumberOfEventsTotalArray(int event) {
+        return numberOfEventsTotal[event];
+    }
+
     @Override
     public void update(CompetingRiskResponse rowMovedToLeft) {
         final double time = rowMovedToLeft.getU();
         final int k = Arrays.binarySearch(times, time);
 
-        for(int i=0; i<=k; i++){
-            riskSetLeft[i]++;
-        }
+        update(k, rowMovedToLeft.getDelta(), 0, 1);
+    }
+
+    @Override
+    public void update(int timeIndex, int delta, int censorTimeIndex, int count) {
+        numberLeftAtTime[timeIndex] += count;
+        riskSetLeftIsCurrent = false;
 
-        numberOfEventsLeft[rowMovedToLeft.getDelta()][k]++;
+        numberOfEventsLeft[delta][timeIndex] += count;
     }
 }
@@ -195,15 +195,10 @@ public class CompetingRiskUtils {
         final int nRight = initialRightHand.size();
 
         final int[][] numberOfCurrentEventsLeft = new int[eventsOfFocus.length+1][m];
-        final int[] riskSetArrayLeft = new int[m];
-        final int[] riskSetArrayTotal = new int[m];
-
-
 
-        for(int k=0; k<m; k++){
-            riskSetArrayLeft[k] = nLeft;
-            riskSetArrayTotal[k] = nLeft + nRight;
-        }
+        // Rather than decreasing every future risk set as we go, we record only the decreases and sum them at the end
+        final int[] riskSetDecreaseLeft = new int[m];
+        final int[] riskSetDecreaseTotal = new int[m];
 
         // Left Hand
         for(int i=0; i<nLeft; i++){
@@ -223,13 +218,10 @@ public class CompetingRiskUtils {
 
                 // Calculate risk set values
                 // Note that we only decrease values in the *future*
-                if(calculateRiskSets){
+                if(calculateRiskSets && k+1 < m){
                     final int decreaseBy = totalNumberOfCurrentEvents + numberOfCurrentEventsLeft[0][k];
-                    for(int j=k+1; j<m; j++){
-                        riskSetArrayLeft[j] = riskSetArrayLeft[j] - decreaseBy;
-                        riskSetArrayTotal[j] = riskSetArrayTotal[j] - decreaseBy;
-
-                    }
+                    riskSetDecreaseLeft[k+1] += decreaseBy;
+                    riskSetDecreaseTotal[k+1] += decreaseBy;
                 }
 
 
@@ -272,11 +264,9 @@ public class CompetingRiskUtils {
 
                 // Calculate risk set values
                 // Note that we only decrease values in the *future*
-                if(calculateRiskSets){
+                if(calculateRiskSets && k+1 < m){
                     final int decreaseBy = totalNumberOfCurrentEvents + currentEventsRight[0];
-                    for(int j=k+1; j<m; j++){
-                        riskSetArrayTotal[j] = riskSetArrayTotal[j] - decreaseBy;
-                    }
+                    riskSetDecreaseTotal[k+1] += decreaseBy;
                 }
 
                 // Reset
@@ -286,6 +276,19 @@ public class CompetingRiskUtils {
 
         }
 
+        final int[] riskSetArrayLeft = new int[m];
+        final int[] riskSetArrayTotal = new int[m];
+
+        int decreaseLeft = 0;
+        int decreaseTotal = 0;
+        for(int k=0; k<m; k++){
+            decreaseLeft += riskSetDecreaseLeft[k];
+            decreaseTotal += riskSetDecreaseTotal[k];
+
+            riskSetArrayLeft[k] = nLeft - decreaseLeft;
+            riskSetArrayTotal[k] = nLeft + nRight - decreaseTotal;
+        }
+
         return new CompetingRiskSetsImpl(distinctEventTimes, riskSetArrayLeft, riskSetArrayTotal, numberOfCurrentEventsLeft, numberOfCurrentEventsTotal);
 
     }
@@ -307,77 +310,113 @@ public class CompetingRiskUtils {
         final int[][] numberOfEventsLeft = normalSets.numberOfEventsLeft;
         final int[][] numberOfEventsTotal = normalSets.numberOfEventsTotal;
 
-        // FYI; initialLeftHand and initialRightHand have both now been sorted
-        // Time to calculate the Gray modified risk sets
-        final int[][] riskSetsLeft = new int[eventsOfFocus.length][times.length];
-        final int[][] riskSetsTotal = new int[eventsOfFocus.length][times.length];
+        // Time to calculate the Gray modified risk sets; each response adds to a range of times, so we first record
+        // only the differences
+        final int[][] differencesLeft = new int[eventsOfFocus.length][times.length+1];
+        final int[][] differencesTotal = new int[eventsOfFocus.length][times.length+1];
 
-        // Left hand first
         for(final CompetingRiskResponseWithCensorTime response : initialLeftHand){
-            final double time = response.getU();
-            final int k = Arrays.binarySearch(times, time);
-            final int delta_m_1 = response.getDelta() - 1;
-            final double censorTime = response.getC();
-
-            for(int j=0; j<eventsOfFocus.length; j++){
-                final int[] riskSetLeftJ = riskSetsLeft[j];
-                final int[] riskSetTotalJ = riskSetsTotal[j];
-
-                // first iteration; perform normal increment as if Y is normal
-                // corresponds to the first part, U_i >= t, in I(...)
-                for(int i=0; i<=k; i++){
-                    riskSetLeftJ[i]++;
-                    riskSetTotalJ[i]++;
-                }
+            final int k = Arrays.binarySearch(times, response.getU());
+            final int censorTimeIndex = findCensorTimeIndex(times, response.getC());
 
-                // second iteration; only if delta-1 != j
-                // corresponds to the second part, U_i < t & delta_i != j & C_i > t
-                if(delta_m_1 != j && !response.isCensored()){
-                    int i = k+1;
-                    while(i < times.length && times[i] < censorTime){
-                        riskSetLeftJ[i]++;
-                        riskSetTotalJ[i]++;
-                        i++;
-                    }
-                }
+            CompetingRiskGraySetsImpl.addToRiskSets(differencesLeft, k, response.getDelta(), censorTimeIndex, 1);
+            CompetingRiskGraySetsImpl.addToRiskSets(differencesTotal, k, response.getDelta(), censorTimeIndex, 1);
+        }
 
-            }
+        for(final CompetingRiskResponseWithCensorTime response : initialRightHand){
+            final int k = Arrays.binarySearch(times, response.getU());
+            final int censorTimeIndex = findCensorTimeIndex(times, response.getC());
 
+            CompetingRiskGraySetsImpl.addToRiskSets(differencesTotal, k, response.getDelta(), censorTimeIndex, 1);
         }
 
-        // Repeat for right hand
-        for(final CompetingRiskResponseWithCensorTime response : initialRightHand){
-            final double time = response.getU();
-            final int k = Arrays.binarySearch(times, time);
-            final int delta_m_1 = response.getDelta() - 1;
-            final double censorTime = response.getC();
-
-            for(int j=0; j<eventsOfFocus.length; j++){
-                final int[] riskSetTotalJ = riskSetsTotal[j];
-
-                // first iteration; perform normal increment as if Y is normal
-                // corresponds to the first part, U_i >= t, in I(...)
-                for(int i=0; i<=k; i++){
-                    riskSetTotalJ[i]++;
-                }
+        final int[][] riskSetsLeft = sumDifferences(differencesLeft, times.length);
+        final int[][] riskSetsTotal = sumDifferences(differencesTotal, times.length);
 
-                // second iteration; only if delta-1 != j
-                // corresponds to the second part, U_i < t & delta_i != j & C_i > t
-                if(delta_m_1 != j && !response.isCensored()){
-                    int i = k+1;
-                    while(i < times.length && times[i] < censorTime){
-                        riskSetTotalJ[i]++;
-                        i++;
-                    }
-                }
+        return new CompetingRiskGraySetsImpl(times, riskSetsLeft, riskSetsTotal, numberOfEventsLeft, numberOfEventsTotal);
 
-            }
+    }
 
+    /**
+     * Calculates the sets for a histogram with every bin in the right hand; bins are then moved left using
+     * CompetingRiskSets#update(int, int, int, int).
+     *
+     */
+    public static CompetingRiskSetsImpl calculateSetsFromHistogram(final CompetingRiskHistogram histogram, int[] eventsOfFocus){
+        final double[] times = histogram.getTimes();
+        final int m = times.length;
+
+        final int[] entryTimeIndex = histogram.getEntryTimeIndex();
+        final int[] entryDelta = histogram.getEntryDelta();
+        final int[] entryCount = histogram.getEntryCount();
+
+        final int[][] numberOfEventsLeft = new int[eventsOfFocus.length+1][m];
+        final int[][] numberOfEventsTotal = new int[eventsOfFocus.length+1][m];
+        final int[] riskSetLeft = new int[m];
+        final int[] riskSetTotal = new int[m];
+
+        for(int entry=0; entry<entryCount.length; entry++){
+            final int k = entryTimeIndex[entry];
+
+            numberOfEventsTotal[entryDelta[entry]][k] += entryCount[entry];
+            riskSetTotal[k] += entryCount[entry];
         }
 
-        return new CompetingRiskGraySetsImpl(times, riskSetsLeft, riskSetsTotal, numberOfEventsLeft, numberOfEventsTotal);
+        // risk set at time k is everyone with a time >= k
+        for(int k=m-2; k>=0; k--){
+            riskSetTotal[k] += riskSetTotal[k+1];
+        }
 
+        return new CompetingRiskSetsImpl(times, riskSetLeft, riskSetTotal, numberOfEventsLeft, numberOfEventsTotal);
     }
 
+    /**
+     * Same as calculateSetsFromHistogram but for Gray's test; the histogram must have censor times.
+     *
+     */
+    public static CompetingRiskGraySetsImpl calculateGraySetsFromHistogram(final CompetingRiskHistogram histogram, int[] eventsOfFocus){
+        final CompetingRiskSetsImpl normalSets = calculateSetsFromHistogram(histogram, eventsOfFocus);
+
+        final double[] times = normalSets.times;
+        final int m = times.length;
+
+        final int[] entryTimeIndex = histogram.getEntryTimeIndex();
+        final int[] entryDelta = histogram.getEntryDelta();
+        final int[] entryCount = histogram.getEntryCount();
+
+        // Each entry adds its count to a range of times, so we first record only the differences
+        final int[][] differences = new int[eventsOfFocus.length][m+1];
+        for(int entry=0; entry<entryCount.length; entry++){
+            CompetingRiskGraySetsImpl.addToRiskSets(differences, entryTimeIndex[entry], entryDelta[entry],
+                    histogram.getCensorTimeIndex(entry), entryCount[entry]);
+        }
+
+        final int[][] riskSetsLeft = new int[eventsOfFocus.length][m];
+        final int[][] riskSetsTotal = sumDifferences(differences, m);
+
+        return new CompetingRiskGraySetsImpl(times, riskSetsLeft, riskSetsTotal, normalSets.numberOfEventsLeft, normalSets.numberOfEventsTotal);
+    }
+
+    /**
+     * @return The index of the first time not less than censorTime.
+     */
+    private static int findCensorTimeIndex(double[] times, double censorTime){
+        final int search = Arrays.binarySearch(times, censorTime);
+        return search >= 0 ? search : -search - 1;
+    }
+
+    private static int[][] sumDifferences(int[][] differences, int m){
+        final int[][] sums = new int[differences.length][m];
+
+        for(int j=0; j<differences.length; j++){
+            int runningTotal = 0;
+            for(int i=0; i<m; i++){
+                runningTotal += differences[j][i];
+                sums[j][i] = runningTotal;
+            }
+        }
+
+        return sums;
+    }
 
 }
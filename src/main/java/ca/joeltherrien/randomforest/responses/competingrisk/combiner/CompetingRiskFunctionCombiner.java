@@ -19,12 +19,11 @@ package ca.joeltherrien.randomforest.responses.competingrisk.combiner;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskFunctions;
 import ca.joeltherrien.randomforest.tree.ForestResponseCombiner;
 import ca.joeltherrien.randomforest.tree.IntermediateCombinedResponse;
-import lombok.RequiredArgsConstructor;
+import ca.joeltherrien.randomforest.utils.RightContinuousStepFunction;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 
-@RequiredArgsConstructor
 public class CompetingRiskFunctionCombiner implements ForestResponseCombiner<CompetingRiskFunctions, CompetingRiskFunctions> {
 
     private static final long serialVersionUID = 1L;
@@ -32,6 +31,35 @@ public class CompetingRiskFunctionCombiner implements ForestResponseCombiner<Com
     private final int[] events;
     private final double[] times; // We may restrict ourselves to specific times.
 
+    /**
+     * If positive, each output is coarsened with coarsen so that its CIFs are off by at most this much.
+     */
+    private final double maxCIFError;
+
+    /**
+     * If true each output stores its curves' y values as floats; see CompetingRiskFunctions#toSinglePrecision.
+     */
+    private final boolean singlePrecision;
+
+    public CompetingRiskFunctionCombiner(int[] events, double[] times){
+        this(events, times, 0.0);
+    }
+
+    public CompetingRiskFunctionCombiner(int[] events, double[] times, double maxCIFError){
+        this(events, times, maxCIFError, false);
+    }
+
+    public CompetingRiskFunctionCombiner(int[] events, double[] times, double maxCIFError, boolean singlePrecision){
+        if(maxCIFError < 0.0){
+            throw new IllegalArgumentException("maxCIFError can't be negative");
+        }
+
+        this.events = events;
+        this.times = times;
+        this.maxCIFError = maxCIFError;
+        this.singlePrecision = singlePrecision;
+    }
+
     public int[] getEvents(){
         return events.clone();
     }
@@ -42,20 +70,8 @@ public class CompetingRiskFunctionCombiner implements ForestResponseCombiner<Com
 
     @Override
     public CompetingRiskFunctions combine(List<CompetingRiskFunctions> responses) {
-
-        final double[] timesToUse;
-        if(times != null){
-            timesToUse = times;
-        }
-        else{
-            timesToUse = responses.stream()
-                    .map(functions -> functions.getSurvivalCurve())
-                    .flatMapToDouble(
-                            function -> Arrays.stream(function.getX())
-                    ).sorted().distinct().toArray();
-        }
-
-        final IntermediateCompetingRisksFunctionsTimesKnown intermediateResult = new IntermediateCompetingRisksFunctionsTimesKnown(responses.size(), this.events, timesToUse);
+        final IntermediateCombinedResponse<CompetingRiskFunctions, CompetingRiskFunctions> intermediateResult =
+                startIntermediateCombinedResponse(responses.size());
 
         for(CompetingRiskFunctions input : responses){
             intermediateResult.processNewInput(input);
@@ -64,13 +80,126 @@ public class CompetingRiskFunctionCombiner implements ForestResponseCombiner<Com
         return intermediateResult.transformToOutput();
     }
 
+    /**
+     * If times is null the output uses the union of the inputs' times, which are merged in as they're processed.
+     *
+     */
     @Override
     public IntermediateCombinedResponse<CompetingRiskFunctions, CompetingRiskFunctions> startIntermediateCombinedResponse(int countInputs) {
+        final IntermediateCombinedResponse<CompetingRiskFunctions, CompetingRiskFunctions> intermediate;
         if(this.times != null){
-            return new IntermediateCompetingRisksFunctionsTimesKnown(countInputs, this.events, this.times);
+            intermediate = new IntermediateCompetingRisksFunctionsTimesKnown(countInputs, this.events, this.times);
+        }
+        else{
+            intermediate = new IntermediateCompetingRisksFunctionsTimesUnknown(this.events);
+        }
+
+        if(maxCIFError > 0.0 || singlePrecision){
+            return new PostProcessingIntermediateCombinedResponse(intermediate, maxCIFError, singlePrecision);
+        }
+        return intermediate;
+    }
+
+    /**
+     * Drops times from functions so that, at every time, each of its CIFs is off by at most maxCIFError (and so the
+     * survival curve by at most the number of events times maxCIFError). A time is kept whenever some CIF has moved by
+     * more than maxCIFError since the last kept time; since the CIFs are non-decreasing and their sum is at most 1, at
+     * most 1 / maxCIFError times are kept no matter how many times functions has. The cause-specific hazards are
+     * evaluated at the kept times but have no error bound.
+     *
+     * All of functions' curves must share the same times, as the outputs of the combiners do.
+     *
+     */
+    public static CompetingRiskFunctions coarsen(CompetingRiskFunctions functions, double maxCIFError){
+        final RightContinuousStepFunction survivalCurve = functions.getSurvivalCurve();
+        final double[] x = survivalCurve.getX();
+        final int numberOfEvents = functions.getNumberOfEvents();
+
+        final double[][] cifY = new double[numberOfEvents][];
+        final double[] lastKeptCIF = new double[numberOfEvents];
+        for(int e=0; e<numberOfEvents; e++){
+            final RightContinuousStepFunction cif = functions.getCumulativeIncidenceFunction(e+1);
+            cifY[e] = cif.getY();
+            lastKeptCIF[e] = cif.getDefaultY();
         }
 
-        // TODO - implement
-        throw new RuntimeException("startIntermediateCombinedResponse when times is unknown is not yet implemented");
+        final int[] keptIndices = new int[x.length];
+        int numberKept = 0;
+        for(int i=0; i<x.length; i++){
+            boolean keep = false;
+            for(int e=0; e<numberOfEvents; e++){
+                keep |= Math.abs(cifY[e][i] - lastKeptCIF[e]) > maxCIFError;
+            }
+
+            if(keep){
+                keptIndices[numberKept++] = i;
+                for(int e=0; e<numberOfEvents; e++){
+                    lastKeptCIF[e] = cifY[e][i];
+                }
+            }
+        }
+
+        if(numberKept == x.length){
+            return functions;
+        }
+
+        final double[] keptX = new double[numberKept];
+        for(int k=0; k<numberKept; k++){
+            keptX[k] = x[keptIndices[k]];
+        }
+
+        final List<RightContinuousStepFunction> causeSpecificHazards = new ArrayList<>(numberOfEvents);
+        final List<RightContinuousStepFunction> cumulativeIncidenceCurves = new ArrayList<>(numberOfEvents);
+        for(int e=0; e<numberOfEvents; e++){
+            causeSpecificHazards.add(keepIndices(functions.getCauseSpecificHazardFunction(e+1), keptX, keptIndices, numberKept));
+            cumulativeIncidenceCurves.add(keepIndices(functions.getCumulativeIncidenceFunction(e+1), keptX, keptIndices, numberKept));
+        }
+
+        return CompetingRiskFunctions.builder()
+                .causeSpecificHazards(causeSpecificHazards)
+                .cumulativeIncidenceCurves(cumulativeIncidenceCurves)
+                .survivalCurve(keepIndices(survivalCurve, keptX, keptIndices, numberKept))
+                .build();
+    }
+
+    private static RightContinuousStepFunction keepIndices(RightContinuousStepFunction function, double[] keptX, int[] keptIndices, int numberKept){
+        final double[] keptY = new double[numberKept];
+        for(int k=0; k<numberKept; k++){
+            keptY[k] = function.evaluateByIndex(keptIndices[k]);
+        }
+        return new RightContinuousStepFunction(keptX, keptY, function.getDefaultY());
+    }
+
+    // coarsens and/or converts the output to single precision
+    private static final class PostProcessingIntermediateCombinedResponse implements IntermediateCombinedResponse<CompetingRiskFunctions, CompetingRiskFunctions> {
+        private final IntermediateCombinedResponse<CompetingRiskFunctions, CompetingRiskFunctions> intermediate;
+        private final double maxCIFError;
+        private final boolean singlePrecision;
+
+        private PostProcessingIntermediateCombinedResponse(IntermediateCombinedResponse<CompetingRiskFunctions, CompetingRiskFunctions> intermediate,
+                                                           double maxCIFError, boolean singlePrecision){
+            this.intermediate = intermediate;
+            this.maxCIFError = maxCIFError;
+            this.singlePrecision = singlePrecision;
+        }
+
+        @Override
+        public void processNewInput(CompetingRiskFunctions input) {
+            intermediate.processNewInput(input);
+        }
+
+        @Override
+        public CompetingRiskFunctions transformToOutput() {
+            CompetingRiskFunctions output = intermediate.transformToOutput();
+
+            if(maxCIFError > 0.0){
+                output = coarsen(output, maxCIFError);
+            }
+            if(singlePrecision){
+                output = output.toSinglePrecision();
+            }
+
+            return output;
+        }
     }
 }
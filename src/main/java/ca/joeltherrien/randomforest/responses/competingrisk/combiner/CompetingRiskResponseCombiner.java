@@ -17,8 +17,10 @@
 package ca.joeltherrien.randomforest.responses.competingrisk.combiner;
 
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskFunctions;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskLeafStore;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
 import ca.joeltherrien.randomforest.tree.ResponseCombiner;
+import ca.joeltherrien.randomforest.tree.Tree;
 import ca.joeltherrien.randomforest.utils.Point;
 import ca.joeltherrien.randomforest.utils.RightContinuousStepFunction;
 
@@ -172,6 +174,15 @@ public class CompetingRiskResponseCombiner implements ResponseCombiner<Competing
                 .build();
     }
 
+    /**
+     * Moves the tree's CompetingRiskFunctions into a CompetingRiskLeafStore, which takes several times less memory.
+     *
+     */
+    @Override
+    public Tree<CompetingRiskFunctions> compactTree(Tree<CompetingRiskFunctions> tree) {
+        return tree.withLeafStore(leaves -> new CompetingRiskLeafStore(leaves, events.length));
+    }
+
 
 
 }
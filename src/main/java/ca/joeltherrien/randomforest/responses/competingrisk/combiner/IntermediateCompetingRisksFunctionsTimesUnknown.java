@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk.combiner;
+
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskFunctions;
+import ca.joeltherrien.randomforest.tree.IntermediateCombinedResponse;
+import ca.joeltherrien.randomforest.utils.RightContinuousStepFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combines CompetingRiskFunctions onto the union of their survival curves' times, without knowing those times in
+ * advance. The union so far is kept sorted along with running sums of every curve on it; each new input's times are
+ * merged in (O(m) instead of re-sorting), with the sums for new times carried forward from the previous time. Once
+ * the union stops growing the sums are updated in place.
+ *
+ * Like IntermediateCompetingRisksFunctionsTimesKnown this assumes that the cause-specific hazards and CIFs of an input
+ * only change at its survival curve's times (which is how CompetingRiskResponseCombiner creates them); otherwise
+ * carrying the sums forward is only an approximation.
+ *
+ */
+public class IntermediateCompetingRisksFunctionsTimesUnknown implements IntermediateCombinedResponse<CompetingRiskFunctions, CompetingRiskFunctions> {
+
+    private final int[] events;
+    private int actualN;
+
+    private double[] times;
+    private double[] survivalSum;
+    private double[][] csCHFSum; // indexed by position in events
+    private double[][] cifSum;
+
+    public IntermediateCompetingRisksFunctionsTimesUnknown(int[] events){
+        this.events = events;
+        this.actualN = 0;
+
+        this.times = new double[0];
+        this.survivalSum = new double[0];
+        this.csCHFSum = new double[events.length][0];
+        this.cifSum = new double[events.length][0];
+    }
+
+    @Override
+    public void processNewInput(CompetingRiskFunctions input) {
+        final RightContinuousStepFunction survivalCurve = input.getSurvivalCurve();
+        final double[] inputTimes = survivalCurve.getX();
+        final double[] mergedTimes = mergeTimes(times, inputTimes);
+
+        if(mergedTimes.length != times.length){
+            carrySumsForward(mergedTimes);
+        }
+
+        addInput(input, inputTimes);
+        actualN++;
+    }
+
+    // moves the running sums onto mergedTimes, which contains times
+    private void carrySumsForward(double[] mergedTimes){
+        final double[] newSurvivalSum = new double[mergedTimes.length];
+        final double[][] newCSCHFSum = new double[events.length][mergedTimes.length];
+        final double[][] newCIFSum = new double[events.length][mergedTimes.length];
+
+        int previous = -1; // largest index into times that's <= the current time
+        for(int i=0; i<mergedTimes.length; i++){
+            while(previous + 1 < times.length && times[previous + 1] <= mergedTimes[i]){
+                previous++;
+            }
+
+            if(previous < 0){
+                newSurvivalSum[i] = actualN; // each survival curve starts at 1; the other curves start at 0
+                continue;
+            }
+
+            newSurvivalSum[i] = survivalSum[previous];
+            for(int e=0; e<events.length; e++){
+                newCSCHFSum[e][i] = csCHFSum[e][previous];
+                newCIFSum[e][i] = cifSum[e][previous];
+            }
+        }
+
+        this.times = mergedTimes;
+        this.survivalSum = newSurvivalSum;
+        this.csCHFSum = newCSCHFSum;
+        this.cifSum = newCIFSum;
+    }
+
+    private void addInput(CompetingRiskFunctions input, double[] inputTimes){
+        final RightContinuousStepFunction survivalCurve = input.getSurvivalCurve();
+
+        int survivalIndex = -1;
+        for(int i=0; i<times.length; i++){
+            while(survivalIndex + 1 < inputTimes.length && inputTimes[survivalIndex + 1] <= times[i]){
+                survivalIndex++;
+            }
+            survivalSum[i] += survivalCurve.evaluateByIndex(survivalIndex);
+        }
+
+        for(int e=0; e<events.length; e++){
+            final RightContinuousStepFunction csCHF = input.getCauseSpecificHazardFunction(events[e]);
+            final RightContinuousStepFunction cif = input.getCumulativeIncidenceFunction(events[e]);
+            final double[] eventTimes = cif.getX(); // shared by the CHF and CIF
+
+            int eventIndex = -1;
+            for(int i=0; i<times.length; i++){
+                while(eventIndex + 1 < eventTimes.length && eventTimes[eventIndex + 1] <= times[i]){
+                    eventIndex++;
+                }
+                csCHFSum[e][i] += csCHF.evaluateByIndex(eventIndex);
+                cifSum[e][i] += cif.evaluateByIndex(eventIndex);
+            }
+        }
+    }
+
+    // union of two sorted arrays of distinct values; returns a if b adds nothing new
+    static double[] mergeTimes(double[] a, double[] b){
+        final double[] merged = new double[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+
+        while(i < a.length && j < b.length){
+            if(a[i] < b[j]){
+                merged[k++] = a[i++];
+            }
+            else if(b[j] < a[i]){
+                merged[k++] = b[j++];
+            }
+            else{
+                merged[k++] = a[i++];
+                j++;
+            }
+        }
+        while(i < a.length){
+            merged[k++] = a[i++];
+        }
+        while(j < b.length){
+            merged[k++] = b[j++];
+        }
+
+        if(k == a.length){
+            return a;
+        }
+
+        final double[] result = new double[k];
+        System.arraycopy(merged, 0, result, 0, k);
+        return result;
+    }
+
+    @Override
+    public CompetingRiskFunctions transformToOutput() {
+        final double n = actualN;
+
+        final double[] survivalY = new double[times.length];
+        for(int i=0; i<times.length; i++){
+            survivalY[i] = survivalSum[i] / n;
+        }
+
+        final List<RightContinuousStepFunction> causeSpecificCumulativeHazardFunctionList = new ArrayList<>(events.length);
+        final List<RightContinuousStepFunction> cumulativeIncidenceFunctionList = new ArrayList<>(events.length);
+
+        for(int e=0; e<events.length; e++){
+            final double[] csCHFY = new double[times.length];
+            final double[] cifY = new double[times.length];
+            for(int i=0; i<times.length; i++){
+                csCHFY[i] = csCHFSum[e][i] / n;
+                cifY[i] = cifSum[e][i] / n;
+            }
+
+            causeSpecificCumulativeHazardFunctionList.add(new RightContinuousStepFunction(times, csCHFY, 0));
+            cumulativeIncidenceFunctionList.add(new RightContinuousStepFunction(times, cifY, 0));
+        }
+
+        return CompetingRiskFunctions.builder()
+                .causeSpecificHazards(causeSpecificCumulativeHazardFunctionList)
+                .cumulativeIncidenceCurves(cumulativeIncidenceFunctionList)
+                .survivalCurve(new RightContinuousStepFunction(times, survivalY, 1.0))
+                .build();
+    }
+
+}
@@ -16,16 +16,17 @@
 
 package ca.joeltherrien.randomforest.responses.competingrisk.splitfinder;
 
+import ca.joeltherrien.randomforest.ResponseColumn;
 import ca.joeltherrien.randomforest.Row;
 import ca.joeltherrien.randomforest.covariates.Covariate;
-import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
-import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskSets;
-import ca.joeltherrien.randomforest.tree.SplitFinder;
-import ca.joeltherrien.randomforest.tree.Split;
-import ca.joeltherrien.randomforest.tree.SplitAndScore;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericBinning;
+import ca.joeltherrien.randomforest.responses.competingrisk.*;
+import ca.joeltherrien.randomforest.tree.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -35,10 +36,15 @@ import java.util.stream.Collectors;
  * modifies the abstract method.
  *
  */
-public abstract class CompetingRiskSplitFinder<Y extends CompetingRiskResponse> implements SplitFinder<Y> {
+public abstract class CompetingRiskSplitFinder<Y extends CompetingRiskResponse> implements HistogramSplitFinder<Y> {
 
     abstract protected CompetingRiskSets<Y> createCompetingRiskSets(List<Y> leftHand, List<Y> rightHand);
 
+    /**
+     * Creates the sets for a histogram with every row in the right hand.
+     */
+    abstract protected CompetingRiskSets<Y> createCompetingRiskSets(CompetingRiskHistogram histogram);
+
     abstract protected Double getScore(final CompetingRiskSets<Y> competingRiskSets);
 
     @Override
@@ -116,43 +122,441 @@ public abstract class CompetingRiskSplitFinder<Y extends CompetingRiskResponse>
 
     }
 
+    @Override
+    public ColumnarSplitAndScore<?> findBestSplit(ColumnarNode<Y> node, Iterator<ColumnarSplit<?>> splitIterator) {
+        final ResponseColumn<Y> responses = node.getData().getResponses();
+
+        if(responses instanceof CompetingRiskResponseColumn){
+            return findBestSplitWithTimeRanks((CompetingRiskResponseColumn<?>) responses, splitIterator);
+        }
+
+        Double bestScore = null;
+        ColumnarSplit<?> bestSplit = null;
+
+        ColumnarSplit<?> previousSplit = null;
+        CompetingRiskSets<Y> competingRiskSets = null;
+
+        while(splitIterator.hasNext()){
+            final ColumnarSplit<?> candidateSplit = splitIterator.next();
+            final int[] rows = candidateSplit.getRows();
+
+            if(candidateSplit.continues(previousSplit)){
+                for(int i=previousSplit.getCut(); i<candidateSplit.getCut(); i++){
+                    competingRiskSets.update(responses.get(rows[i]));
+                }
+            }
+            else if(candidateSplit.getLeftSize() > 0 && candidateSplit.getRightSize() > 0){
+                competingRiskSets = createCompetingRiskSets(
+                        collectResponses(responses, rows, candidateSplit.getFrom(), candidateSplit.getCut()),
+                        collectResponses(responses, rows, candidateSplit.getCut(), candidateSplit.getTo())
+                );
+            }
+            else{
+                // nothing to score; the next split will need to start fresh
+                previousSplit = null;
+                continue;
+            }
+            previousSplit = candidateSplit;
+
+            if(candidateSplit.getRightSize() == 0){
+                continue;
+            }
+
+            final Double score = getScore(competingRiskSets);
+
+            if(score != null && !Double.isNaN(score) && Double.isFinite(score) && (bestScore == null || score > bestScore)){
+                bestScore = score;
+                bestSplit = candidateSplit;
+            }
+        }
+
+        if(bestSplit == null){
+            return null;
+        }
+
+        return new ColumnarSplitAndScore<>(bestSplit, bestScore);
+    }
+
     /**
-     * Calculates the log rank value (or the Gray's test value) for a *specific* event cause.
+     * Same as findBestSplit, but rows are moved to the left hand by the index of their time among the split's rows
+     * (computed once from the column's time ranks) instead of by their responses.
      *
-     * @param eventOfFocus
-     * @param competingRiskSets A summary of the different sets used in the calculation
-     * @return
      */
-    LogRankValue specificLogRankValue(final int eventOfFocus, final CompetingRiskSets<Y> competingRiskSets){
+    private ColumnarSplitAndScore<?> findBestSplitWithTimeRanks(CompetingRiskResponseColumn<?> responses, Iterator<ColumnarSplit<?>> splitIterator){
+        Double bestScore = null;
+        ColumnarSplit<?> bestSplit = null;
+
+        ColumnarSplit<?> previousSplit = null;
+        CompetingRiskSets<Y> competingRiskSets = null;
+        CompetingRiskHistogram splitRows = null; // the split's rows as a histogram with one entry per row
+
+        while(splitIterator.hasNext()){
+            final ColumnarSplit<?> candidateSplit = splitIterator.next();
 
-        double summation = 0.0;
-        double variance = 0.0;
+            final int updateFrom;
+            if(candidateSplit.continues(previousSplit)){
+                updateFrom = previousSplit.getCut();
+            }
+            else if(candidateSplit.getLeftSize() > 0 && candidateSplit.getRightSize() > 0){
+                splitRows = createRowHistogram(responses, candidateSplit.getRows(), candidateSplit.getFrom(), candidateSplit.getTo());
+                competingRiskSets = createCompetingRiskSets(splitRows);
+                updateFrom = candidateSplit.getFrom();
+            }
+            else{
+                // nothing to score; the next split will need to start fresh
+                previousSplit = null;
+                continue;
+            }
+            previousSplit = candidateSplit;
+
+            final int[] entryTimeIndex = splitRows.getEntryTimeIndex();
+            final int[] entryDelta = splitRows.getEntryDelta();
+            for(int entry=updateFrom-candidateSplit.getFrom(); entry<candidateSplit.getCut()-candidateSplit.getFrom(); entry++){
+                competingRiskSets.update(entryTimeIndex[entry], entryDelta[entry], splitRows.getCensorTimeIndex(entry), 1);
+            }
+
+            if(candidateSplit.getRightSize() == 0){
+                continue;
+            }
+
+            final Double score = getScore(competingRiskSets);
+
+            if(score != null && !Double.isNaN(score) && Double.isFinite(score) && (bestScore == null || score > bestScore)){
+                bestScore = score;
+                bestSplit = candidateSplit;
+            }
+        }
+
+        if(bestSplit == null){
+            return null;
+        }
+
+        return new ColumnarSplitAndScore<>(bestSplit, bestScore);
+    }
+
+    private static CompetingRiskHistogram createRowHistogram(CompetingRiskResponseColumn<?> responses, int[] rows, int from, int to){
+        final int size = to - from;
+
+        final int[] entryTimeRank = new int[size];
+        final int[] entryDelta = new int[size];
+        final int[] entryCensorTimeRank = responses.hasCensorTimes() ? new int[size] : null;
+        final int[] entryCount = new int[size];
+
+        for(int i=0; i<size; i++){
+            final int row = rows[from + i];
+            entryTimeRank[i] = responses.getTimeRank(row);
+            entryDelta[i] = responses.getDelta(row);
+            if(entryCensorTimeRank != null){
+                entryCensorTimeRank[i] = responses.getCensorTimeRank(row);
+            }
+            entryCount[i] = 1;
+        }
+
+        return new CompetingRiskHistogram(responses.getDistinctTimes(), new int[]{size}, new int[]{0, size},
+                entryTimeRank, entryDelta, entryCensorTimeRank, entryCount);
+    }
 
+    private List<Y> collectResponses(ResponseColumn<Y> responses, int[] rows, int from, int to){
+        final List<Y> list = new ArrayList<>(to - from);
+        for(int i=from; i<to; i++){
+            list.add(responses.get(rows[i]));
+        }
+        return list;
+    }
+
+    @Override
+    public SplitHistogram createHistogram(ColumnarNode<Y> node, int covariateIndex, NumericBinning binning) {
+        final NodeTimes nodeTimes = node.getSplitFinderState(NodeTimes::new);
+        final double[] column = node.getData().getNumericColumn(covariateIndex);
+        final int[] rows = node.getRows();
+        final int numberOfBins = binning.getNumberOfBins();
+
+        // Counting sort the node's positions by bin; within a bin they stay in NodeTimes' order
+        final int[] binCounts = new int[numberOfBins];
+        for(final int position : nodeTimes.orderedPositions){
+            final int row = rows[node.getFrom() + position];
+            if(!Double.isNaN(column[row])){
+                binCounts[binning.getBin(row)]++;
+            }
+        }
+
+        final int[] binPositionStart = new int[numberOfBins + 1];
+        for(int bin=0; bin<numberOfBins; bin++){
+            binPositionStart[bin+1] = binPositionStart[bin] + binCounts[bin];
+        }
+
+        final int[] nextPosition = Arrays.copyOf(binPositionStart, numberOfBins);
+        final int[] positionsByBin = new int[binPositionStart[numberOfBins]];
+        for(final int position : nodeTimes.orderedPositions){
+            final int row = rows[node.getFrom() + position];
+            if(!Double.isNaN(column[row])){
+                positionsByBin[nextPosition[binning.getBin(row)]++] = position;
+            }
+        }
+
+        // Aggregate consecutive positions with the same response into one entry
+        final int[] binEntryStart = new int[numberOfBins + 1];
+        final int[] entryTimeRank = new int[positionsByBin.length];
+        final int[] entryDelta = new int[positionsByBin.length];
+        final int[] entryCensorTimeRank = nodeTimes.censorTimeRank != null ? new int[positionsByBin.length] : null;
+        final int[] entryCount = new int[positionsByBin.length];
+
+        int numberOfEntries = 0;
+        for(int bin=0; bin<numberOfBins; bin++){
+            binEntryStart[bin] = numberOfEntries;
+
+            for(int i=binPositionStart[bin]; i<binPositionStart[bin+1]; i++){
+                final int position = positionsByBin[i];
+
+                if(numberOfEntries > binEntryStart[bin] && nodeTimes.sameResponse(positionsByBin[i-1], position)){
+                    entryCount[numberOfEntries-1]++;
+                    continue;
+                }
+
+                entryTimeRank[numberOfEntries] = nodeTimes.timeRank[position];
+                entryDelta[numberOfEntries] = nodeTimes.delta[position];
+                if(entryCensorTimeRank != null){
+                    entryCensorTimeRank[numberOfEntries] = nodeTimes.censorTimeRank[position];
+                }
+                entryCount[numberOfEntries] = 1;
+                numberOfEntries++;
+            }
+        }
+        binEntryStart[numberOfBins] = numberOfEntries;
+
+        return new CompetingRiskHistogram(
+                nodeTimes.responses.getDistinctTimes(),
+                binCounts,
+                binEntryStart,
+                Arrays.copyOf(entryTimeRank, numberOfEntries),
+                Arrays.copyOf(entryDelta, numberOfEntries),
+                entryCensorTimeRank != null ? Arrays.copyOf(entryCensorTimeRank, numberOfEntries) : null,
+                Arrays.copyOf(entryCount, numberOfEntries)
+        );
+    }
+
+    @Override
+    public SplitHistogram subtractHistogram(SplitHistogram parent, SplitHistogram child) {
+        return CompetingRiskHistogram.subtract((CompetingRiskHistogram) parent, (CompetingRiskHistogram) child);
+    }
+
+    @Override
+    public BinAndScore findBestBin(SplitHistogram splitHistogram, int[] candidateBins) {
+        final CompetingRiskHistogram histogram = (CompetingRiskHistogram) splitHistogram;
+        final CompetingRiskSets<Y> competingRiskSets = createCompetingRiskSets(histogram);
+
+        int total = 0;
+        for(int bin=0; bin<histogram.getNumberOfBins(); bin++){
+            total += histogram.getCount(bin);
+        }
+
+        final int[] binEntryStart = histogram.getBinEntryStart();
+        final int[] entryTimeIndex = histogram.getEntryTimeIndex();
+        final int[] entryDelta = histogram.getEntryDelta();
+        final int[] entryCount = histogram.getEntryCount();
+
+        Double bestScore = null;
+        int bestBin = -1;
+
+        int leftCount = 0;
+        int bin = 0;
+        for(final int candidateBin : candidateBins){
+            while(bin <= candidateBin){
+                for(int entry=binEntryStart[bin]; entry<binEntryStart[bin+1]; entry++){
+                    competingRiskSets.update(entryTimeIndex[entry], entryDelta[entry], histogram.getCensorTimeIndex(entry), entryCount[entry]);
+                }
+                leftCount += histogram.getCount(bin);
+                bin++;
+            }
+
+            if(leftCount == 0 || leftCount == total){
+                continue;
+            }
+
+            final Double score = getScore(competingRiskSets);
+
+            if(score != null && !Double.isNaN(score) && Double.isFinite(score) && (bestScore == null || score > bestScore)){
+                bestScore = score;
+                bestBin = candidateBin;
+            }
+        }
+
+        if(bestScore == null){
+            return null;
+        }
+
+        return new BinAndScore(bestBin, bestScore);
+    }
+
+    /**
+     * The responses of a node's rows (see CompetingRiskResponseColumn#getTimeRank), along with the node's positions
+     * ordered by (time rank, delta, censor time rank). Shared by every histogram built at the node.
+     *
+     */
+    private static final class NodeTimes {
+        private final CompetingRiskResponseColumn<?> responses;
+
+        // indexed by position - node.getFrom()
+        private final int[] timeRank;
+        private final int[] delta;
+        private final int[] censorTimeRank; // null if censor times aren't available
+
+        private final int[] orderedPositions; // relative to node.getFrom()
+
+        private NodeTimes(ColumnarNode<? extends CompetingRiskResponse> node){
+            if(!(node.getData().getResponses() instanceof CompetingRiskResponseColumn)){
+                throw new IllegalArgumentException("Training with histograms requires the responses to be stored in a CompetingRiskResponseColumn");
+            }
+
+            this.responses = (CompetingRiskResponseColumn<?>) node.getData().getResponses();
+
+            final int[] rows = node.getRows();
+            final int size = node.size();
+
+            this.timeRank = new int[size];
+            this.delta = new int[size];
+            this.censorTimeRank = responses.hasCensorTimes() ? new int[size] : null;
+
+            for(int i=0; i<size; i++){
+                final int row = rows[node.getFrom() + i];
+                timeRank[i] = responses.getTimeRank(row);
+                delta[i] = responses.getDelta(row);
+
+                if(censorTimeRank != null){
+                    censorTimeRank[i] = responses.getCensorTimeRank(row);
+                }
+            }
+
+            // Radix sort on the least significant key first, using the ranks' order within the node as keys
+            int[] order = new int[size];
+            for(int i=0; i<size; i++){
+                order[i] = i;
+            }
+            if(censorTimeRank != null){
+                order = countingSort(order, toNodeRanks(censorTimeRank));
+            }
+            order = countingSort(order, delta);
+            order = countingSort(order, toNodeRanks(timeRank));
+
+            this.orderedPositions = order;
+        }
+
+        private boolean sameResponse(int i, int j){
+            return timeRank[i] == timeRank[j] && delta[i] == delta[j]
+                    && (censorTimeRank == null || censorTimeRank[i] == censorTimeRank[j]);
+        }
+
+        /**
+         * Replaces dataset wide ranks by their order among the node's ranks, so that the counting sorts are
+         * proportional to the size of the node.
+         */
+        private static int[] toNodeRanks(int[] ranks){
+            final int[] distinctRanks = Arrays.stream(ranks).sorted().distinct().toArray();
+
+            final int[] nodeRanks = new int[ranks.length];
+            for(int i=0; i<ranks.length; i++){
+                nodeRanks[i] = Arrays.binarySearch(distinctRanks, ranks[i]);
+            }
+            return nodeRanks;
+        }
+
+        private static int[] countingSort(int[] order, int[] keys){
+            int numberOfKeys = 0;
+            for(final int key : keys){
+                numberOfKeys = Math.max(numberOfKeys, key + 1);
+            }
+
+            final int[] starts = new int[numberOfKeys + 1];
+            for(final int i : order){
+                starts[keys[i] + 1]++;
+            }
+            for(int k=0; k<numberOfKeys; k++){
+                starts[k+1] += starts[k];
+            }
+
+            final int[] sorted = new int[order.length];
+            for(final int i : order){
+                sorted[starts[keys[i]]++] = i;
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * Calculates the log rank value (or the Gray's test value) for the events of focus, as the sums of their
+     * numerators and of their variances.
+     *
+     * @param eventsOfFocus
+     * @param competingRiskSets A summary of the different sets used in the calculation
+     * @return
+     */
+    LogRankValue logRankValue(final int[] eventsOfFocus, final CompetingRiskSets<Y> competingRiskSets){
         final double[] distinctTimes = competingRiskSets.getDistinctTimes();
 
+        final double[] weights = new double[distinctTimes.length];
         for(int k = 0; k<distinctTimes.length; k++){
-            final double time_k = distinctTimes[k];
-            final double weight = weight(time_k); // W_j(t_k)
-            final double numberEventsAtTimeDaughterLeft = competingRiskSets.getNumberOfEventsLeft(k, eventOfFocus); // // d_{j,l}(t_k)
-            final double numberEventsAtTimeDaughterTotal = competingRiskSets.getNumberOfEventsTotal(k, eventOfFocus); // d_j(t_k)
+            weights[k] = weight(distinctTimes[k]); // W_j(t_k)
+        }
 
-            final double individualsAtRiskDaughterLeft = competingRiskSets.getRiskSetLeft(k, eventOfFocus); // Y_l(t_k)
-            final double individualsAtRiskDaughterTotal = competingRiskSets.getRiskSetTotal(k, eventOfFocus); // Y(t_k)
+        final int numberOfEvents = eventsOfFocus.length;
+        final int[][] eventsLeft = new int[numberOfEvents][];
+        final int[][] eventsTotal = new int[numberOfEvents][];
+        final int[][] riskSetLeft = new int[numberOfEvents][];
+        final int[][] riskSetTotal = new int[numberOfEvents][];
+
+        for(int e=0; e<numberOfEvents; e++){
+            final int eventOfFocus = eventsOfFocus[e];
+            eventsLeft[e] = competingRiskSets.getNumberOfEventsLeftArray(eventOfFocus);
+            eventsTotal[e] = competingRiskSets.getNumberOfEventsTotalArray(eventOfFocus);
+            riskSetLeft[e] = competingRiskSets.getRiskSetLeftArray(eventOfFocus);
+            riskSetTotal[e] = competingRiskSets.getRiskSetTotalArray(eventOfFocus);
+        }
 
-            final double deltaSummation = weight*(numberEventsAtTimeDaughterLeft - numberEventsAtTimeDaughterTotal*individualsAtRiskDaughterLeft/individualsAtRiskDaughterTotal);
-            final double deltaVariance = weight*weight*numberEventsAtTimeDaughterTotal*individualsAtRiskDaughterLeft/individualsAtRiskDaughterTotal
-                    * (1.0 - individualsAtRiskDaughterLeft / individualsAtRiskDaughterTotal)
-                    * ((individualsAtRiskDaughterTotal - numberEventsAtTimeDaughterTotal) / (individualsAtRiskDaughterTotal - 1.0));
+        return LogRankKernel.logRankValue(weights, eventsLeft, eventsTotal, riskSetLeft, riskSetTotal);
+    }
 
-            // Note - notation differs slightly with what is found in STAT 855 notes, but they are equivalent.
-            // Note - if individualsAtRisk == 1 then variance will be NaN.
-            if(!Double.isNaN(deltaVariance)){
-                summation += deltaSummation;
-                variance += deltaVariance;
+    /**
+     * The loop over each distinct time for logRankValue; see LogRankKernel for the parameters.
+     *
+     * Each event's terms are summed over the times before being added to the totals, in the same order as when each
+     * event was scored separately, so that trained forests don't change.
+     *
+     */
+    static LogRankValue scalarLogRankValue(final double[] weights, final int[][] eventsLeft, final int[][] eventsTotal,
+                                           final int[][] riskSetLeft, final int[][] riskSetTotal){
+        double numerator = 0.0;
+        double denominatorSquared = 0.0;
+
+        for(int e = 0; e<eventsLeft.length; e++){
+            double summation = 0.0;
+            double variance = 0.0;
+
+            for(int k = 0; k<weights.length; k++){
+                final double weight = weights[k]; // W_j(t_k)
+                final double numberEventsAtTimeDaughterLeft = eventsLeft[e][k]; // // d_{j,l}(t_k)
+                final double numberEventsAtTimeDaughterTotal = eventsTotal[e][k]; // d_j(t_k)
+
+                final double individualsAtRiskDaughterLeft = riskSetLeft[e][k]; // Y_l(t_k)
+                final double individualsAtRiskDaughterTotal = riskSetTotal[e][k]; // Y(t_k)
+
+                final double deltaSummation = weight*(numberEventsAtTimeDaughterLeft - numberEventsAtTimeDaughterTotal*individualsAtRiskDaughterLeft/individualsAtRiskDaughterTotal);
+                final double deltaVariance = weight*weight*numberEventsAtTimeDaughterTotal*individualsAtRiskDaughterLeft/individualsAtRiskDaughterTotal
+                        * (1.0 - individualsAtRiskDaughterLeft / individualsAtRiskDaughterTotal)
+                        * ((individualsAtRiskDaughterTotal - numberEventsAtTimeDaughterTotal) / (individualsAtRiskDaughterTotal - 1.0));
+
+                // Note - notation differs slightly with what is found in STAT 855 notes, but they are equivalent.
+                // Note - if individualsAtRisk == 1 then variance will be NaN.
+                if(!Double.isNaN(deltaVariance)){
+                    summation += deltaSummation;
+                    variance += deltaVariance;
+                }
             }
+
+            numerator += summation;
+            denominatorSquared += variance;
         }
 
-        return new LogRankValue(summation, variance);
+        return new LogRankValue(numerator, denominatorSquared);
     }
 
     double weight(double time){
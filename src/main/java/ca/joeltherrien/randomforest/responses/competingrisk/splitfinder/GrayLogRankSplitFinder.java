@@ -16,6 +16,7 @@
 
 package ca.joeltherrien.randomforest.responses.competingrisk.splitfinder;
 
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskHistogram;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponseWithCensorTime;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskSets;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskUtils;
@@ -54,21 +55,18 @@ public class GrayLogRankSplitFinder extends CompetingRiskSplitFinder<CompetingRi
     }
 
     @Override
-    protected Double getScore(final CompetingRiskSets<CompetingRiskResponseWithCensorTime> competingRiskSets){
-        double numerator = 0.0;
-        double denominatorSquared = 0.0;
-
-        for(final int eventOfFocus : eventsOfFocus){
-            final LogRankValue valueOfInterest = specificLogRankValue(eventOfFocus, competingRiskSets);
-
-            // Important note - we follow what randomForestSRC does in its code; not in its documentation.
-            // See https://github.com/kogalur/randomForestSRC/issues/27#issuecomment-486017647
-            numerator += valueOfInterest.getNumerator();
-            denominatorSquared += valueOfInterest.getVariance();
+    protected CompetingRiskSets<CompetingRiskResponseWithCensorTime> createCompetingRiskSets(CompetingRiskHistogram histogram){
+        return CompetingRiskUtils.calculateGraySetsFromHistogram(histogram, events);
+    }
 
-        }
+    @Override
+    protected Double getScore(final CompetingRiskSets<CompetingRiskResponseWithCensorTime> competingRiskSets){
+        // Important note - we follow what randomForestSRC does in its code; not in its documentation; the numerators
+        // and variances of the events are summed before dividing.
+        // See https://github.com/kogalur/randomForestSRC/issues/27#issuecomment-486017647
+        final LogRankValue valueOfInterest = logRankValue(eventsOfFocus, competingRiskSets);
 
-        return Math.abs(numerator / Math.sqrt(denominatorSquared));
+        return Math.abs(valueOfInterest.getNumerator() / valueOfInterest.getVarianceSqrt());
     }
 
 
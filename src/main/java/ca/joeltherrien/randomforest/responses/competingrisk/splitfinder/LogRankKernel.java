@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk.splitfinder;
+
+/**
+ * Calculates CompetingRiskSplitFinder#logRankValue from the sets' arrays for all of the events of focus. This version
+ * only calls CompetingRiskSplitFinder#scalarLogRankValue.
+ *
+ * The jar also contains a Java 17 version of this class (see src/main/java17) which uses the Vector API when the
+ * jdk.incubator.vector module is available (e.g. java --add-modules jdk.incubator.vector), and otherwise does the same
+ * as this one. The vectorized version adds the terms in a different order, so its values can differ in their last few
+ * digits.
+ *
+ */
+final class LogRankKernel {
+
+    private LogRankKernel(){}
+
+    /**
+     * Whether logRankValue uses the Vector API.
+     */
+    static boolean isVectorized(){
+        return false;
+    }
+
+    /**
+     * The arrays other than weights are indexed by event of focus and then by time index.
+     *
+     * @param weights W(t_k) for each distinct time
+     * @param eventsLeft d_{j,l}(t_k)
+     * @param eventsTotal d_j(t_k)
+     * @param riskSetLeft Y_l(t_k)
+     * @param riskSetTotal Y(t_k)
+     * @return The numerator and variance summed over the events
+     */
+    static CompetingRiskSplitFinder.LogRankValue logRankValue(final double[] weights, final int[][] eventsLeft, final int[][] eventsTotal,
+                                                              final int[][] riskSetLeft, final int[][] riskSetTotal){
+        return CompetingRiskSplitFinder.scalarLogRankValue(weights, eventsLeft, eventsTotal, riskSetLeft, riskSetTotal);
+    }
+
+}
@@ -16,8 +16,10 @@
 
 package ca.joeltherrien.randomforest.responses.competingrisk.splitfinder;
 
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskHistogram;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskSets;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskSetsImpl;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskUtils;
 
 import java.util.Arrays;
@@ -33,9 +35,21 @@ public class LogRankSplitFinder extends CompetingRiskSplitFinder<CompetingRiskRe
     private final int[] eventsOfFocus;
     private final int[] events;
 
+    /**
+     * If true, scores are kept up to date as rows are moved between hands instead of being recalculated over every
+     * distinct time for every split; see StreamingLogRankSets. This is much faster when many splits are tried on nodes
+     * with many distinct times, but scores can differ in their last few digits, which can change ties between splits.
+     */
+    private final boolean streamingScores;
+
     public LogRankSplitFinder(int[] eventsOfFocus, int[] events){
+        this(eventsOfFocus, events, false);
+    }
+
+    public LogRankSplitFinder(int[] eventsOfFocus, int[] events, boolean streamingScores){
         this.eventsOfFocus = eventsOfFocus;
         this.events = events;
+        this.streamingScores = streamingScores;
 
         if(eventsOfFocus.length == 0){
             throw new IllegalArgumentException("eventsOfFocus must have length greater than 0");
@@ -50,25 +64,40 @@ public class LogRankSplitFinder extends CompetingRiskSplitFinder<CompetingRiskRe
 
     @Override
     protected CompetingRiskSets<CompetingRiskResponse> createCompetingRiskSets(List<CompetingRiskResponse> leftHand, List<CompetingRiskResponse> rightHand){
-        return CompetingRiskUtils.calculateSetsEfficiently(leftHand, rightHand, events, true);
+        return streamIfEnabled(CompetingRiskUtils.calculateSetsEfficiently(leftHand, rightHand, events, true));
     }
 
     @Override
-    protected Double getScore(final CompetingRiskSets<CompetingRiskResponse> competingRiskSets){
-        double numerator = 0.0;
-        double denominatorSquared = 0.0;
+    protected CompetingRiskSets<CompetingRiskResponse> createCompetingRiskSets(CompetingRiskHistogram histogram){
+        return streamIfEnabled(CompetingRiskUtils.calculateSetsFromHistogram(histogram, events));
+    }
 
-        for(final int eventOfFocus : eventsOfFocus){
-            final LogRankValue valueOfInterest = specificLogRankValue(eventOfFocus, competingRiskSets);
+    private CompetingRiskSets<CompetingRiskResponse> streamIfEnabled(CompetingRiskSetsImpl sets){
+        if(!streamingScores){
+            return sets;
+        }
 
-            // Important note - we follow what randomForestSRC does in its code; not in its documentation.
-            // See https://github.com/kogalur/randomForestSRC/issues/27#issuecomment-486017647
-            numerator += valueOfInterest.getNumerator();
-            denominatorSquared += valueOfInterest.getVariance();
+        final double[] times = sets.getDistinctTimes();
+        final double[] weights = new double[times.length];
+        for(int k=0; k<times.length; k++){
+            weights[k] = weight(times[k]);
+        }
+
+        return new StreamingLogRankSets(sets, eventsOfFocus, weights);
+    }
 
+    @Override
+    protected Double getScore(final CompetingRiskSets<CompetingRiskResponse> competingRiskSets){
+        if(competingRiskSets instanceof StreamingLogRankSets){
+            return ((StreamingLogRankSets) competingRiskSets).getScore();
         }
 
-        return Math.abs(numerator / Math.sqrt(denominatorSquared));
+        // Important note - we follow what randomForestSRC does in its code; not in its documentation; the numerators
+        // and variances of the events are summed before dividing.
+        // See https://github.com/kogalur/randomForestSRC/issues/27#issuecomment-486017647
+        final LogRankValue valueOfInterest = logRankValue(eventsOfFocus, competingRiskSets);
+
+        return Math.abs(valueOfInterest.getNumerator() / valueOfInterest.getVarianceSqrt());
     }
 
 
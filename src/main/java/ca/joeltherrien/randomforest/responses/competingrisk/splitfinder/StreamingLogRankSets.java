@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk.splitfinder;
+
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskSets;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskSetsImpl;
+
+import java.util.Arrays;
+
+/**
+ * Wraps CompetingRiskSetsImpl and keeps the log rank numerator and variance of each event of focus up to date as rows
+ * are moved to the left hand, so that a score costs O(J) instead of the O(J*m) of
+ * CompetingRiskSplitFinder#logRankValue. Moving rows costs O(J*log(m)).
+ *
+ * Moving rows with time index k to the left hand adds to the left risk set at every time up to k. The numerator
+ * is linear in the left risk set, so it changes by the count times a prefix sum. The variance at time i is
+ * a_i * Y_l(i) * (Y(i) - Y_l(i)) with a_i depending only on the totals, so we keep sum(a_i * Y(i) * Y_l(i)) and
+ * sum(a_i * Y_l(i)^2) separately; the change to the latter needs sum(a_i * Y_l(i)) over i up to k, which is
+ * calculated from Fenwick trees of the left hand's counts by time.
+ *
+ * As with logRankValue, times with only one individual at risk are left out. The scores are the same as
+ * LogRankSplitFinder's otherwise, apart from floating point rounding.
+ *
+ */
+final class StreamingLogRankSets implements CompetingRiskSets<CompetingRiskResponse> {
+
+    private final CompetingRiskSetsImpl sets;
+    private final int[] eventsOfFocus;
+    private final double[] weights; // W(t_k); 0 if the time is left out
+
+    // indexed by event of focus (as ordered in eventsOfFocus) and then time
+    private final double[][] numeratorPrefix; // sum over i <= k of W * d(i) / Y(i)
+    private final double[][] varianceWeightPrefix; // sum over i <= k of a_i
+    private final double[][] varianceWeightTimesRiskSetPrefix; // sum over i <= k of a_i * Y(i)
+
+    private final double[] numerators;
+    private final double[] riskSetTerms; // sum of a_i * Y(i) * Y_l(i)
+    private final double[] riskSetSquaredTerms; // sum of a_i * Y_l(i)^2
+
+    // Fenwick trees over time; the number of left hand rows, and that number times varianceWeightPrefix
+    private final int[] leftCountTree;
+    private final double[][] weightedLeftCountTrees;
+    private int numberLeft;
+
+    StreamingLogRankSets(final CompetingRiskSetsImpl sets, final int[] eventsOfFocus, final double[] weights){
+        this.sets = sets;
+        this.eventsOfFocus = eventsOfFocus;
+
+        final int m = sets.getDistinctTimes().length;
+        final int numberOfEvents = eventsOfFocus.length;
+
+        this.weights = new double[m];
+        for(int k=0; k<m; k++){
+            // see scalarLogRankValue; the variance is NaN when only one individual is at risk
+            this.weights[k] = sets.getRiskSetTotal(k, 0) > 1 ? weights[k] : 0.0;
+        }
+
+        this.numeratorPrefix = new double[numberOfEvents][m];
+        this.varianceWeightPrefix = new double[numberOfEvents][m];
+        this.varianceWeightTimesRiskSetPrefix = new double[numberOfEvents][m];
+        this.numerators = new double[numberOfEvents];
+        this.riskSetTerms = new double[numberOfEvents];
+        this.riskSetSquaredTerms = new double[numberOfEvents];
+
+        this.leftCountTree = new int[m+1];
+        this.weightedLeftCountTrees = new double[numberOfEvents][m+1];
+
+        for(int e=0; e<numberOfEvents; e++){
+            final int event = eventsOfFocus[e];
+
+            double numeratorSum = 0.0;
+            double varianceWeightSum = 0.0;
+            double varianceWeightTimesRiskSetSum = 0.0;
+
+            for(int k=0; k<m; k++){
+                final double weight = this.weights[k];
+                final double eventsTotal = sets.getNumberOfEventsTotal(k, event);
+                final double riskSetTotal = sets.getRiskSetTotal(k, event);
+                final double riskSetLeft = sets.getRiskSetLeft(k, event);
+
+                final double varianceWeight = weight == 0.0 ? 0.0 :
+                        weight*weight*eventsTotal*(riskSetTotal - eventsTotal) / ((riskSetTotal - 1.0)*riskSetTotal*riskSetTotal);
+
+                numeratorSum += weight == 0.0 ? 0.0 : weight*eventsTotal/riskSetTotal;
+                varianceWeightSum += varianceWeight;
+                varianceWeightTimesRiskSetSum += varianceWeight*riskSetTotal;
+
+                numeratorPrefix[e][k] = numeratorSum;
+                varianceWeightPrefix[e][k] = varianceWeightSum;
+                varianceWeightTimesRiskSetPrefix[e][k] = varianceWeightTimesRiskSetSum;
+
+                if(weight != 0.0){
+                    numerators[e] += weight*(sets.getNumberOfEventsLeft(k, event) - eventsTotal*riskSetLeft/riskSetTotal);
+                }
+                riskSetTerms[e] += varianceWeight*riskSetTotal*riskSetLeft;
+                riskSetSquaredTerms[e] += varianceWeight*riskSetLeft*riskSetLeft;
+            }
+        }
+
+        for(int k=0; k<m; k++){
+            final int leftAtTime = sets.getRiskSetLeft(k, 0) - (k+1 < m ? sets.getRiskSetLeft(k+1, 0) : 0);
+            if(leftAtTime > 0){
+                addToTrees(k, leftAtTime);
+            }
+        }
+    }
+
+    double getScore(){
+        double numerator = 0.0;
+        double variance = 0.0;
+
+        for(int e=0; e<eventsOfFocus.length; e++){
+            numerator += numerators[e];
+            variance += riskSetTerms[e] - riskSetSquaredTerms[e];
+        }
+
+        return Math.abs(numerator / Math.sqrt(variance));
+    }
+
+    @Override
+    public double[] getDistinctTimes() {
+        return sets.getDistinctTimes();
+    }
+
+    @Override
+    public int getRiskSetLeft(int timeIndex, int event) {
+        return sets.getRiskSetLeft(timeIndex, event);
+    }
+
+    @Override
+    public int getRiskSetTotal(int timeIndex, int event) {
+        return sets.getRiskSetTotal(timeIndex, event);
+    }
+
+    @Override
+    public int getNumberOfEventsLeft(int timeIndex, int event) {
+        return sets.getNumberOfEventsLeft(timeIndex, event);
+    }
+
+    @Override
+    public int getNumberOfEventsTotal(int timeIndex, int event) {
+        return sets.getNumberOfEventsTotal(timeIndex, event);
+    }
+
+    @Override
+    public int[] getRiskSetLeftArray(int event) {
+        return sets.getRiskSetLeftArray(event);
+    }
+
+    @Override
+    public int[] getRiskSetTotalArray(int event) {
+        return sets.getRiskSetTotalArray(event);
+    }
+
+    @Override
+    public int[] getNumberOfEventsLeftArray(int event) {
+        return sets.getNumberOfEventsLeftArray(event);
+    }
+
+    @Override
+    public int[] getNumberOfEventsTotalArray(int event) {
+        return sets.getNumberOfEventsTotalArray(event);
+    }
+
+    @Override
+    public void update(CompetingRiskResponse rowMovedToLeft) {
+        final int timeIndex = Arrays.binarySearch(sets.getDistinctTimes(), rowMovedToLeft.getU());
+        update(timeIndex, rowMovedToLeft.getDelta(), 0, 1);
+    }
+
+    @Override
+    public void update(int timeIndex, int delta, int censorTimeIndex, int count) {
+        sets.update(timeIndex, delta, censorTimeIndex, count);
+
+        final int leftAtOrBefore = prefixSum(leftCountTree, timeIndex);
+
+        for(int e=0; e<eventsOfFocus.length; e++){
+            final double varianceWeightPrefixK = varianceWeightPrefix[e][timeIndex];
+
+            // sum over i <= timeIndex of a_i * Y_l(i), before the update
+            final double weightedRiskSetLeft = prefixSum(weightedLeftCountTrees[e], timeIndex)
+                    + varianceWeightPrefixK*(numberLeft - leftAtOrBefore);
+
+            if(delta == eventsOfFocus[e]){
+                numerators[e] += weights[timeIndex]*count;
+            }
+            numerators[e] -= count*numeratorPrefix[e][timeIndex];
+
+            riskSetTerms[e] += count*varianceWeightTimesRiskSetPrefix[e][timeIndex];
+            riskSetSquaredTerms[e] += 2.0*count*weightedRiskSetLeft + (double) count*count*varianceWeightPrefixK;
+        }
+
+        addToTrees(timeIndex, count);
+    }
+
+    private void addToTrees(int timeIndex, int count){
+        for(int i=timeIndex+1; i<leftCountTree.length; i += i & -i){
+            leftCountTree[i] += count;
+        }
+        for(int e=0; e<eventsOfFocus.length; e++){
+            final double value = count*varianceWeightPrefix[e][timeIndex];
+            final double[] tree = weightedLeftCountTrees[e];
+            for(int i=timeIndex+1; i<tree.length; i += i & -i){
+                tree[i] += value;
+            }
+        }
+        numberLeft += count;
+    }
+
+    // sum of the values at times <= timeIndex
+    private static int prefixSum(int[] tree, int timeIndex){
+        int sum = 0;
+        for(int i=timeIndex+1; i>0; i -= i & -i){
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private static double prefixSum(double[] tree, int timeIndex){
+        double sum = 0.0;
+        for(int i=timeIndex+1; i>0; i -= i & -i){
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+}
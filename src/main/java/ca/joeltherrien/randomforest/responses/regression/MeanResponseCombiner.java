@@ -61,6 +61,11 @@ public class MeanResponseCombiner implements ForestResponseCombiner<Double, Doub
 
         @Override
         public Double transformToOutput() {
+            // no inputs (e.g. an OOB row that's in every tree's bootstrap sample); match combine on an empty list
+            if(actualN == 0){
+                return 0.0;
+            }
+
             // rescale if necessary
             this.currentMean = this.currentMean * (this.expectedN / (double) actualN);
             this.expectedN = actualN;
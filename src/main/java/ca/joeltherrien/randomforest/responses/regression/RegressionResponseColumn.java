@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.regression;
+
+import ca.joeltherrien.randomforest.ResponseColumn;
+
+import java.util.List;
+
+public final class RegressionResponseColumn implements ResponseColumn<Double> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double[] values;
+
+    public RegressionResponseColumn(final double[] values){
+        this.values = values;
+    }
+
+    public RegressionResponseColumn(final List<Double> responses){
+        this.values = new double[responses.size()];
+        for(int i=0; i<values.length; i++){
+            this.values[i] = responses.get(i);
+        }
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Double get(int row) {
+        return values[row];
+    }
+
+    public double getValue(int row){
+        return values[row];
+    }
+}
@@ -16,17 +16,17 @@
 
 package ca.joeltherrien.randomforest.responses.regression;
 
+import ca.joeltherrien.randomforest.ResponseColumn;
 import ca.joeltherrien.randomforest.Row;
 import ca.joeltherrien.randomforest.covariates.Covariate;
-import ca.joeltherrien.randomforest.tree.SplitFinder;
-import ca.joeltherrien.randomforest.tree.Split;
-import ca.joeltherrien.randomforest.tree.SplitAndScore;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericBinning;
+import ca.joeltherrien.randomforest.tree.*;
 
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 
-public class WeightedVarianceSplitFinder implements SplitFinder<Double> {
+public class WeightedVarianceSplitFinder implements HistogramSplitFinder<Double> {
     private static final long serialVersionUID = 1L;
 
     private Double getScore(Set leftHand, Set rightHand) {
@@ -122,6 +122,155 @@ public class WeightedVarianceSplitFinder implements SplitFinder<Double> {
 
     }
 
+    @Override
+    public ColumnarSplitAndScore<?> findBestSplit(ColumnarNode<Double> node, Iterator<ColumnarSplit<?>> splitIterator) {
+        if(!(node.getData().getResponses() instanceof RegressionResponseColumn)){
+            return HistogramSplitFinder.super.findBestSplit(node, splitIterator);
+        }
+
+        final RegressionResponseColumn responses = (RegressionResponseColumn) node.getData().getResponses();
+
+        Double bestScore = null;
+        ColumnarSplit<?> bestSplit = null;
+
+        ColumnarSplit<?> previousSplit = null;
+        Set setLeft = null;
+        Set setRight = null;
+
+        while(splitIterator.hasNext()){
+            final ColumnarSplit<?> candidateSplit = splitIterator.next();
+            final int[] rows = candidateSplit.getRows();
+
+            if(candidateSplit.continues(previousSplit)){
+                for(int i=previousSplit.getCut(); i<candidateSplit.getCut(); i++){
+                    setLeft.updateAdd(responses.getValue(rows[i]));
+                    setRight.updateRemove(responses.getValue(rows[i]));
+                }
+            }
+            else{
+                setLeft = new Set(responses, rows, candidateSplit.getFrom(), candidateSplit.getCut());
+                setRight = new Set(responses, rows, candidateSplit.getCut(), candidateSplit.getTo());
+            }
+            previousSplit = candidateSplit;
+
+            final Double score = getScore(setLeft, setRight);
+
+            if(score != null && Double.isFinite(score) && (bestScore == null || score > bestScore)){
+                bestScore = score;
+                bestSplit = candidateSplit;
+            }
+        }
+
+        if(bestSplit == null){
+            return null;
+        }
+
+        return new ColumnarSplitAndScore<>(bestSplit, bestScore);
+    }
+
+    @Override
+    public SplitHistogram createHistogram(ColumnarNode<Double> node, int covariateIndex, NumericBinning binning) {
+        final double[] column = node.getData().getNumericColumn(covariateIndex);
+        final ResponseColumn<Double> responses = node.getData().getResponses();
+        final int[] rows = node.getRows();
+
+        final RegressionHistogram histogram = new RegressionHistogram(binning.getNumberOfBins());
+
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            final int row = rows[i];
+            if(Double.isNaN(column[row])){
+                continue;
+            }
+
+            final int bin = binning.getBin(row);
+            final double y = responses instanceof RegressionResponseColumn ?
+                    ((RegressionResponseColumn) responses).getValue(row) : responses.get(row);
+
+            histogram.n[bin]++;
+            histogram.summation[bin] += y;
+            histogram.summationSquared[bin] += y*y;
+        }
+
+        return histogram;
+    }
+
+    @Override
+    public SplitHistogram subtractHistogram(SplitHistogram parentHistogram, SplitHistogram childHistogram) {
+        final RegressionHistogram parent = (RegressionHistogram) parentHistogram;
+        final RegressionHistogram child = (RegressionHistogram) childHistogram;
+
+        final RegressionHistogram histogram = new RegressionHistogram(parent.getNumberOfBins());
+        for(int bin=0; bin<histogram.getNumberOfBins(); bin++){
+            histogram.n[bin] = parent.n[bin] - child.n[bin];
+            histogram.summation[bin] = parent.summation[bin] - child.summation[bin];
+            histogram.summationSquared[bin] = parent.summationSquared[bin] - child.summationSquared[bin];
+        }
+
+        return histogram;
+    }
+
+    @Override
+    public BinAndScore findBestBin(SplitHistogram splitHistogram, int[] candidateBins) {
+        final RegressionHistogram histogram = (RegressionHistogram) splitHistogram;
+
+        final Set setTotal = new Set(0, 0.0, 0.0);
+        for(int bin=0; bin<histogram.getNumberOfBins(); bin++){
+            setTotal.updateAdd(histogram.n[bin], histogram.summation[bin], histogram.summationSquared[bin]);
+        }
+
+        final Set setLeft = new Set(0, 0.0, 0.0);
+
+        Double bestScore = null;
+        int bestBin = -1;
+
+        int bin = 0;
+        for(final int candidateBin : candidateBins){
+            while(bin <= candidateBin){
+                setLeft.updateAdd(histogram.n[bin], histogram.summation[bin], histogram.summationSquared[bin]);
+                bin++;
+            }
+
+            final Set setRight = new Set(setTotal.n - setLeft.n,
+                    setTotal.summation - setLeft.summation,
+                    setTotal.summationSquared - setLeft.summationSquared);
+
+            final Double score = getScore(setLeft, setRight);
+
+            if(score != null && Double.isFinite(score) && (bestScore == null || score > bestScore)){
+                bestScore = score;
+                bestBin = candidateBin;
+            }
+        }
+
+        if(bestScore == null){
+            return null;
+        }
+
+        return new BinAndScore(bestBin, bestScore);
+    }
+
+    private static class RegressionHistogram implements SplitHistogram {
+        private final int[] n;
+        private final double[] summation;
+        private final double[] summationSquared;
+
+        private RegressionHistogram(int numberOfBins){
+            this.n = new int[numberOfBins];
+            this.summation = new double[numberOfBins];
+            this.summationSquared = new double[numberOfBins];
+        }
+
+        @Override
+        public int getNumberOfBins() {
+            return n.length;
+        }
+
+        @Override
+        public int getCount(int bin) {
+            return n[bin];
+        }
+    }
+
     private class Set {
         private int n = 0;
         private double summation = 0.0;
@@ -133,6 +282,18 @@ public class WeightedVarianceSplitFinder implements SplitFinder<Double> {
             }
         }
 
+        private Set(int n, double summation, double summationSquared){
+            this.n = n;
+            this.summation = summation;
+            this.summationSquared = summationSquared;
+        }
+
+        private Set(RegressionResponseColumn responses, int[] rows, int from, int to){
+            for(int i=from; i<to; i++){
+                updateAdd(responses.getValue(rows[i]));
+            }
+        }
+
         private double getMean(){
             return summation / n;
         }
@@ -143,6 +304,12 @@ public class WeightedVarianceSplitFinder implements SplitFinder<Double> {
             n++;
         }
 
+        private void updateAdd(int count, double summation, double summationSquared){
+            this.summation += summation;
+            this.summationSquared += summationSquared;
+            this.n += count;
+        }
+
         private void updateRemove(double number){
             summation -= number;
             summationSquared -= number*number;
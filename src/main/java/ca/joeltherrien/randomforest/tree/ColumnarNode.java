@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.ColumnarDataset;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The rows of a ColumnarDataset that belong to a node being trained; these are rows[from, to).
+ * A row may appear more than once due to bootstrapping. When growing a tree every node shares the same rows array,
+ * which is partitioned in place as nodes are split.
+ *
+ * When training with presorted numeric covariates the node also carries, for every NumericCovariate, an array whose
+ * range [from, to) holds the node's rows sorted by that covariate's value, followed by the rows where it's NA.
+ *
+ */
+@RequiredArgsConstructor
+@Getter
+public final class ColumnarNode<Y> {
+
+    private final ColumnarDataset<Y> data;
+    private final int[] rows;
+    private final int from;
+    private final int to;
+
+    @Getter(AccessLevel.NONE)
+    private int[][] sortedRows; // indexed by covariate index; null if not presorting
+
+    @Getter(AccessLevel.NONE)
+    private int[] scratchRows;
+
+    @Getter(AccessLevel.NONE)
+    private Object splitFinderState;
+
+    // When training with histograms; indexed by covariate index, null entries weren't calculated
+    @Getter(AccessLevel.NONE)
+    private SplitHistogram[] histograms;
+    @Getter(AccessLevel.NONE)
+    private int histogramUsers; // the number of nodes that will still subtract this node's histograms
+
+    // For a larger child, the parent and smaller child whose histograms can be subtracted to get this node's
+    @Getter(AccessLevel.NONE)
+    private ColumnarNode<Y> histogramParent;
+    @Getter(AccessLevel.NONE)
+    private ColumnarNode<Y> histogramSibling;
+
+    // If this is a view created by withScratchRows, the node that holds the SplitFinder's state and the histograms
+    @Getter(AccessLevel.NONE)
+    private ColumnarNode<Y> owner;
+
+    ColumnarNode(ColumnarDataset<Y> data, int[] rows, int from, int to, int[][] sortedRows, int[] scratchRows){
+        this(data, rows, from, to);
+        this.sortedRows = sortedRows;
+        this.scratchRows = scratchRows;
+    }
+
+    /**
+     * Returns a view of this node with its own scratch rows, so that covariates can generate splits concurrently.
+     * The view shares this node's SplitFinder state and histograms.
+     *
+     */
+    ColumnarNode<Y> withScratchRows(int[] scratchRows){
+        final ColumnarNode<Y> view = new ColumnarNode<>(data, rows, from, to, sortedRows, scratchRows);
+        view.owner = this;
+        return view;
+    }
+
+    /**
+     * @return An array whose range [from, to) holds the node's rows sorted by the covariate's values, with the rows
+     * that are NA for it at the end; or null if it isn't available.
+     */
+    public int[] getSortedRows(int covariateIndex){
+        return sortedRows != null ? sortedRows[covariateIndex] : null;
+    }
+
+    boolean isPresorted(){
+        return sortedRows != null;
+    }
+
+    /**
+     * Returns an array of at least size() that a Covariate may use while generating its splits for this node, so that
+     * it doesn't need to allocate one. It's shared by every node in the tree and overwritten by the next covariate.
+     *
+     */
+    public int[] getScratchRows(){
+        if(scratchRows == null){
+            scratchRows = new int[size()];
+        }
+        return scratchRows;
+    }
+
+    synchronized SplitHistogram getHistogram(int covariateIndex){
+        if(owner != null){
+            return owner.getHistogram(covariateIndex);
+        }
+
+        return histograms != null ? histograms[covariateIndex] : null;
+    }
+
+    synchronized void putHistogram(int covariateIndex, SplitHistogram histogram){
+        if(owner != null){
+            owner.putHistogram(covariateIndex, histogram);
+            return;
+        }
+
+        if(histograms == null){
+            histograms = new SplitHistogram[data.getCovariates().size()];
+        }
+        histograms[covariateIndex] = histogram;
+    }
+
+    void setHistogramSource(ColumnarNode<Y> parent, ColumnarNode<Y> sibling){
+        this.histogramParent = parent;
+        this.histogramSibling = sibling;
+    }
+
+    /**
+     * Returns parent - sibling for the covariate if both histograms are available, otherwise null.
+     */
+    SplitHistogram subtractSourceHistograms(int covariateIndex, HistogramSplitFinder<Y> splitFinder){
+        if(owner != null){
+            return owner.subtractSourceHistograms(covariateIndex, splitFinder);
+        }
+
+        if(histogramParent == null){
+            return null;
+        }
+
+        final SplitHistogram parentHistogram = histogramParent.getHistogram(covariateIndex);
+        final SplitHistogram siblingHistogram = histogramSibling.getHistogram(covariateIndex);
+
+        if(parentHistogram == null || siblingHistogram == null){
+            return null;
+        }
+
+        return splitFinder.subtractHistogram(parentHistogram, siblingHistogram);
+    }
+
+    /**
+     * Keep this node's histograms until releaseHistogramSource is called on one more node using them.
+     */
+    void retainHistograms(){
+        histogramUsers++;
+    }
+
+    void releaseHistograms(){
+        histogramUsers--;
+        releaseHistogramsIfUnused();
+    }
+
+    void releaseHistogramsIfUnused(){
+        if(histogramUsers <= 0){
+            histograms = null;
+        }
+    }
+
+    /**
+     * Called once this node has found its split, so the histograms of its parent and sibling may no longer be needed.
+     */
+    void releaseHistogramSource(){
+        if(histogramParent != null){
+            histogramParent.releaseHistograms();
+            histogramSibling.releaseHistograms();
+            histogramParent = null;
+            histogramSibling = null;
+        }
+    }
+
+    public int size(){
+        return to - from;
+    }
+
+    /**
+     * Returns statistics about the node that a SplitFinder shares between all the covariates it scores at the node,
+     * creating them on first use.
+     *
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T getSplitFinderState(Function<ColumnarNode<Y>, T> creator){
+        if(owner != null){
+            return owner.getSplitFinderState(creator);
+        }
+
+        if(splitFinderState == null){
+            splitFinderState = creator.apply(this);
+        }
+        return (T) splitFinderState;
+    }
+
+    /**
+     * Drops the SplitFinder's state once the node has been split, so it can be garbage collected while the children
+     * are grown.
+     */
+    void releaseSplitFinderState(){
+        splitFinderState = null;
+    }
+
+    public List<Y> getResponses(){
+        final List<Y> responses = new ArrayList<>(size());
+        for(int i=from; i<to; i++){
+            responses.add(data.getResponse(rows[i]));
+        }
+        return responses;
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.ColumnarDataset;
+import ca.joeltherrien.randomforest.Row;
+import ca.joeltherrien.randomforest.covariates.SplitRule;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The columnar equivalent of Split. The left hand consists of the rows in rows[from, cut) and the right hand of
+ * rows[cut, to). Rows with an NA value for the covariate are not included.
+ *
+ * Consecutive splits from the same iterator that share the same rows array, from and to (such as those produced for
+ * NumericCovariates) only differ by the rows in between their cuts; SplitFinders can use this to update their
+ * statistics rather than recalculate them.
+ *
+ * The rows array may be the node's scratch array (see ColumnarNode#getScratchRows), in which case it's only valid until
+ * the next covariate's splits are generated.
+ *
+ */
+@Data
+public final class ColumnarSplit<V> {
+
+    private final SplitRule<V> splitRule;
+    private final int[] rows;
+    private final int from;
+    private final int cut;
+    private final int to;
+
+    public int getLeftSize(){
+        return cut - from;
+    }
+
+    public int getRightSize(){
+        return to - cut;
+    }
+
+    /**
+     * Whether this split can be reached from the previous split by moving rows from the right hand to the left hand.
+     *
+     */
+    public boolean continues(ColumnarSplit<?> previous){
+        return previous != null && previous.rows == this.rows && previous.from == this.from
+                && previous.to == this.to && previous.cut <= this.cut;
+    }
+
+    /**
+     * Converts this to a Split consisting of Row views; used by SplitFinders that only support Splits.
+     *
+     */
+    public <Y> Split<Y, V> toSplit(ColumnarDataset<Y> data){
+        final List<Row<Y>> leftHand = new ArrayList<>(getLeftSize());
+        final List<Row<Y>> rightHand = new ArrayList<>(getRightSize());
+
+        for(int i=from; i<cut; i++){
+            leftHand.add(data.getRow(rows[i]));
+        }
+        for(int i=cut; i<to; i++){
+            rightHand.add(data.getRow(rows[i]));
+        }
+
+        return new Split<>(splitRule, leftHand, rightHand, Collections.emptyList());
+    }
+
+}
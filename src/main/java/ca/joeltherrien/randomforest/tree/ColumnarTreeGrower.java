@@ -0,0 +1,679 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.ColumnarDataset;
+import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.covariates.SplitRule;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericBinning;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericCovariate;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericSplitRule;
+import ca.joeltherrien.randomforest.utils.SingletonIterator;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/**
+ * Grows a single tree on a ColumnarDataset. This follows the same algorithm (and consumes the same random numbers) as
+ * TreeTrainer does with a List of Rows, but nodes are ranges of row indexes rather than Lists of Rows.
+ *
+ */
+final class ColumnarTreeGrower<Y, O> {
+
+    private static final byte LEFT = 0;
+    private static final byte RIGHT = 1;
+    private static final byte NA = 2;
+
+    private final TreeTrainer<Y, O> treeTrainer;
+    private final ColumnarDataset<Y> data;
+
+    private int[][] sortedRows; // null if not presorting
+
+    // one per thread that grows part of the tree; see Workspace
+    private final ConcurrentMap<Thread, Workspace> workspaces = new ConcurrentHashMap<>();
+    private int workspaceSize;
+
+    ColumnarTreeGrower(final TreeTrainer<Y, O> treeTrainer, final ColumnarDataset<Y> data){
+        this.treeTrainer = treeTrainer;
+        this.data = data;
+    }
+
+    Tree<O> growTree(final int[] bootstrapRows, final Random random){
+        // every node is a range of this one array, which is partitioned in place
+        final int[] rows = bootstrapRows.clone();
+
+        if(treeTrainer.isPresortNumericCovariates() && !useHistograms()){
+            this.sortedRows = presortRows(rows);
+        }
+
+        this.workspaceSize = rows.length;
+
+        final Workspace workspace = getWorkspace();
+        final ColumnarNode<Y> root = new ColumnarNode<>(data, rows, 0, rows.length, sortedRows, workspace.scratchRows);
+        final Node<O> rootNode = growNode(root, 0, random, workspace);
+
+        final int[] bootstrapIds = new int[bootstrapRows.length];
+        for(int i=0; i<bootstrapRows.length; i++){
+            bootstrapIds[i] = data.getId(bootstrapRows[i]);
+        }
+
+        return new Tree<>(rootNode, bootstrapIds);
+    }
+
+    private Node<O> growNode(final ColumnarNode<Y> node, final int depth, final Random random, final Workspace workspace){
+        if(node.size() >= 2*treeTrainer.getNodeSize() && depth < treeTrainer.getMaxNodeDepth() && !nodeIsPure(node)){
+            final List<Covariate> covariatesToTry = treeTrainer.selectCovariates(treeTrainer.getMtry(), random);
+            final ColumnarSplit<?> bestSplit = findBestSplitRule(node, covariatesToTry, random);
+            node.releaseHistogramSource();
+            node.releaseSplitFinderState();
+
+            if(bestSplit == null){
+                node.releaseHistogramsIfUnused();
+                return createTerminalNode(node);
+            }
+
+            // bestSplit's rows may have since been overwritten; only its rule and sizes are used from here on
+            final double probabilityLeftHand = (double) bestSplit.getLeftSize() /
+                    (double) (bestSplit.getLeftSize() + bestSplit.getRightSize());
+
+            final int cut = partitionRows(node, bestSplit.getSplitRule(), probabilityLeftHand, random, workspace);
+
+            if(node.isPresorted()){
+                partitionSortedRows(node, bestSplit.getSplitRule(), cut, workspace);
+            }
+
+            if(treeTrainer.getParallelSubtreeNodeSize() > 0){
+                return growChildrenConcurrently(node, cut, depth, bestSplit.getSplitRule(), probabilityLeftHand, random, workspace);
+            }
+
+            final ColumnarNode<Y> leftChild = new ColumnarNode<>(data, node.getRows(), node.getFrom(), cut, sortedRows, workspace.scratchRows);
+            final ColumnarNode<Y> rightChild = new ColumnarNode<>(data, node.getRows(), cut, node.getTo(), sortedRows, workspace.scratchRows);
+
+            final Node<O> leftNode;
+            final Node<O> rightNode;
+
+            // the larger child gets its histograms by subtracting the smaller child's from this node's
+            if(useHistograms()){
+                final ColumnarNode<Y> smallerChild = leftChild.size() < rightChild.size() ? leftChild : rightChild;
+                final ColumnarNode<Y> largerChild = smallerChild == leftChild ? rightChild : leftChild;
+
+                node.retainHistograms();
+                smallerChild.retainHistograms();
+                largerChild.setHistogramSource(node, smallerChild);
+            }
+
+            // train the smaller hand first; see TreeTrainer
+            if(leftChild.size() < rightChild.size()){
+                leftNode = growNode(leftChild, depth+1, random, workspace);
+                rightNode = growNode(rightChild, depth+1, random, workspace);
+            }
+            else{
+                rightNode = growNode(rightChild, depth+1, random, workspace);
+                leftNode = growNode(leftChild, depth+1, random, workspace);
+            }
+
+            return new SplitNode<>(leftNode, rightNode, bestSplit.getSplitRule(), probabilityLeftHand);
+        }
+        else{
+            node.releaseHistogramSource();
+            return createTerminalNode(node);
+        }
+    }
+
+    /**
+     * Used in place of growNode's recursion when parallelSubtreeNodeSize is set. Each child gets its own Random seeded
+     * from random, and if the node has at least parallelSubtreeNodeSize rows the smaller child is grown as a separate
+     * ForkJoinTask, using the Workspace of whichever thread runs it. Children don't subtract histograms from this node,
+     * as they may be grown at the same time.
+     *
+     */
+    private Node<O> growChildrenConcurrently(final ColumnarNode<Y> node, final int cut, final int depth, final SplitRule<?> splitRule,
+                                             final double probabilityLeftHand, final Random random, final Workspace workspace){
+        node.releaseHistogramsIfUnused();
+
+        final Random leftRandom = new Random(random.nextLong());
+        final Random rightRandom = new Random(random.nextLong());
+
+        final boolean fork = node.size() >= treeTrainer.getParallelSubtreeNodeSize();
+        final boolean leftIsSmaller = cut - node.getFrom() < node.getTo() - cut;
+
+        final Node<O> leftNode;
+        final Node<O> rightNode;
+
+        if(fork){
+            // the children are only created once we know which thread (and so which Workspace) grows them
+            final ForkJoinTask<Node<O>> leftTask = ForkJoinTask.adapt(() -> {
+                final Workspace taskWorkspace = getWorkspace();
+                return growNode(new ColumnarNode<>(data, node.getRows(), node.getFrom(), cut, sortedRows, taskWorkspace.scratchRows),
+                        depth+1, leftRandom, taskWorkspace);
+            });
+            final ForkJoinTask<Node<O>> rightTask = ForkJoinTask.adapt(() -> {
+                final Workspace taskWorkspace = getWorkspace();
+                return growNode(new ColumnarNode<>(data, node.getRows(), cut, node.getTo(), sortedRows, taskWorkspace.scratchRows),
+                        depth+1, rightRandom, taskWorkspace);
+            });
+
+            // the larger child is grown on this thread
+            if(leftIsSmaller){
+                ForkJoinTask.invokeAll(rightTask, leftTask);
+            }
+            else{
+                ForkJoinTask.invokeAll(leftTask, rightTask);
+            }
+
+            leftNode = leftTask.join();
+            rightNode = rightTask.join();
+        }
+        else{
+            final ColumnarNode<Y> leftChild = new ColumnarNode<>(data, node.getRows(), node.getFrom(), cut, sortedRows, workspace.scratchRows);
+            final ColumnarNode<Y> rightChild = new ColumnarNode<>(data, node.getRows(), cut, node.getTo(), sortedRows, workspace.scratchRows);
+
+            if(leftIsSmaller){
+                leftNode = growNode(leftChild, depth+1, leftRandom, workspace);
+                rightNode = growNode(rightChild, depth+1, rightRandom, workspace);
+            }
+            else{
+                rightNode = growNode(rightChild, depth+1, rightRandom, workspace);
+                leftNode = growNode(leftChild, depth+1, leftRandom, workspace);
+            }
+        }
+
+        return new SplitNode<>(leftNode, rightNode, splitRule, probabilityLeftHand);
+    }
+
+    /**
+     * Expands the dataset's sorted rows for each NumericCovariate by how many times each row was bootstrapped, followed
+     * by the bootstrapped rows that are NA for it.
+     *
+     */
+    private int[][] presortRows(final int[] bootstrapRows){
+        final int[] multiplicity = new int[data.getNumberOfRows()];
+        for(final int row : bootstrapRows){
+            multiplicity[row]++;
+        }
+
+        final int[][] sortedRows = new int[data.getCovariates().size()][];
+
+        for(final Covariate covariate : treeTrainer.getCovariates()){
+            final int covariateIndex = covariate.getIndex();
+            if(data.getNumericColumn(covariateIndex) == null){
+                continue;
+            }
+
+            final int[] nodeSortedRows = new int[bootstrapRows.length];
+            int position = 0;
+            for(final int row : data.getSortedNumericRows(covariateIndex)){
+                for(int k=0; k<multiplicity[row]; k++){
+                    nodeSortedRows[position++] = row;
+                }
+            }
+            for(final int row : bootstrapRows){
+                if(data.isNA(covariateIndex, row)){
+                    nodeSortedRows[position++] = row;
+                }
+            }
+
+            sortedRows[covariateIndex] = nodeSortedRows;
+        }
+
+        return sortedRows;
+    }
+
+    /**
+     * Stable partition of the node's rows in place so that the left hand is in [from, cut) and the right hand in
+     * [cut, to). Rows that are NA for the split's covariate are randomly assigned a hand.
+     *
+     * @return cut
+     */
+    private int partitionRows(final ColumnarNode<Y> node, final SplitRule<?> splitRule, final double probabilityLeftHand,
+                              final Random random, final Workspace workspace){
+        final int covariateIndex = splitRule.getParentCovariateIndex();
+        final int[] rows = node.getRows();
+        final int[] scratchRows = workspace.scratchRows;
+
+        int cut = node.getFrom();
+        int rightSize = 0;
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            final int row = rows[i];
+
+            final boolean isLeftHand;
+            if(data.isNA(covariateIndex, row)){
+                isLeftHand = random.nextDouble() <= probabilityLeftHand;
+            }
+            else{
+                isLeftHand = splitRule.isLeftHand(data, row);
+            }
+
+            if(isLeftHand){
+                rows[cut++] = row;
+            }
+            else{
+                scratchRows[rightSize++] = row;
+            }
+        }
+
+        System.arraycopy(scratchRows, 0, rows, cut, rightSize);
+
+        return cut;
+    }
+
+    /**
+     * Stable partition in place of the node's sorted rows into those of its two children, so that the children don't
+     * need to sort. Must be called after partitionRows.
+     *
+     */
+    private void partitionSortedRows(final ColumnarNode<Y> node, final SplitRule<?> splitRule, final int cut, final Workspace workspace){
+        final int covariateIndex = splitRule.getParentCovariateIndex();
+        final int[] rows = node.getRows();
+        final int[] scratchRows = workspace.scratchRows;
+        final byte[] rowSide = workspace.rowSide;
+        final int[] naLeftCount = workspace.naLeftCount;
+        final int[] naSeen = workspace.naSeen;
+
+        // Bootstrap copies of a row that is NA for the split covariate may have been randomly assigned to different
+        // hands; for those rows we count how many copies went left and send the first that many copies left.
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            final int row = rows[i];
+            if(data.isNA(covariateIndex, row)){
+                rowSide[row] = NA;
+                naLeftCount[row] = 0;
+                naSeen[row] = 0;
+            }
+            else{
+                rowSide[row] = i < cut ? LEFT : RIGHT;
+            }
+        }
+        for(int i=node.getFrom(); i<cut; i++){
+            if(rowSide[rows[i]] == NA){
+                naLeftCount[rows[i]]++;
+            }
+        }
+
+        for(int j=0; j<data.getCovariates().size(); j++){
+            final int[] covariateSortedRows = node.getSortedRows(j);
+            if(covariateSortedRows == null){
+                continue;
+            }
+
+            int leftPosition = node.getFrom();
+            int rightSize = 0;
+            for(int i=node.getFrom(); i<node.getTo(); i++){
+                final int row = covariateSortedRows[i];
+
+                byte side = rowSide[row];
+                if(side == NA){
+                    side = naSeen[row]++ < naLeftCount[row] ? LEFT : RIGHT;
+                }
+
+                if(side == LEFT){
+                    covariateSortedRows[leftPosition++] = row;
+                }
+                else{
+                    scratchRows[rightSize++] = row;
+                }
+            }
+            System.arraycopy(scratchRows, 0, covariateSortedRows, leftPosition, rightSize);
+
+            for(int i=node.getFrom(); i<node.getTo(); i++){
+                naSeen[covariateSortedRows[i]] = 0;
+            }
+        }
+    }
+
+    private TerminalNode<O> createTerminalNode(final ColumnarNode<Y> node){
+        return new TerminalNode<>(treeTrainer.getResponseCombiner().combine(node.getResponses()), node.size());
+    }
+
+    private ColumnarSplit<?> findBestSplitRule(final ColumnarNode<Y> node, final List<Covariate> covariatesToTry, final Random random){
+        if(treeTrainer.getParallelCovariateNodeSize() > 0){
+            return findBestSplitRuleConcurrently(node, covariatesToTry, random);
+        }
+
+        ColumnarSplitAndScore<?> bestSplitAndScore = null;
+
+        for(final Covariate covariate : covariatesToTry) {
+            final ColumnarSplitAndScore<?> candidateSplitAndScore = findBestSplit(node, covariate, bestSplitAndScore, random);
+
+            if(candidateSplitAndScore == null){
+                continue;
+            }
+
+            // We only have to penalize the score if it's possible that this might be the best split
+            final boolean mayBeGoodSplit = bestSplitAndScore == null ||
+                    candidateSplitAndScore.getScore() > bestSplitAndScore.getScore();
+            if(mayBeGoodSplit){
+                applyNASplitPenalty(node, covariate, candidateSplitAndScore, random);
+            }
+
+            if(bestSplitAndScore == null || candidateSplitAndScore.getScore() > bestSplitAndScore.getScore()) {
+                bestSplitAndScore = candidateSplitAndScore;
+            }
+        }
+
+        if(bestSplitAndScore == null){
+            return null;
+        }
+
+        return bestSplitAndScore.getSplit();
+    }
+
+    /**
+     * Same as findBestSplitRule, except every covariate draws from its own Random (seeded from random in order) so
+     * that they can be scored independently; if the node has at least parallelCovariateNodeSize rows they're
+     * scored in parallel. The best split is then chosen in order of covariatesToTry, so the result is the same whether or
+     * not the node was scored in parallel.
+     *
+     */
+    private ColumnarSplit<?> findBestSplitRuleConcurrently(final ColumnarNode<Y> node, final List<Covariate> covariatesToTry, final Random random){
+        final int numberOfCovariates = covariatesToTry.size();
+
+        final long[] seeds = new long[numberOfCovariates];
+        for(int i=0; i<numberOfCovariates; i++){
+            seeds[i] = random.nextLong();
+        }
+
+        final boolean parallel = node.size() >= treeTrainer.getParallelCovariateNodeSize();
+        final ColumnarSplitAndScore<?>[] candidates = new ColumnarSplitAndScore<?>[numberOfCovariates];
+
+        IntStream stream = IntStream.range(0, numberOfCovariates);
+        if(parallel){
+            stream = stream.parallel();
+        }
+
+        stream.forEach(i -> {
+            final Covariate covariate = covariatesToTry.get(i);
+            final Random covariateRandom = new Random(seeds[i]);
+
+            // parallel covariates can't share the node's scratch rows, but each thread can use its own Workspace's
+            final ColumnarNode<Y> covariateNode = parallel ? node.withScratchRows(getWorkspace().scratchRows) : node;
+
+            final ColumnarSplitAndScore<?> candidate = findBestSplit(covariateNode, covariate, null, covariateRandom);
+
+            // Always penalizing gives the same choice as penalizing only the splits that may be the best, as the
+            // penalty can only lower a score.
+            if(candidate != null){
+                applyNASplitPenalty(covariateNode, covariate, candidate, covariateRandom);
+            }
+
+            candidates[i] = candidate;
+        });
+
+        ColumnarSplitAndScore<?> bestSplitAndScore = null;
+        for(final ColumnarSplitAndScore<?> candidate : candidates){
+            if(candidate != null && (bestSplitAndScore == null || candidate.getScore() > bestSplitAndScore.getScore())){
+                bestSplitAndScore = candidate;
+            }
+        }
+
+        if(bestSplitAndScore == null){
+            return null;
+        }
+
+        return bestSplitAndScore.getSplit();
+    }
+
+    /**
+     * Finds the best split for one covariate.
+     *
+     * @param currentBest If not null, a histogram split is only created if it could beat this.
+     * @return The split and its score, or null if no split could be made.
+     */
+    private ColumnarSplitAndScore<?> findBestSplit(final ColumnarNode<Y> node, final Covariate covariate,
+                                                   final ColumnarSplitAndScore<?> currentBest, final Random random){
+        if(useHistograms() && covariate instanceof NumericCovariate){
+            return findBestHistogramSplit(node, (NumericCovariate) covariate, currentBest, random);
+        }
+
+        final Iterator<ColumnarSplit<?>> iterator = covariate.generateColumnarSplits(node, treeTrainer.getNumberOfSplits(), random);
+
+        // this happens if there were only NA values in the node for this covariate
+        if(iterator == null){
+            return null;
+        }
+
+        return treeTrainer.getSplitFinder().findBestSplit(node, iterator);
+    }
+
+    /**
+     * Penalize covariates with NAs; see TreeTrainer#findBestSplitRule. Must be called before the node's scratch rows
+     * are reused.
+     */
+    private void applyNASplitPenalty(final ColumnarNode<Y> node, final Covariate covariate,
+                                     final ColumnarSplitAndScore<?> candidateSplitAndScore, final Random random){
+        if(!covariate.haveNASplitPenalty()){
+            return;
+        }
+
+        final ColumnarSplit<?> candidateSplitWithNAs = randomlyAssignNAs(node, candidateSplitAndScore.getSplit(), random);
+        final double newScore = treeTrainer.getSplitFinder().findBestSplit(node, new SingletonIterator<>(candidateSplitWithNAs)).getScore();
+
+        candidateSplitAndScore.setScore(Math.min(newScore, candidateSplitAndScore.getScore()));
+    }
+
+    private boolean useHistograms(){
+        return treeTrainer.getNumberOfHistogramBins() > 0 && treeTrainer.getSplitFinder() instanceof HistogramSplitFinder;
+    }
+
+    /**
+     * Finds the best split on a NumericCovariate from a histogram of the node. The split is only created if it could
+     * beat currentBest, otherwise null is returned.
+     *
+     */
+    private ColumnarSplitAndScore<Double> findBestHistogramSplit(final ColumnarNode<Y> node, final NumericCovariate covariate,
+                                                                 final ColumnarSplitAndScore<?> currentBest, final Random random){
+        final HistogramSplitFinder<Y> splitFinder = (HistogramSplitFinder<Y>) treeTrainer.getSplitFinder();
+        final int covariateIndex = covariate.getIndex();
+        final NumericBinning binning = data.getNumericBinning(covariateIndex, treeTrainer.getNumberOfHistogramBins());
+
+        SplitHistogram histogram = node.subtractSourceHistograms(covariateIndex, splitFinder);
+        if(histogram == null){
+            histogram = splitFinder.createHistogram(node, covariateIndex, binning);
+        }
+        node.putHistogram(covariateIndex, histogram);
+
+        int size = 0;
+        for(int bin=0; bin<histogram.getNumberOfBins(); bin++){
+            size += histogram.getCount(bin);
+        }
+
+        // only NA values in the node for this covariate
+        if(size == 0){
+            return null;
+        }
+
+        final HistogramSplitFinder.BinAndScore binAndScore = splitFinder.findBestBin(histogram, selectCandidateBins(histogram, size, random));
+
+        if(binAndScore == null || (currentBest != null && binAndScore.getScore() <= currentBest.getScore())){
+            return null;
+        }
+
+        final double[] column = data.getNumericColumn(covariateIndex);
+        final int[] nodeRows = node.getRows();
+        final int[] rows = node.getScratchRows();
+
+        int cut = 0;
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            final int row = nodeRows[i];
+            if(!Double.isNaN(column[row]) && binning.getBin(row) <= binAndScore.getBin()){
+                rows[cut++] = row;
+            }
+        }
+
+        int position = cut;
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            final int row = nodeRows[i];
+            if(!Double.isNaN(column[row]) && binning.getBin(row) > binAndScore.getBin()){
+                rows[position++] = row;
+            }
+        }
+
+        final NumericSplitRule splitRule = new NumericSplitRule(covariate, binning.getUpperBound(binAndScore.getBin()));
+        return new ColumnarSplitAndScore<>(new ColumnarSplit<>(splitRule, rows, 0, cut, size), binAndScore.getScore());
+    }
+
+    /**
+     * Selects the bins to try the same way NumericCovariate selects values; a bin is tried if it contains one of
+     * numberOfSplits randomly selected non-NA rows, or every bin is tried if numberOfSplits is 0.
+     *
+     */
+    private int[] selectCandidateBins(final SplitHistogram histogram, final int size, final Random random){
+        final int numberOfBins = histogram.getNumberOfBins();
+        final int[] candidateBins = new int[numberOfBins];
+        int numberOfCandidates = 0;
+
+        if(treeTrainer.getNumberOfSplits() == 0){
+            for(int bin=0; bin<numberOfBins; bin++){
+                if(histogram.getCount(bin) > 0){
+                    candidateBins[numberOfCandidates++] = bin;
+                }
+            }
+        }
+        else{
+            final TreeSet<Integer> indexSet = new TreeSet<>();
+            for(int i=0; i<treeTrainer.getNumberOfSplits(); i++){
+                indexSet.add(random.nextInt(size));
+            }
+
+            int bin = -1;
+            int binEnd = 0;
+            for(final int index : indexSet){
+                while(index >= binEnd){
+                    bin++;
+                    binEnd += histogram.getCount(bin);
+                }
+
+                if(numberOfCandidates == 0 || candidateBins[numberOfCandidates-1] != bin){
+                    candidateBins[numberOfCandidates++] = bin;
+                }
+            }
+        }
+
+        return Arrays.copyOf(candidateBins, numberOfCandidates);
+    }
+
+    /**
+     * Returns a split containing every row of the node, where the rows with an NA value for the split's covariate have
+     * been randomly assigned to a hand. If the covariate has no NAs the split is returned unchanged.
+     *
+     */
+    private <V> ColumnarSplit<V> randomlyAssignNAs(final ColumnarNode<Y> node, final ColumnarSplit<V> existingSplit, final Random random){
+        final int covariateIndex = existingSplit.getSplitRule().getParentCovariateIndex();
+
+        if(!data.getCovariate(covariateIndex).hasNAs()){
+            return existingSplit;
+        }
+
+        final double probabilityLeftHand = (double) existingSplit.getLeftSize() /
+                (double) (existingSplit.getLeftSize() + existingSplit.getRightSize());
+
+        final int[] nodeRows = node.getRows();
+        final int size = node.size();
+        final int[] leftHandNAs = new int[size];
+        final int[] rightHandNAs = new int[size];
+        int leftNACount = 0;
+        int rightNACount = 0;
+
+        for(int i=node.getFrom(); i<node.getTo(); i++){
+            final int row = nodeRows[i];
+            if(data.isNA(covariateIndex, row)){
+                if(random.nextDouble() <= probabilityLeftHand){
+                    leftHandNAs[leftNACount++] = row;
+                }
+                else{
+                    rightHandNAs[rightNACount++] = row;
+                }
+            }
+        }
+
+        final int[] existingRows = existingSplit.getRows();
+        final int[] rows = new int[existingSplit.getLeftSize() + leftNACount + existingSplit.getRightSize() + rightNACount];
+
+        int position = 0;
+        System.arraycopy(existingRows, existingSplit.getFrom(), rows, position, existingSplit.getLeftSize());
+        position += existingSplit.getLeftSize();
+        System.arraycopy(leftHandNAs, 0, rows, position, leftNACount);
+        position += leftNACount;
+
+        final int cut = position;
+
+        System.arraycopy(existingRows, existingSplit.getCut(), rows, position, existingSplit.getRightSize());
+        position += existingSplit.getRightSize();
+        System.arraycopy(rightHandNAs, 0, rows, position, rightNACount);
+
+        return new ColumnarSplit<>(existingSplit.getSplitRule(), rows, 0, cut, rows.length);
+    }
+
+    private boolean nodeIsPure(final ColumnarNode<Y> node){
+        if(!treeTrainer.isCheckNodePurity()){
+            return false;
+        }
+
+        if(node.size() <= 1){
+            return true;
+        }
+
+        final int[] rows = node.getRows();
+        final Y first = data.getResponse(rows[node.getFrom()]);
+        for(int i=node.getFrom()+1; i<node.getTo(); i++){
+            if(!data.getResponse(rows[i]).equals(first)){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private Workspace getWorkspace(){
+        return workspaces.computeIfAbsent(Thread.currentThread(), thread -> new Workspace(workspaceSize));
+    }
+
+    /**
+     * Scratch space used while growing nodes on one thread, sized for the whole tree. A thread only uses it within a
+     * single step of growing a node (finding the split and partitioning), which has no fork or join in it (other than
+     * the parallel covariate scoring, where the node's own scratch rows aren't in use). So a thread that runs another
+     * subtree's task while waiting on a join can reuse its Workspace, and each thread allocates at most one per tree.
+     */
+    private final class Workspace {
+        // see ColumnarNode#getScratchRows
+        private final int[] scratchRows;
+
+        // For partitioning presorted rows, indexed by row; null if not presorting
+        private final byte[] rowSide;
+        private final int[] naLeftCount;
+        private final int[] naSeen;
+
+        private Workspace(final int size){
+            this.scratchRows = new int[size];
+
+            if(sortedRows != null){
+                final int n = data.getNumberOfRows();
+                this.rowSide = new byte[n];
+                this.naLeftCount = new int[n];
+                this.naSeen = new int[n];
+            }
+            else{
+                this.rowSide = null;
+                this.naLeftCount = null;
+                this.naSeen = null;
+            }
+        }
+    }
+
+}
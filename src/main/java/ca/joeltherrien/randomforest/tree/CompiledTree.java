@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.ColumnarDataset;
+import ca.joeltherrien.randomforest.CovariateRow;
+import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.covariates.SplitRule;
+import ca.joeltherrien.randomforest.covariates.bool.BooleanSplitRule;
+import ca.joeltherrien.randomforest.covariates.factor.FactorCovariate;
+import ca.joeltherrien.randomforest.covariates.factor.FactorSplitRule;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericSplitRule;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A Tree stored in parallel primitive arrays instead of a graph of SplitNodes and TerminalNodes, for faster
+ * prediction. Split nodes are numbered in pre-order so that a left child usually follows its parent. A child (or the
+ * root) that is a terminal node is stored as ~leafSlot, i.e. a negative number, with leafSlot indexing the terminal
+ * nodes' responses.
+ *
+ * Factor splits are stored as bitmasks over the level codes (see FactorCovariate.FactorValue#getCode), so the
+ * covariates used to create the rows being evaluated must have their levels in the same order as those given to
+ * compile.
+ *
+ * NA values are assigned to a hand at random the same way as SplitRule#isLeftHand.
+ *
+ */
+public final class CompiledTree<Y> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final byte NUMERIC_SPLIT = 0;
+    static final byte FACTOR_SPLIT = 1;
+    static final byte BOOLEAN_SPLIT = 2;
+
+    // indexed by split node
+    private final byte[] splitTypes;
+    private final int[] covariateIndices;
+    private final double[] thresholds; // only for numeric splits
+    private final long[][] factorMasks; // only for factor splits; bit c is set if the level with code c goes left
+    private final int[] leftChildren;
+    private final int[] rightChildren;
+    private final double[] probabilityNaLeftHand;
+
+    private final Object[] leafResponses; // indexed by leaf slot
+    private final int root;
+
+    private final int[] bootstrapRowIds; // sorted
+
+    /**
+     * Creates a CompiledTree from a trained Tree.
+     *
+     * @param tree The tree to compile.
+     * @param covariates The covariates the tree was trained on; used to turn factor splits into bitmasks.
+     */
+    public static <Y> CompiledTree<Y> compile(final Tree<Y> tree, final List<Covariate> covariates){
+        final Node<Y> rootNode = tree.getRootNode();
+        final int numberOfSplitNodes = rootNode.getNodesOfType(SplitNode.class).size();
+        final int numberOfLeaves = rootNode.getNodesOfType(TerminalNode.class).size();
+
+        return new CompiledTree<>(rootNode, numberOfSplitNodes, numberOfLeaves, tree.getBootstrapRowIds(), covariates);
+    }
+
+    private CompiledTree(final Node<Y> rootNode, final int numberOfSplitNodes, final int numberOfLeaves,
+                         final int[] bootstrapRowIds, final List<Covariate> covariates){
+        this.splitTypes = new byte[numberOfSplitNodes];
+        this.covariateIndices = new int[numberOfSplitNodes];
+        this.thresholds = new double[numberOfSplitNodes];
+        this.factorMasks = new long[numberOfSplitNodes][];
+        this.leftChildren = new int[numberOfSplitNodes];
+        this.rightChildren = new int[numberOfSplitNodes];
+        this.probabilityNaLeftHand = new double[numberOfSplitNodes];
+        this.leafResponses = new Object[numberOfLeaves];
+        this.bootstrapRowIds = bootstrapRowIds;
+
+        this.root = addNode(rootNode, new int[2], covariates);
+    }
+
+    // counters holds the next split node index and the next leaf slot
+    private int addNode(final Node<Y> node, final int[] counters, final List<Covariate> covariates){
+        if(node instanceof TerminalNode){
+            final int leafSlot = counters[1]++;
+            leafResponses[leafSlot] = ((TerminalNode<Y>) node).getResponseValue();
+            return ~leafSlot;
+        }
+
+        if(!(node instanceof SplitNode)){
+            throw new IllegalArgumentException("Can't compile a node of type " + node.getClass().getName());
+        }
+
+        final SplitNode<Y> splitNode = (SplitNode<Y>) node;
+        final SplitRule splitRule = splitNode.getSplitRule();
+        final int index = counters[0]++;
+
+        covariateIndices[index] = splitRule.getParentCovariateIndex();
+        probabilityNaLeftHand[index] = splitNode.getProbabilityNaLeftHand();
+
+        if(splitRule instanceof NumericSplitRule){
+            splitTypes[index] = NUMERIC_SPLIT;
+            thresholds[index] = ((NumericSplitRule) splitRule).getThreshold();
+        }
+        else if(splitRule instanceof FactorSplitRule){
+            splitTypes[index] = FACTOR_SPLIT;
+            factorMasks[index] = createFactorMask((FactorSplitRule) splitRule,
+                    (FactorCovariate) covariates.get(splitRule.getParentCovariateIndex()));
+        }
+        else if(splitRule instanceof BooleanSplitRule){
+            splitTypes[index] = BOOLEAN_SPLIT;
+        }
+        else{
+            throw new IllegalArgumentException("Can't compile a split rule of type " + splitRule.getClass().getName());
+        }
+
+        leftChildren[index] = addNode(splitNode.getLeftHand(), counters, covariates);
+        rightChildren[index] = addNode(splitNode.getRightHand(), counters, covariates);
+
+        return index;
+    }
+
+    private static long[] createFactorMask(final FactorSplitRule splitRule, final FactorCovariate covariate){
+        final int numberOfLevels = covariate.getNumberOfLevels();
+        final long[] mask = new long[(numberOfLevels + 63) / 64];
+
+        for(int code=0; code<numberOfLevels; code++){
+            if(splitRule.isLeftHand(covariate.getValueByCode(code))){
+                mask[code >>> 6] |= 1L << code;
+            }
+        }
+
+        return mask;
+    }
+
+    private static boolean isFactorCodeLeft(final long[] mask, final int code){
+        final int word = code >>> 6;
+        return word < mask.length && (mask[word] & (1L << code)) != 0;
+    }
+
+    private boolean isNALeftHand(final int node){
+        return ThreadLocalRandom.current().nextDouble() <= probabilityNaLeftHand[node];
+    }
+
+    public Y evaluate(final CovariateRow row){
+        int node = root;
+
+        while(node >= 0){
+            final Covariate.Value value = row.getValueByIndex(covariateIndices[node]);
+            final boolean leftHand;
+
+            if(value.isNA()){
+                leftHand = isNALeftHand(node);
+            }
+            else if(splitTypes[node] == NUMERIC_SPLIT){
+                leftHand = (Double) value.getValue() <= thresholds[node];
+            }
+            else if(splitTypes[node] == FACTOR_SPLIT){
+                leftHand = isFactorCodeLeft(factorMasks[node], ((FactorCovariate.FactorValue) value).getCode());
+            }
+            else{
+                leftHand = !((Boolean) value.getValue());
+            }
+
+            node = leftHand ? leftChildren[node] : rightChildren[node];
+        }
+
+        return (Y) leafResponses[~node];
+    }
+
+    /**
+     * Evaluates a row of a ColumnarDataset, reading its primitive columns directly.
+     *
+     */
+    public Y evaluate(final ColumnarDataset<?> data, final int row){
+        int node = root;
+
+        while(node >= 0){
+            final int covariateIndex = covariateIndices[node];
+            final boolean leftHand;
+
+            if(splitTypes[node] == NUMERIC_SPLIT){
+                final double value = data.getNumericColumn(covariateIndex)[row];
+                leftHand = Double.isNaN(value) ? isNALeftHand(node) : value <= thresholds[node];
+            }
+            else if(splitTypes[node] == FACTOR_SPLIT){
+                final int code = data.getFactorColumn(covariateIndex)[row];
+                leftHand = code < 0 ? isNALeftHand(node) : isFactorCodeLeft(factorMasks[node], code);
+            }
+            else{
+                leftHand = data.getBooleanNAs(covariateIndex).get(row) ?
+                        isNALeftHand(node) : !data.getBooleanColumn(covariateIndex).get(row);
+            }
+
+            node = leftHand ? leftChildren[node] : rightChildren[node];
+        }
+
+        return (Y) leafResponses[~node];
+    }
+
+    public boolean idInBootstrapSample(int id){
+        return Arrays.binarySearch(this.bootstrapRowIds, id) >= 0;
+    }
+
+    public int getNumberOfSplitNodes(){
+        return splitTypes.length;
+    }
+
+    public int getNumberOfTerminalNodes(){
+        return leafResponses.length;
+    }
+
+}
@@ -20,11 +20,25 @@ import ca.joeltherrien.randomforest.CovariateRow;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 public abstract class Forest<O, FO> {
 
+    /**
+     * The OOB predictions of the training rows, if ForestTrainer accumulated them while training this forest.
+     */
+    private List<FO> oobPredictions;
+
+    public Optional<List<FO>> getOOBPredictions(){
+        return Optional.ofNullable(oobPredictions);
+    }
+
+    void setOOBPredictions(List<FO> oobPredictions){
+        this.oobPredictions = oobPredictions;
+    }
+
     public abstract FO evaluate(CovariateRow row);
     public abstract FO evaluateOOB(CovariateRow row);
     public abstract Iterable<Tree<O>> getTrees();
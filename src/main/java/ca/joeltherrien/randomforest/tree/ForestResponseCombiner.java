@@ -20,4 +20,13 @@ public interface ForestResponseCombiner<I, O>  extends ResponseCombiner<I, O>{
 
     IntermediateCombinedResponse<I, O> startIntermediateCombinedResponse(int countInputs);
 
+    /**
+     * Whether startIntermediateCombinedResponse is supported; if not, forests combine each row's tree outputs with
+     * combine instead.
+     *
+     */
+    default boolean canStartIntermediateCombinedResponse(){
+        return true;
+    }
+
 }
@@ -17,16 +17,19 @@
 package ca.joeltherrien.randomforest.tree;
 
 import ca.joeltherrien.randomforest.Bootstrapper;
+import ca.joeltherrien.randomforest.ColumnarDataset;
 import ca.joeltherrien.randomforest.Row;
 import ca.joeltherrien.randomforest.covariates.Covariate;
 import ca.joeltherrien.randomforest.utils.DataUtils;
+import ca.joeltherrien.randomforest.utils.ForestArchive;
+import ca.joeltherrien.randomforest.utils.TreeCodec;
 import lombok.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -41,6 +44,11 @@ public class ForestTrainer<Y, TO, FO> {
     private final ForestResponseCombiner<TO, FO> treeResponseCombiner;
     private final List<Row<Y>> data;
 
+    /**
+     * If set, trees are trained on this instead of data, which is then ignored.
+     */
+    private final ColumnarDataset<Y> columnarData;
+
     // number of trees to try
     @Getter
     @Setter
@@ -50,6 +58,25 @@ public class ForestTrainer<Y, TO, FO> {
     private final String saveTreeLocation;
     private final long randomSeed;
 
+    /**
+     * When training on disk, trees are saved with TreeCodec unless this is true or TreeCodec can't encode them, in
+     * which case they're saved with Java serialization. Both can be loaded by OfflineForest and DataUtils.
+     */
+    private final boolean saveTreesWithJavaSerialization;
+
+    /**
+     * If true, training on disk appends trees to a ForestArchive at saveTreeLocation instead of saving them in a
+     * directory. Trees must then be ones that TreeCodec can encode.
+     */
+    private final boolean saveTreesToArchive;
+
+    /**
+     * If true, the OOB predictions of the training rows are accumulated as each tree is grown (see
+     * Forest#getOOBPredictions), instead of needing another pass over the trees afterwards. treeResponseCombiner must
+     * support IntermediateCombinedResponses. When resuming training on disk the trees already saved are read once.
+     */
+    private final boolean accumulateOOBPredictions;
+
     /**
      * Train a forest in memory using a single core
      *
@@ -62,6 +89,11 @@ public class ForestTrainer<Y, TO, FO> {
         final List<Tree<TO>> trees = new ArrayList<>(ntree);
         initialForest.ifPresent(forest -> forest.getTrees().forEach(trees::add));
 
+        final OutOfBagAccumulator<TO, FO> outOfBagAccumulator = createOutOfBagAccumulator();
+        if(outOfBagAccumulator != null){
+            trees.forEach(outOfBagAccumulator::addTree);
+        }
+
         final Bootstrapper<Row<Y>> bootstrapper = new Bootstrapper<>(data);
 
         for(int j=trees.size(); j<ntree; j++){
@@ -69,7 +101,11 @@ public class ForestTrainer<Y, TO, FO> {
                 System.out.print("\rFinished tree " + j + "/" + ntree + " trees");
             }
             final Random random = new Random(this.randomSeed + j);
-            trees.add(trainTree(bootstrapper, random));
+            final Tree<TO> tree = trainTree(bootstrapper, random);
+            if(outOfBagAccumulator != null){
+                outOfBagAccumulator.addTree(tree);
+            }
+            trees.add(tree);
         }
 
         if(displayProgress){
@@ -77,10 +113,10 @@ public class ForestTrainer<Y, TO, FO> {
             System.out.println("Finished");
         }
 
-        return OnlineForest.<TO, FO>builder()
+        return withOOBPredictions(OnlineForest.<TO, FO>builder()
                 .treeResponseCombiner(treeResponseCombiner)
                 .trees(trees)
-                .build();
+                .build(), outOfBagAccumulator);
 
     }
 
@@ -91,38 +127,50 @@ public class ForestTrainer<Y, TO, FO> {
      *                      in which case its trees are combined with the new one.
      *                      There cannot be existing trees if the initial forest is
      *                      specified.
+     * @return The forest on disk; if saveTreesToArchive is set it keeps the archive open until it's closed.
      */
     public OfflineForest<TO, FO> trainSerialOnDisk(Optional<Forest<TO, FO>> initialForest){
-        // First we need to see how many trees there currently are
-        final File folder = new File(saveTreeLocation);
-        if(!folder.exists()){
-            folder.mkdir();
-        }
+        final OutOfBagAccumulator<TO, FO> outOfBagAccumulator;
 
-        if(!folder.isDirectory()){
-            throw new IllegalArgumentException("Tree directory must be a directory!");
+        try(final ForestArchive.Writer archiveWriter = saveTreesToArchive ? openArchiveWriter() : null){
+            outOfBagAccumulator = saveTreesSerially(initialForest, archiveWriter);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close forest archive " + saveTreeLocation, e);
         }
 
-        final File[] treeFiles = folder.listFiles((file, s) -> s.endsWith(".tree"));
-        final List<String> treeFileNames = Arrays.stream(treeFiles).map(file -> file.getName()).collect(Collectors.toList());
+        return withOOBPredictions(new OfflineForest<>(new File(saveTreeLocation), treeResponseCombiner), outOfBagAccumulator);
+    }
 
-        if(initialForest.isPresent() & treeFiles.length > 0){
+    // returns the OOB accumulator, if any; archiveWriter is closed by the caller even if training fails
+    private OutOfBagAccumulator<TO, FO> saveTreesSerially(Optional<Forest<TO, FO>> initialForest, ForestArchive.Writer archiveWriter){
+        // First we need to see how many trees there currently are
+        final List<String> treeFileNames = archiveWriter != null ? archiveWriter.getTreeNames() : listTreeFileNames();
+
+        if(initialForest.isPresent() & treeFileNames.size() > 0){
             throw new IllegalArgumentException("An initial forest is present but trees are also present; not clear how to integrate initial forest into new forest");
         }
 
+        final OutOfBagAccumulator<TO, FO> outOfBagAccumulator = createOutOfBagAccumulator();
+        if(outOfBagAccumulator != null && !treeFileNames.isEmpty()){
+            addSavedTrees(outOfBagAccumulator, archiveWriter);
+        }
+
         final AtomicInteger treeCount; // tracks how many trees are finished
         // Using an AtomicInteger is overkill for serial code, but this lets us reuse TreeSavedWorker
         if(initialForest.isPresent()){
             int j=0;
             for(final Tree<TO> tree : initialForest.get().getTrees()){
                 final String filename = "tree-" + (j+1) + ".tree";
-                saveTree(tree, filename);
+                saveTree(tree, filename, archiveWriter);
+                if(outOfBagAccumulator != null){
+                    outOfBagAccumulator.addTree(tree);
+                }
                 j++;
             }
 
             treeCount = new AtomicInteger(j);
         } else{
-            treeCount = new AtomicInteger(treeFiles.length);
+            treeCount = new AtomicInteger(treeFileNames.size());
         }
 
 
@@ -138,7 +186,7 @@ public class ForestTrainer<Y, TO, FO> {
             }
 
             final Random random = new Random(this.randomSeed + treeCount.get());
-            final Runnable worker = new TreeSavedWorker(data, treeFileName, treeCount, random);
+            final Runnable worker = new TreeSavedWorker(data, treeFileName, archiveWriter, outOfBagAccumulator, treeCount, random);
             worker.run();
 
         }
@@ -148,8 +196,7 @@ public class ForestTrainer<Y, TO, FO> {
             System.out.println("Finished");
         }
 
-        return new OfflineForest<>(folder, treeResponseCombiner);
-
+        return outOfBagAccumulator;
     }
 
     /**
@@ -157,7 +204,9 @@ public class ForestTrainer<Y, TO, FO> {
      *
      * @param initialForest An Optional possibly containing a pre-trained forest,
      *                      in which case its trees are combined with the new one.
-     * @param threads The number of trees to train at once.
+     * @param threads The number of threads to train with. Trees are trained as tasks in a work-stealing pool, and any
+     *                subtrees or covariates that treeTrainer works on in parallel are run as tasks in the same pool, so
+     *                the threads that would otherwise be idle while the last trees finish can help with them.
      */
     public OnlineForest<TO, FO> trainParallelInMemory(Optional<Forest<TO, FO>> initialForest, int threads){
 
@@ -178,21 +227,26 @@ public class ForestTrainer<Y, TO, FO> {
             startingCount = 0;
         }
 
-        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        final OutOfBagAccumulator<TO, FO> outOfBagAccumulator = createOutOfBagAccumulator();
+        if(outOfBagAccumulator != null){
+            trees.subList(0, startingCount).forEach(outOfBagAccumulator::addTree);
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
 
         for(int j=startingCount; j<ntree; j++){
             final Random random = new Random(this.randomSeed + j);
-            final Runnable worker = new TreeInMemoryWorker(data, j, trees, random);
-            executorService.execute(worker);
+            final Runnable worker = new TreeInMemoryWorker(data, j, trees, outOfBagAccumulator, random);
+            pool.execute(worker);
         }
 
-        executorService.shutdown();
+        pool.shutdown();
 
         int prevNumberTreesSet = -1;
         boolean running = true;
         while(running){
             try {
-                if (executorService.awaitTermination(1, TimeUnit.SECONDS)) running = false;
+                if (pool.awaitTermination(1, TimeUnit.SECONDS)) running = false;
             } catch (InterruptedException e) {
                 // do nothing and just continue; this won't happen and if it did we'd just update the counter quicker
             }
@@ -217,10 +271,10 @@ public class ForestTrainer<Y, TO, FO> {
             System.out.println("\nFinished");
         }
 
-        return OnlineForest.<TO, FO>builder()
+        return withOOBPredictions(OnlineForest.<TO, FO>builder()
                 .treeResponseCombiner(treeResponseCombiner)
                 .trees(trees)
-                .build();
+                .build(), outOfBagAccumulator);
 
     }
 
@@ -231,41 +285,53 @@ public class ForestTrainer<Y, TO, FO> {
      *                      in which case its trees are combined with the new one.
      *                      There cannot be existing trees if the initial forest is
      *                      specified.
-     * @param threads The number of trees to train at once.
+     * @param threads The number of threads to train with; see trainParallelInMemory.
+     * @return The forest on disk; if saveTreesToArchive is set it keeps the archive open until it's closed.
      */
     public OfflineForest<TO, FO> trainParallelOnDisk(Optional<Forest<TO, FO>> initialForest, int threads){
-        // First we need to see how many trees there currently are
-        final File folder = new File(saveTreeLocation);
-        if(!folder.exists()){
-            folder.mkdir();
-        }
+        final OutOfBagAccumulator<TO, FO> outOfBagAccumulator;
 
-        if(!folder.isDirectory()){
-            throw new IllegalArgumentException("Tree directory must be a directory!");
+        try(final ForestArchive.Writer archiveWriter = saveTreesToArchive ? openArchiveWriter() : null){
+            outOfBagAccumulator = saveTreesInParallel(initialForest, threads, archiveWriter);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close forest archive " + saveTreeLocation, e);
         }
 
-        final File[] treeFiles = folder.listFiles((file, s) -> s.endsWith(".tree"));
-        final List<String> treeFileNames = Arrays.stream(treeFiles).map(file -> file.getName()).collect(Collectors.toList());
+        return withOOBPredictions(new OfflineForest<>(new File(saveTreeLocation), treeResponseCombiner), outOfBagAccumulator);
+    }
+
+    // returns the OOB accumulator, if any; archiveWriter is closed by the caller even if training fails
+    private OutOfBagAccumulator<TO, FO> saveTreesInParallel(Optional<Forest<TO, FO>> initialForest, int threads, ForestArchive.Writer archiveWriter){
+        // First we need to see how many trees there currently are
+        final List<String> treeFileNames = archiveWriter != null ? archiveWriter.getTreeNames() : listTreeFileNames();
 
-        if(initialForest.isPresent() & treeFiles.length > 0){
+        if(initialForest.isPresent() & treeFileNames.size() > 0){
             throw new IllegalArgumentException("An initial forest is present but trees are also present; not clear how to integrate initial forest into new forest");
         }
 
+        final OutOfBagAccumulator<TO, FO> outOfBagAccumulator = createOutOfBagAccumulator();
+        if(outOfBagAccumulator != null && !treeFileNames.isEmpty()){
+            addSavedTrees(outOfBagAccumulator, archiveWriter);
+        }
+
         final AtomicInteger treeCount; // tracks how many trees are finished
         if(initialForest.isPresent()){
             int j=0;
             for(final Tree<TO> tree : initialForest.get().getTrees()){
                 final String filename = "tree-" + (j+1) + ".tree";
-                saveTree(tree, filename);
+                saveTree(tree, filename, archiveWriter);
+                if(outOfBagAccumulator != null){
+                    outOfBagAccumulator.addTree(tree);
+                }
                 j++;
             }
 
             treeCount = new AtomicInteger(j);
         } else{
-            treeCount = new AtomicInteger(treeFiles.length);
+            treeCount = new AtomicInteger(treeFileNames.size());
         }
 
-        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        final ForkJoinPool pool = new ForkJoinPool(threads);
 
         for(int j=treeCount.get(); j<ntree; j++){
             final String treeFileName = "tree-" + (j+1) + ".tree";
@@ -274,17 +340,17 @@ public class ForestTrainer<Y, TO, FO> {
             }
 
             final Random random = new Random(this.randomSeed + j);
-            final Runnable worker = new TreeSavedWorker(data, treeFileName, treeCount, random);
-            executorService.execute(worker);
+            final Runnable worker = new TreeSavedWorker(data, treeFileName, archiveWriter, outOfBagAccumulator, treeCount, random);
+            pool.execute(worker);
         }
 
-        executorService.shutdown();
+        pool.shutdown();
 
         int prevNumberTreesSet = -1;
         boolean running = true;
         while(running){
             try {
-                if (executorService.awaitTermination(1, TimeUnit.SECONDS)) running = false;
+                if (pool.awaitTermination(1, TimeUnit.SECONDS)) running = false;
             } catch (InterruptedException e) {
                 // do nothing and just continue; this won't happen and if it did we'd just update the counter quicker
             }
@@ -304,18 +370,90 @@ public class ForestTrainer<Y, TO, FO> {
             System.out.println("\nFinished");
         }
 
-        return new OfflineForest<>(folder, treeResponseCombiner);
+        return outOfBagAccumulator;
+    }
+
+    private OutOfBagAccumulator<TO, FO> createOutOfBagAccumulator(){
+        if(!accumulateOOBPredictions){
+            return null;
+        }
+
+        if(columnarData != null){
+            return new OutOfBagAccumulator<>(columnarData, treeResponseCombiner, ntree);
+        }
+        return new OutOfBagAccumulator<>(data, treeResponseCombiner, ntree);
+    }
 
+    private <F extends Forest<TO, FO>> F withOOBPredictions(F forest, OutOfBagAccumulator<TO, FO> outOfBagAccumulator){
+        if(outOfBagAccumulator != null){
+            forest.setOOBPredictions(outOfBagAccumulator.getPredictions());
+        }
+        return forest;
+    }
+
+    // for resuming training on disk; reads the trees that were saved before
+    private void addSavedTrees(OutOfBagAccumulator<TO, FO> outOfBagAccumulator, ForestArchive.Writer archiveWriter){
+        if(archiveWriter != null){
+            try(final ForestArchive forestArchive = ForestArchive.open(new File(saveTreeLocation))){
+                forestArchive.<TO>getTrees().forEach(outOfBagAccumulator::addTree);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read forest archive " + saveTreeLocation, e);
+            }
+        }
+        else{
+            new OfflineForest<>(new File(saveTreeLocation), treeResponseCombiner).getTrees()
+                    .forEach(outOfBagAccumulator::addTree);
+        }
     }
 
     private Tree<TO> trainTree(final Bootstrapper<Row<Y>> bootstrapper, Random random){
+        if(columnarData != null){
+            final int[] bootstrappedRows = Bootstrapper.bootstrapIndices(columnarData.getNumberOfRows(), random);
+            return treeTrainer.growTree(columnarData, bootstrappedRows, random);
+        }
+
         final List<Row<Y>> bootstrappedData = bootstrapper.bootstrap(random);
         return treeTrainer.growTree(bootstrappedData, random);
     }
 
-    private void saveTree(Tree<TO> tree, String filename){
+    private List<String> listTreeFileNames(){
+        final File folder = new File(saveTreeLocation);
+        if(!folder.exists()){
+            folder.mkdir();
+        }
+
+        if(!folder.isDirectory()){
+            throw new IllegalArgumentException("Tree directory must be a directory!");
+        }
+
+        final File[] treeFiles = folder.listFiles((file, s) -> s.endsWith(".tree"));
+        return Arrays.stream(treeFiles).map(file -> file.getName()).collect(Collectors.toList());
+    }
+
+    private ForestArchive.Writer openArchiveWriter(){
+        final File archiveFile = new File(saveTreeLocation);
+        if(archiveFile.isDirectory()){
+            throw new IllegalArgumentException("Forest archive location must be a file, not a directory!");
+        }
+
+        try {
+            return ForestArchive.openWriter(archiveFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open forest archive " + saveTreeLocation, e);
+        }
+    }
+
+    private void saveTree(Tree<TO> tree, String filename, ForestArchive.Writer archiveWriter){
         try {
-            DataUtils.saveObject(tree, saveTreeLocation + "/" + filename);
+            if(archiveWriter != null){
+                archiveWriter.append(filename, tree);
+            }
+            else if(!saveTreesWithJavaSerialization && TreeCodec.canEncode(tree)){
+                TreeCodec.saveTree(tree, new File(saveTreeLocation + "/" + filename));
+            }
+            else{
+                DataUtils.saveObject(tree, saveTreeLocation + "/" + filename);
+            }
         } catch (IOException e) {
             System.err.println("IOException while saving " + filename);
             e.printStackTrace();
@@ -330,12 +468,15 @@ public class ForestTrainer<Y, TO, FO> {
         private final Bootstrapper<Row<Y>> bootstrapper;
         private final int treeIndex;
         private final List<Tree<TO>> treeList;
+        private final OutOfBagAccumulator<TO, FO> outOfBagAccumulator; // may be null
         private final Random random;
 
-        TreeInMemoryWorker(final List<Row<Y>> data, final int treeIndex, final List<Tree<TO>> treeList, final Random random) {
+        TreeInMemoryWorker(final List<Row<Y>> data, final int treeIndex, final List<Tree<TO>> treeList,
+                           final OutOfBagAccumulator<TO, FO> outOfBagAccumulator, final Random random) {
             this.bootstrapper = new Bootstrapper<>(data);
             this.treeIndex = treeIndex;
             this.treeList = treeList;
+            this.outOfBagAccumulator = outOfBagAccumulator;
             this.random = random;
         }
 
@@ -343,6 +484,10 @@ public class ForestTrainer<Y, TO, FO> {
         public void run() {
             final Tree<TO> tree = trainTree(bootstrapper, random);
 
+            if(outOfBagAccumulator != null){
+                outOfBagAccumulator.addTree(tree);
+            }
+
             // should be okay as the list structure isn't changing
             treeList.set(treeIndex, tree);
 
@@ -354,12 +499,18 @@ public class ForestTrainer<Y, TO, FO> {
 
         private final Bootstrapper<Row<Y>> bootstrapper;
         private final String filename;
+        private final ForestArchive.Writer archiveWriter; // null if saving to a directory
+        private final OutOfBagAccumulator<TO, FO> outOfBagAccumulator; // may be null
         private final AtomicInteger treeCount;
         private final Random random;
 
-        public TreeSavedWorker(final List<Row<Y>> data, final String filename, final AtomicInteger treeCount, final Random random) {
+        public TreeSavedWorker(final List<Row<Y>> data, final String filename, final ForestArchive.Writer archiveWriter,
+                               final OutOfBagAccumulator<TO, FO> outOfBagAccumulator, final AtomicInteger treeCount,
+                               final Random random) {
             this.bootstrapper = new Bootstrapper<>(data);
             this.filename = filename;
+            this.archiveWriter = archiveWriter;
+            this.outOfBagAccumulator = outOfBagAccumulator;
             this.treeCount = treeCount;
             this.random = random;
         }
@@ -368,7 +519,11 @@ public class ForestTrainer<Y, TO, FO> {
         public void run() {
             final Tree<TO> tree = trainTree(bootstrapper, random);
 
-            saveTree(tree, filename);
+            saveTree(tree, filename, archiveWriter);
+
+            if(outOfBagAccumulator != null){
+                outOfBagAccumulator.addTree(tree);
+            }
 
             treeCount.incrementAndGet();
 
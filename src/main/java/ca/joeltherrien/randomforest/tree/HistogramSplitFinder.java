@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.covariates.numeric.NumericBinning;
+import lombok.Data;
+
+/**
+ * A SplitFinder that can also score splits on a NumericCovariate from a SplitHistogram, which takes time proportional
+ * to the number of bins rather than the number of rows. Used when TreeTrainer#numberOfHistogramBins is set.
+ *
+ */
+public interface HistogramSplitFinder<Y> extends SplitFinder<Y> {
+
+    SplitHistogram createHistogram(ColumnarNode<Y> node, int covariateIndex, NumericBinning binning);
+
+    /**
+     * Returns the histogram of the rows in parent that aren't in child, which is much cheaper than creating it from
+     * the rows. Used to find a node's larger child's histograms from the node's and its smaller child's.
+     *
+     * @param parent A histogram of a node.
+     * @param child A histogram of one of the node's children for the same covariate.
+     */
+    SplitHistogram subtractHistogram(SplitHistogram parent, SplitHistogram child);
+
+    /**
+     * Finds the best split of the form bin <= b.
+     *
+     * @param histogram A histogram created by this SplitFinder.
+     * @param candidateBins The values of b to try, in increasing order.
+     * @return The best bin and its score, or null if no split could be scored.
+     */
+    BinAndScore findBestBin(SplitHistogram histogram, int[] candidateBins);
+
+    @Data
+    class BinAndScore {
+        private final int bin;
+        private final double score;
+    }
+
+}
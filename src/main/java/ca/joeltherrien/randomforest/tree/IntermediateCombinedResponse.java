@@ -18,7 +18,8 @@ package ca.joeltherrien.randomforest.tree;
 
 /**
  * Similar to ResponseCombiner, but an IntermediateCombinedResponse represents the intermediate state of a single output in the process of being combined.
- * This class is only used in OfflineForests where we can only load one Tree in memory at a time.
+ * This class is used in OfflineForests where we can only load one Tree in memory at a time, and by OnlineForest when
+ * evaluating a List of rows so that each tree's output can be discarded as soon as it's combined.
  *
  */
 public interface IntermediateCombinedResponse<I, O> {
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import java.io.Serializable;
+
+/**
+ * Holds the outputs of all of a tree's terminal nodes in a more compact form than one object per terminal node;
+ * see Tree#withLeafStore and StoredTerminalNode.
+ *
+ * @param <Y> The output type of the tree.
+ */
+public interface LeafStore<Y> extends Serializable {
+
+    /**
+     * Returns the output of a terminal node. This is called for every evaluation of the tree, so implementations should
+     * avoid creating a new object on each call.
+     *
+     * @param leafIndex The position of the terminal node in the tree, in pre-order (the order of Node#getNodesOfType).
+     */
+    Y getLeaf(int leafIndex);
+
+    int getNumberOfLeaves();
+
+}
@@ -17,35 +17,165 @@
 package ca.joeltherrien.randomforest.tree;
 
 import ca.joeltherrien.randomforest.CovariateRow;
+import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.utils.ForestArchive;
 import ca.joeltherrien.randomforest.utils.IterableOfflineTree;
+import ca.joeltherrien.randomforest.utils.PrefetchingIterator;
+import ca.joeltherrien.randomforest.utils.TreeCodec;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-@AllArgsConstructor
-public class OfflineForest<O, FO> extends Forest<O, FO> {
+/**
+ * A forest whose trees are read from disk as they're needed, either from a directory of tree files or from a
+ * ForestArchive. A forest backed by an archive keeps the archive's file open until it's closed; copies made by
+ * withPrefetch and compile share the archive, so closing any of them closes it for all.
+ *
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class OfflineForest<O, FO> extends Forest<O, FO> implements Closeable {
 
+    public static final int DEFAULT_PREFETCH_TREES = 2;
+
+    // exactly one of treeFiles and forestArchive is set
     private final File[] treeFiles;
+    private final ForestArchive forestArchive;
     private final ForestResponseCombiner<O, FO> treeResponseCombiner;
 
-    public OfflineForest(File treeDirectoryPath, ForestResponseCombiner<O, FO> treeResponseCombiner){
+    /**
+     * If not null, each tree is turned into a CompiledTree before evaluating a List of rows on it.
+     *
+     */
+    private final List<Covariate> covariates;
+
+    /**
+     * How many trees are loaded ahead of the one being evaluated on a List of rows; see withPrefetch.
+     *
+     */
+    private final int prefetchTrees;
+
+    public OfflineForest(File[] treeFiles, ForestResponseCombiner<O, FO> treeResponseCombiner){
+        this(treeFiles, null, treeResponseCombiner, null, DEFAULT_PREFETCH_TREES);
+    }
+
+    /**
+     * @param forestArchive The archive to read trees from; it's closed when this forest is closed.
+     */
+    public OfflineForest(ForestArchive forestArchive, ForestResponseCombiner<O, FO> treeResponseCombiner){
+        this(null, forestArchive, treeResponseCombiner, null, DEFAULT_PREFETCH_TREES);
+    }
+
+    /**
+     * @param treePath Either a directory of tree files, or a ForestArchive file.
+     */
+    public OfflineForest(File treePath, ForestResponseCombiner<O, FO> treeResponseCombiner){
         this.treeResponseCombiner = treeResponseCombiner;
+        this.covariates = null;
+        this.prefetchTrees = DEFAULT_PREFETCH_TREES;
 
-        if(!treeDirectoryPath.isDirectory()){
-            throw new IllegalArgumentException("treeDirectoryPath must point to a directory!");
+        if(treePath.isDirectory()){
+            this.treeFiles = treePath.listFiles((file, s) -> s.endsWith(".tree"));
+            this.forestArchive = null;
+        }
+        else if(treePath.isFile()){
+            this.treeFiles = null;
+            try {
+                this.forestArchive = ForestArchive.open(treePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open forest archive " + treePath, e);
+            }
         }
+        else{
+            throw new IllegalArgumentException("treePath must point to a directory or a forest archive!");
+        }
+    }
 
-        this.treeFiles = treeDirectoryPath.listFiles((file, s) -> s.endsWith(".tree"));
+    /**
+     * Closes the forest's ForestArchive, if it has one. Trees that haven't been read yet can't be read afterwards.
+     *
+     */
+    @Override
+    public void close() throws IOException {
+        if(forestArchive != null){
+            forestArchive.close();
+        }
+    }
+
+    /**
+     * Returns a copy of this forest that loads up to prefetchTrees trees on a background thread while the current tree
+     * is being evaluated on a List of rows, so that reading and decoding trees overlaps with evaluating them. Up to
+     * prefetchTrees + 1 trees are held in memory at once; 0 loads each tree only when it's reached.
+     *
+     */
+    public OfflineForest<O, FO> withPrefetch(int prefetchTrees){
+        if(prefetchTrees < 0){
+            throw new IllegalArgumentException("prefetchTrees must be at least 0");
+        }
+        return new OfflineForest<>(treeFiles, forestArchive, treeResponseCombiner, covariates, prefetchTrees);
+    }
+
+    /**
+     * Returns a copy of this forest that compiles each tree (see CompiledTree) before evaluating a List of rows.
+     *
+     * @param covariates The covariates the forest was trained on.
+     */
+    public OfflineForest<O, FO> compile(List<Covariate> covariates){
+        return new OfflineForest<>(treeFiles, forestArchive, treeResponseCombiner, covariates, prefetchTrees);
+    }
+
+    private Function<CovariateRow, O> treeEvaluator(Tree<O> tree){
+        if(covariates == null){
+            return tree::evaluate;
+        }
+
+        final CompiledTree<O> compiledTree = CompiledTree.compile(tree, covariates);
+        return compiledTree::evaluate;
+    }
+
+    // loading and compiling are both done on the prefetching thread
+    private PrefetchingIterator<PreparedTree<O>> prepareTrees(){
+        return prepareTrees(null);
+    }
+
+    // if outOfBagIndex isn't null, each tree's out-of-bag rows are also found on the prefetching thread
+    private PrefetchingIterator<PreparedTree<O>> prepareTrees(OutOfBagIndex outOfBagIndex){
+        return new PrefetchingIterator<>(getNumberOfTrees(), treeId -> {
+            final Tree<O> tree = getTree(treeId);
+            final int[] outOfBagPositions = outOfBagIndex != null ? outOfBagIndex.findOutOfBagPositions(tree) : null;
+            return new PreparedTree<>(treeEvaluator(tree), outOfBagPositions);
+        }, prefetchTrees);
+    }
+
+    private static final class PreparedTree<O> {
+        private final Function<CovariateRow, O> evaluator;
+        private final int[] outOfBagPositions;
+
+        private PreparedTree(Function<CovariateRow, O> evaluator, int[] outOfBagPositions){
+            this.evaluator = evaluator;
+            this.outOfBagPositions = outOfBagPositions;
+        }
     }
 
     @Override
     public FO evaluate(CovariateRow row) {
-        final List<O> predictedOutputs = new ArrayList<>(treeFiles.length);
+        if(treeResponseCombiner.canStartIntermediateCombinedResponse()){
+            final IntermediateCombinedResponse<O, FO> intermediate = treeResponseCombiner.startIntermediateCombinedResponse(getNumberOfTrees());
+            for(final Tree<O> tree : getTrees()){
+                intermediate.processNewInput(tree.evaluate(row));
+            }
+            return intermediate.transformToOutput();
+        }
+
+        final List<O> predictedOutputs = new ArrayList<>(getNumberOfTrees());
         for(final Tree<O> tree : getTrees()){
             final O prediction = tree.evaluate(row);
             predictedOutputs.add(prediction);
@@ -56,7 +186,17 @@ public class OfflineForest<O, FO> extends Forest<O, FO> {
 
     @Override
     public FO evaluateOOB(CovariateRow row) {
-        final List<O> predictedOutputs = new ArrayList<>(treeFiles.length);
+        if(treeResponseCombiner.canStartIntermediateCombinedResponse()){
+            final IntermediateCombinedResponse<O, FO> intermediate = treeResponseCombiner.startIntermediateCombinedResponse(getNumberOfTrees());
+            for(final Tree<O> tree : getTrees()){
+                if(!tree.idInBootstrapSample(row.getId())){
+                    intermediate.processNewInput(tree.evaluate(row));
+                }
+            }
+            return intermediate.transformToOutput();
+        }
+
+        final List<O> predictedOutputs = new ArrayList<>(getNumberOfTrees());
         for(final Tree<O> tree : getTrees()){
             if(!tree.idInBootstrapSample(row.getId())){
                 final O prediction = tree.evaluate(row);
@@ -72,20 +212,22 @@ public class OfflineForest<O, FO> extends Forest<O, FO> {
     public List<FO> evaluate(List<? extends CovariateRow> rowList){
         final List<IntermediateCombinedResponse<O, FO>> intermediatePredictions =
                 IntStream.range(0, rowList.size())
-                .mapToObj(i -> treeResponseCombiner.startIntermediateCombinedResponse(treeFiles.length))
+                .mapToObj(i -> treeResponseCombiner.startIntermediateCombinedResponse(getNumberOfTrees()))
                 .collect(Collectors.toList());
 
-        final Iterator<Tree<O>> treeIterator = getTrees().iterator();
-        for(int treeId = 0; treeId < treeFiles.length; treeId++){
-            final Tree<O> currentTree = treeIterator.next();
+        try(final PrefetchingIterator<PreparedTree<O>> treeIterator = prepareTrees()){
+            while(treeIterator.hasNext()){
+                final PreparedTree<O> preparedTree = treeIterator.next();
+                final Function<CovariateRow, O> treeEvaluator = preparedTree.evaluator;
 
-            IntStream.range(0, rowList.size()).parallel().forEach(
-                    rowId -> {
-                        final CovariateRow row = rowList.get(rowId);
-                        final O prediction = currentTree.evaluate(row);
-                        intermediatePredictions.get(rowId).processNewInput(prediction);
-                    }
-            );
+                IntStream.range(0, rowList.size()).parallel().forEach(
+                        rowId -> {
+                            final CovariateRow row = rowList.get(rowId);
+                            final O prediction = treeEvaluator.apply(row);
+                            intermediatePredictions.get(rowId).processNewInput(prediction);
+                        }
+                );
+            }
         }
 
         return intermediatePredictions.stream().parallel()
@@ -97,20 +239,22 @@ public class OfflineForest<O, FO> extends Forest<O, FO> {
     public List<FO> evaluateSerial(List<? extends CovariateRow> rowList){
         final List<IntermediateCombinedResponse<O, FO>> intermediatePredictions =
                 IntStream.range(0, rowList.size())
-                        .mapToObj(i -> treeResponseCombiner.startIntermediateCombinedResponse(treeFiles.length))
+                        .mapToObj(i -> treeResponseCombiner.startIntermediateCombinedResponse(getNumberOfTrees()))
                         .collect(Collectors.toList());
 
-        final Iterator<Tree<O>> treeIterator = getTrees().iterator();
-        for(int treeId = 0; treeId < treeFiles.length; treeId++){
-            final Tree<O> currentTree = treeIterator.next();
+        try(final PrefetchingIterator<PreparedTree<O>> treeIterator = prepareTrees()){
+            while(treeIterator.hasNext()){
+                final PreparedTree<O> preparedTree = treeIterator.next();
+                final Function<CovariateRow, O> treeEvaluator = preparedTree.evaluator;
 
-            IntStream.range(0, rowList.size()).sequential().forEach(
-                    rowId -> {
-                        final CovariateRow row = rowList.get(rowId);
-                        final O prediction = currentTree.evaluate(row);
-                        intermediatePredictions.get(rowId).processNewInput(prediction);
-                    }
-            );
+                IntStream.range(0, rowList.size()).sequential().forEach(
+                        rowId -> {
+                            final CovariateRow row = rowList.get(rowId);
+                            final O prediction = treeEvaluator.apply(row);
+                            intermediatePredictions.get(rowId).processNewInput(prediction);
+                        }
+                );
+            }
         }
 
         return intermediatePredictions.stream().sequential()
@@ -123,23 +267,23 @@ public class OfflineForest<O, FO> extends Forest<O, FO> {
     public List<FO> evaluateOOB(List<? extends CovariateRow> rowList){
         final List<IntermediateCombinedResponse<O, FO>> intermediatePredictions =
                 IntStream.range(0, rowList.size())
-                        .mapToObj(i -> treeResponseCombiner.startIntermediateCombinedResponse(treeFiles.length))
+                        .mapToObj(i -> treeResponseCombiner.startIntermediateCombinedResponse(getNumberOfTrees()))
                         .collect(Collectors.toList());
 
-        final Iterator<Tree<O>> treeIterator = getTrees().iterator();
-        for(int treeId = 0; treeId < treeFiles.length; treeId++){
-            final Tree<O> currentTree = treeIterator.next();
+        try(final PrefetchingIterator<PreparedTree<O>> treeIterator = prepareTrees(new OutOfBagIndex(rowList))){
+            while(treeIterator.hasNext()){
+                final PreparedTree<O> preparedTree = treeIterator.next();
+                final Function<CovariateRow, O> treeEvaluator = preparedTree.evaluator;
 
-            IntStream.range(0, rowList.size()).parallel().forEach(
-                    rowId -> {
-                        final CovariateRow row = rowList.get(rowId);
-                        if(!currentTree.idInBootstrapSample(row.getId())){
-                            final O prediction = currentTree.evaluate(row);
+                // rows in the bootstrap sample are skipped; when we get the final output it will get scaled for the smaller N
+                IntStream.of(preparedTree.outOfBagPositions).parallel().forEach(
+                        rowId -> {
+                            final CovariateRow row = rowList.get(rowId);
+                            final O prediction = treeEvaluator.apply(row);
                             intermediatePredictions.get(rowId).processNewInput(prediction);
                         }
-                        // else do nothing; when we get the final output it will get scaled for the smaller N
-                    }
-            );
+                );
+            }
         }
 
         return intermediatePredictions.stream().parallel()
@@ -151,23 +295,23 @@ public class OfflineForest<O, FO> extends Forest<O, FO> {
     public List<FO> evaluateSerialOOB(List<? extends CovariateRow> rowList){
         final List<IntermediateCombinedResponse<O, FO>> intermediatePredictions =
                 IntStream.range(0, rowList.size())
-                        .mapToObj(i -> treeResponseCombiner.startIntermediateCombinedResponse(treeFiles.length))
+                        .mapToObj(i -> treeResponseCombiner.startIntermediateCombinedResponse(getNumberOfTrees()))
                         .collect(Collectors.toList());
 
-        final Iterator<Tree<O>> treeIterator = getTrees().iterator();
-        for(int treeId = 0; treeId < treeFiles.length; treeId++){
-            final Tree<O> currentTree = treeIterator.next();
+        try(final PrefetchingIterator<PreparedTree<O>> treeIterator = prepareTrees(new OutOfBagIndex(rowList))){
+            while(treeIterator.hasNext()){
+                final PreparedTree<O> preparedTree = treeIterator.next();
+                final Function<CovariateRow, O> treeEvaluator = preparedTree.evaluator;
 
-            IntStream.range(0, rowList.size()).sequential().forEach(
-                    rowId -> {
-                        final CovariateRow row = rowList.get(rowId);
-                        if(!currentTree.idInBootstrapSample(row.getId())){
-                            final O prediction = currentTree.evaluate(row);
+                // rows in the bootstrap sample are skipped; when we get the final output it will get scaled for the smaller N
+                IntStream.of(preparedTree.outOfBagPositions).sequential().forEach(
+                        rowId -> {
+                            final CovariateRow row = rowList.get(rowId);
+                            final O prediction = treeEvaluator.apply(row);
                             intermediatePredictions.get(rowId).processNewInput(prediction);
                         }
-                        // else do nothing; when we get the final output it will get scaled for the smaller N
-                    }
-            );
+                );
+            }
         }
 
         return intermediatePredictions.stream().sequential()
@@ -177,22 +321,43 @@ public class OfflineForest<O, FO> extends Forest<O, FO> {
 
     @Override
     public Iterable<Tree<O>> getTrees() {
+        if(forestArchive != null){
+            return forestArchive.getTrees();
+        }
         return new IterableOfflineTree<>(treeFiles);
     }
 
     @Override
     public int getNumberOfTrees() {
-        return treeFiles.length;
+        return forestArchive != null ? forestArchive.getNumberOfTrees() : treeFiles.length;
+    }
+
+    /**
+     * Loads a single tree; with a ForestArchive only that tree is read.
+     *
+     */
+    public Tree<O> getTree(int index){
+        if(forestArchive != null){
+            return forestArchive.getTree(index);
+        }
+
+        try {
+            return TreeCodec.loadTree(treeFiles[index]);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Failed to load tree for " + treeFiles[index].toString(), e);
+        }
     }
 
     public OnlineForest<O, FO> createOnlineCopy(){
         final List<Tree<O>> allTrees = new ArrayList<>(getNumberOfTrees());
         getTrees().forEach(allTrees::add);
 
-        return OnlineForest.<O, FO>builder()
+        final OnlineForest<O, FO> onlineForest = OnlineForest.<O, FO>builder()
                 .trees(allTrees)
                 .treeResponseCombiner(treeResponseCombiner)
                 .build();
+
+        return covariates == null ? onlineForest : onlineForest.compile(covariates);
     }
 }
 
@@ -17,21 +17,78 @@
 package ca.joeltherrien.randomforest.tree;
 
 import ca.joeltherrien.randomforest.CovariateRow;
+import ca.joeltherrien.randomforest.covariates.Covariate;
 import lombok.Builder;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Builder
 public class OnlineForest<O, FO> extends Forest<O, FO> { // O = output of trees, FO = forest output. In practice O == FO, even in competing risk & survival settings
 
+    public static final int DEFAULT_ROW_BLOCK_SIZE = 256;
+    public static final int DEFAULT_TREE_BLOCK_SIZE = 32;
+
     private final List<Tree<O>> trees;
     private final ResponseCombiner<O, FO> treeResponseCombiner;
 
+    /**
+     * If present, the trees in CompiledTree form; these are used instead of trees for evaluation.
+     *
+     */
+    private final List<CompiledTree<O>> compiledTrees;
+
+    /**
+     * Block sizes for evaluating a List of rows; see evaluateBlocked.
+     *
+     */
+    @Builder.Default
+    private final int rowBlockSize = DEFAULT_ROW_BLOCK_SIZE;
+    @Builder.Default
+    private final int treeBlockSize = DEFAULT_TREE_BLOCK_SIZE;
+
+    /**
+     * Returns a copy of this forest that evaluates rows with CompiledTrees.
+     *
+     * @param covariates The covariates the forest was trained on.
+     */
+    public OnlineForest<O, FO> compile(List<Covariate> covariates){
+        return OnlineForest.<O, FO>builder()
+                .trees(trees)
+                .treeResponseCombiner(treeResponseCombiner)
+                .compiledTrees(trees.stream()
+                        .map(tree -> CompiledTree.compile(tree, covariates))
+                        .collect(Collectors.toList()))
+                .rowBlockSize(rowBlockSize)
+                .treeBlockSize(treeBlockSize)
+                .build();
+    }
+
+    /**
+     * If the combiner supports it, each tree's output is folded into an IntermediateCombinedResponse as soon as it's
+     * produced, instead of collecting all of them and then combining.
+     *
+     */
     @Override
     public FO evaluate(CovariateRow row){
 
+        if(canCombineIncrementally()){
+            return evaluateIncrementally(row, false);
+        }
+
+        if(compiledTrees != null){
+            return treeResponseCombiner.combine(
+                    compiledTrees.stream()
+                    .map(tree -> tree.evaluate(row))
+                    .collect(Collectors.toList())
+            );
+        }
+
         return treeResponseCombiner.combine(
                 trees.stream()
                 .map(node -> node.evaluate(row))
@@ -43,6 +100,19 @@ public class OnlineForest<O, FO> extends Forest<O, FO> { // O = output of trees,
     @Override
     public FO evaluateOOB(CovariateRow row){
 
+        if(canCombineIncrementally()){
+            return evaluateIncrementally(row, true);
+        }
+
+        if(compiledTrees != null){
+            return treeResponseCombiner.combine(
+                    compiledTrees.stream()
+                    .filter(tree -> !tree.idInBootstrapSample(row.getId()))
+                    .map(tree -> tree.evaluate(row))
+                    .collect(Collectors.toList())
+            );
+        }
+
         return treeResponseCombiner.combine(
           trees.stream()
           .filter(tree -> !tree.idInBootstrapSample(row.getId()))
@@ -52,6 +122,141 @@ public class OnlineForest<O, FO> extends Forest<O, FO> { // O = output of trees,
 
     }
 
+    private FO evaluateIncrementally(CovariateRow row, boolean oob){
+        final IntermediateCombinedResponse<O, FO> intermediate = ((ForestResponseCombiner<O, FO>) treeResponseCombiner)
+                .startIntermediateCombinedResponse(getNumberOfTrees());
+
+        for(int treeId = 0; treeId < getNumberOfTrees(); treeId++){
+            if(oob && trees.get(treeId).idInBootstrapSample(row.getId())){
+                continue; // the final output gets scaled for the smaller N
+            }
+            intermediate.processNewInput(evaluateTree(treeId, row));
+        }
+
+        return intermediate.transformToOutput();
+    }
+
+    @Override
+    public List<FO> evaluate(List<? extends CovariateRow> rowList){
+        if(!canCombineIncrementally()){
+            return super.evaluate(rowList);
+        }
+        return evaluateBlocked(rowList, false, true);
+    }
+
+    @Override
+    public List<FO> evaluateSerial(List<? extends CovariateRow> rowList){
+        if(!canCombineIncrementally()){
+            return super.evaluateSerial(rowList);
+        }
+        return evaluateBlocked(rowList, false, false);
+    }
+
+    @Override
+    public List<FO> evaluateOOB(List<? extends CovariateRow> rowList){
+        if(!canCombineIncrementally()){
+            return super.evaluateOOB(rowList);
+        }
+        return evaluateBlocked(rowList, true, true);
+    }
+
+    @Override
+    public List<FO> evaluateSerialOOB(List<? extends CovariateRow> rowList){
+        if(!canCombineIncrementally()){
+            return super.evaluateSerialOOB(rowList);
+        }
+        return evaluateBlocked(rowList, true, false);
+    }
+
+    private boolean canCombineIncrementally(){
+        return treeResponseCombiner instanceof ForestResponseCombiner &&
+                ((ForestResponseCombiner<O, FO>) treeResponseCombiner).canStartIntermediateCombinedResponse();
+    }
+
+    /**
+     * Evaluates the rows in blocks of rowBlockSize rows, and each block against the trees in blocks of treeBlockSize
+     * trees, folding each tree's output into an IntermediateCombinedResponse per row (as OfflineForest does) instead
+     * of collecting a List of all the trees' outputs for each row. Only the intermediates for the blocks being worked
+     * on exist at once, and a block of rows is evaluated on a block of trees while both are still in cache.
+     *
+     * For OOB each tree is only evaluated on its out-of-bag rows, found beforehand with an OutOfBagIndex; this takes
+     * one bit per row and tree.
+     *
+     * Blocks of rows are run in parallel if parallel is true.
+     *
+     * @throws IllegalArgumentException if rowBlockSize or treeBlockSize is less than 1
+     */
+    private List<FO> evaluateBlocked(List<? extends CovariateRow> rowList, boolean oob, boolean parallel){
+        if(rowBlockSize < 1){
+            throw new IllegalArgumentException("rowBlockSize must be at least 1");
+        }
+        if(treeBlockSize < 1){
+            throw new IllegalArgumentException("treeBlockSize must be at least 1");
+        }
+
+        final ForestResponseCombiner<O, FO> forestResponseCombiner = (ForestResponseCombiner<O, FO>) treeResponseCombiner;
+        final int numberOfRows = rowList.size();
+        final int numberOfTrees = getNumberOfTrees();
+        final int numberOfRowBlocks = (numberOfRows + rowBlockSize - 1) / rowBlockSize;
+        final Object[] outputs = new Object[numberOfRows];
+
+        // for OOB, each tree's out-of-bag rows are found once up front so that no row is searched for
+        final BitSet[] outOfBagRows = oob ? findOutOfBagRows(rowList, parallel) : null;
+
+        final IntStream rowBlocks = IntStream.range(0, numberOfRowBlocks);
+        (parallel ? rowBlocks.parallel() : rowBlocks).forEach(rowBlock -> {
+            final int rowStart = rowBlock * rowBlockSize;
+            final int rowEnd = Math.min(rowStart + rowBlockSize, numberOfRows);
+
+            final List<IntermediateCombinedResponse<O, FO>> intermediates = new ArrayList<>(rowEnd - rowStart);
+            for(int rowId = rowStart; rowId < rowEnd; rowId++){
+                intermediates.add(forestResponseCombiner.startIntermediateCombinedResponse(numberOfTrees));
+            }
+
+            for(int treeStart = 0; treeStart < numberOfTrees; treeStart += treeBlockSize){
+                final int treeEnd = Math.min(treeStart + treeBlockSize, numberOfTrees);
+
+                for(int treeId = treeStart; treeId < treeEnd; treeId++){
+                    if(oob){
+                        // rows in the bootstrap sample are skipped; the final output gets scaled for the smaller N
+                        final BitSet treeOutOfBagRows = outOfBagRows[treeId];
+                        for(int rowId = treeOutOfBagRows.nextSetBit(rowStart); rowId >= 0 && rowId < rowEnd;
+                            rowId = treeOutOfBagRows.nextSetBit(rowId + 1)){
+                            intermediates.get(rowId - rowStart).processNewInput(evaluateTree(treeId, rowList.get(rowId)));
+                        }
+                    }
+                    else{
+                        for(int rowId = rowStart; rowId < rowEnd; rowId++){
+                            intermediates.get(rowId - rowStart).processNewInput(evaluateTree(treeId, rowList.get(rowId)));
+                        }
+                    }
+                }
+            }
+
+            for(int rowId = rowStart; rowId < rowEnd; rowId++){
+                outputs[rowId] = intermediates.get(rowId - rowStart).transformToOutput();
+            }
+        });
+
+        return Arrays.asList((FO[]) outputs);
+    }
+
+    // one bit per row and tree
+    private BitSet[] findOutOfBagRows(List<? extends CovariateRow> rowList, boolean parallel){
+        final OutOfBagIndex outOfBagIndex = new OutOfBagIndex(rowList);
+        final BitSet[] outOfBagRows = new BitSet[getNumberOfTrees()];
+
+        final IntStream treeIds = IntStream.range(0, getNumberOfTrees());
+        (parallel ? treeIds.parallel() : treeIds)
+                .forEach(treeId -> outOfBagRows[treeId] = outOfBagIndex.findOutOfBagRows(trees.get(treeId)));
+
+        return outOfBagRows;
+    }
+
+    private O evaluateTree(int treeId, CovariateRow row){
+        return compiledTrees != null ? compiledTrees.get(treeId).evaluate(row) : trees.get(treeId).evaluate(row);
+    }
+
     @Override
     public List<Tree<O>> getTrees(){
         return Collections.unmodifiableList(trees);
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.ColumnarDataset;
+import ca.joeltherrien.randomforest.CovariateRow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Keeps an IntermediateCombinedResponse per training row, and folds in each tree's predictions on its out-of-bag rows
+ * as soon as the tree is grown, so that the OOB predictions don't need a second pass over the forest afterwards.
+ *
+ * When training on a ColumnarDataset its rows are referred to by their position in it, and each tree is compiled (see
+ * CompiledTree) to evaluate them from the primitive columns instead of creating a Covariate.Value per cell.
+ *
+ * addTree may be called from several threads at once.
+ *
+ */
+final class OutOfBagAccumulator<O, FO> {
+
+    private final List<? extends CovariateRow> rows; // null if columnarData is used
+    private final ColumnarDataset<?> columnarData; // may be null
+    private final OutOfBagIndex outOfBagIndex;
+    private final List<IntermediateCombinedResponse<O, FO>> intermediates;
+
+    OutOfBagAccumulator(List<? extends CovariateRow> rows, ForestResponseCombiner<O, FO> combiner, int ntree){
+        this(rows, null, new OutOfBagIndex(rows), rows.size(), combiner, ntree);
+    }
+
+    OutOfBagAccumulator(ColumnarDataset<?> columnarData, ForestResponseCombiner<O, FO> combiner, int ntree){
+        this(null, columnarData,
+                new OutOfBagIndex(IntStream.range(0, columnarData.getNumberOfRows()).map(columnarData::getId).toArray()),
+                columnarData.getNumberOfRows(), combiner, ntree);
+    }
+
+    private OutOfBagAccumulator(List<? extends CovariateRow> rows, ColumnarDataset<?> columnarData, OutOfBagIndex outOfBagIndex,
+                                int numberOfRows, ForestResponseCombiner<O, FO> combiner, int ntree){
+        if(!combiner.canStartIntermediateCombinedResponse()){
+            throw new IllegalArgumentException("OOB predictions can't be accumulated while training with a combiner that can't start an IntermediateCombinedResponse");
+        }
+
+        this.rows = rows;
+        this.columnarData = columnarData;
+        this.outOfBagIndex = outOfBagIndex;
+        this.intermediates = new ArrayList<>(numberOfRows);
+        for(int i=0; i<numberOfRows; i++){
+            intermediates.add(combiner.startIntermediateCombinedResponse(ntree));
+        }
+    }
+
+    void addTree(Tree<O> tree){
+        final CompiledTree<O> compiledTree = columnarData != null ? CompiledTree.compile(tree, columnarData.getCovariates()) : null;
+
+        for(final int rowId : outOfBagIndex.findOutOfBagPositions(tree)){
+            final O prediction = compiledTree != null ?
+                    compiledTree.evaluate(columnarData, rowId) : tree.evaluate(rows.get(rowId));
+
+            final IntermediateCombinedResponse<O, FO> intermediate = intermediates.get(rowId);
+            synchronized (intermediate){
+                intermediate.processNewInput(prediction);
+            }
+        }
+    }
+
+    /**
+     * Only call once all trees have been added.
+     *
+     */
+    List<FO> getPredictions(){
+        final List<FO> predictions = new ArrayList<>(intermediates.size());
+        for(final IntermediateCombinedResponse<O, FO> intermediate : intermediates){
+            predictions.add(intermediate.transformToOutput());
+        }
+        return predictions;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.CovariateRow;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Finds which rows of a List are out-of-bag for a tree, without searching the tree's bootstrap sample for each row.
+ * The rows' ids are sorted once; each tree's (already sorted) bootstrap ids are then merged against them, which costs
+ * O(n + b) per tree instead of O(n log(b)).
+ *
+ */
+public final class OutOfBagIndex {
+
+    private final int numberOfRows;
+    private final int[] sortedIds;
+    private final int[] positions; // positions[k] is the position in the List of the row with id sortedIds[k]
+
+    public OutOfBagIndex(List<? extends CovariateRow> rowList){
+        this(rowList.stream().mapToInt(CovariateRow::getId).toArray());
+    }
+
+    /**
+     * @param ids The id of the row at each position.
+     */
+    public OutOfBagIndex(int[] ids){
+        this.numberOfRows = ids.length;
+        this.positions = IntStream.range(0, numberOfRows)
+                .boxed()
+                .sorted(Comparator.comparingInt(position -> ids[position]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        this.sortedIds = new int[numberOfRows];
+        for(int k=0; k<numberOfRows; k++){
+            sortedIds[k] = ids[positions[k]];
+        }
+    }
+
+    /**
+     * @return A BitSet with a bit set for the position of every row not in the tree's bootstrap sample.
+     */
+    public BitSet findOutOfBagRows(Tree<?> tree){
+        final int[] bootstrapRowIds = tree.getBootstrapRowIds(); // sorted
+        final BitSet outOfBagRows = new BitSet(numberOfRows);
+
+        int j = 0;
+        for(int k=0; k<numberOfRows; k++){
+            final int id = sortedIds[k];
+            while(j < bootstrapRowIds.length && bootstrapRowIds[j] < id){
+                j++;
+            }
+
+            if(j == bootstrapRowIds.length || bootstrapRowIds[j] != id){
+                outOfBagRows.set(positions[k]);
+            }
+        }
+
+        return outOfBagRows;
+    }
+
+    /**
+     * Same as findOutOfBagRows, but as an ascending array of positions.
+     *
+     */
+    public int[] findOutOfBagPositions(Tree<?> tree){
+        return findOutOfBagRows(tree).stream().toArray();
+    }
+
+}
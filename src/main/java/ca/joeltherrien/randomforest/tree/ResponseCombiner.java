@@ -23,4 +23,13 @@ public interface ResponseCombiner<I, O> extends Serializable {
 
     O combine(List<I> responses);
 
+    /**
+     * Called by TreeTrainer on every tree it grows with this as its combiner. Implementations may return an equivalent
+     * tree that stores its terminal nodes' outputs more compactly (see Tree#withLeafStore).
+     *
+     */
+    default Tree<O> compactTree(Tree<O> tree){
+        return tree;
+    }
+
 }
@@ -16,6 +16,8 @@
 
 package ca.joeltherrien.randomforest.tree;
 
+import ca.joeltherrien.randomforest.utils.SingletonIterator;
+
 import java.io.Serializable;
 import java.util.Iterator;
 
@@ -31,4 +33,34 @@ public interface SplitFinder<Y> extends Serializable {
 
     SplitAndScore<Y, ?> findBestSplit(Iterator<Split<Y, ?>> splitIterator);
 
+    /**
+     * Columnar equivalent of findBestSplit, used when training on a ColumnarDataset. The default implementation
+     * converts each candidate into a Split of Row views and scores it on its own, which works but is slow; SplitFinders
+     * should override this to work on the columns directly.
+     *
+     * @param node The node being split
+     * @param splitIterator The candidate splits; see ColumnarSplit#continues for how consecutive splits may relate.
+     * @return The best split and its score, or null if no split could be scored.
+     */
+    default ColumnarSplitAndScore<?> findBestSplit(ColumnarNode<Y> node, Iterator<ColumnarSplit<?>> splitIterator){
+        ColumnarSplitAndScore<?> bestSplitAndScore = null;
+
+        while(splitIterator.hasNext()){
+            final ColumnarSplit<?> candidateSplit = splitIterator.next();
+
+            if(candidateSplit.getLeftSize() == 0 || candidateSplit.getRightSize() == 0){
+                continue;
+            }
+
+            final Split<Y, ?> split = candidateSplit.toSplit(node.getData());
+            final SplitAndScore<Y, ?> splitAndScore = findBestSplit(new SingletonIterator<>(split));
+
+            if(splitAndScore != null && (bestSplitAndScore == null || splitAndScore.getScore() > bestSplitAndScore.getScore())){
+                bestSplitAndScore = new ColumnarSplitAndScore<>(candidateSplit, splitAndScore.getScore());
+            }
+        }
+
+        return bestSplitAndScore;
+    }
+
 }
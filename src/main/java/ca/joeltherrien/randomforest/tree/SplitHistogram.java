@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+/**
+ * Response statistics for the rows of a node aggregated by the bins of a NumericCovariate (see NumericBinning).
+ * Rows that are NA for the covariate are left out. The statistics kept depend on the HistogramSplitFinder that
+ * created the histogram.
+ *
+ */
+public interface SplitHistogram {
+
+    int getNumberOfBins();
+
+    /**
+     * @return The number of rows (counting bootstrap copies) in the bin.
+     */
+    int getCount(int bin);
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.CovariateRow;
+import lombok.Getter;
+
+/**
+ * A TerminalNode whose output is kept in a LeafStore shared by all of its tree's terminal nodes; evaluate returns
+ * LeafStore#getLeaf.
+ *
+ */
+public class StoredTerminalNode<Y> extends TerminalNode<Y> {
+    private static final long serialVersionUID = 1L;
+
+    @Getter
+    private final LeafStore<Y> leafStore;
+    @Getter
+    private final int leafIndex;
+
+    public StoredTerminalNode(LeafStore<Y> leafStore, int leafIndex, int size){
+        super(null, size);
+        this.leafStore = leafStore;
+        this.leafIndex = leafIndex;
+    }
+
+    @Override
+    public Y evaluate(CovariateRow row){
+        return leafStore.getLeaf(leafIndex);
+    }
+
+    @Override
+    public Y getResponseValue(){
+        return leafStore.getLeaf(leafIndex);
+    }
+
+    @Override
+    public String toString(){
+        return "StoredTerminalNode(leafIndex=" + leafIndex + ", size=" + getSize() + ")";
+    }
+
+}
@@ -29,6 +29,7 @@ import java.util.List;
 public class TerminalNode<Y> implements Node<Y> {
     private static final long serialVersionUID = 1L;
 
+    @Getter
     private final Y responseValue;
 
     @Getter
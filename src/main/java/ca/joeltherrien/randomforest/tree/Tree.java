@@ -19,8 +19,10 @@ package ca.joeltherrien.randomforest.tree;
 import ca.joeltherrien.randomforest.CovariateRow;
 import lombok.Getter;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Function;
 
 public class Tree<Y> implements Node<Y> {
     private static final long serialVersionUID = 1L;
@@ -54,6 +56,42 @@ public class Tree<Y> implements Node<Y> {
         return Arrays.binarySearch(this.bootstrapRowIds, id) >= 0;
     }
 
+    /**
+     * Returns an equivalent tree whose terminal nodes are StoredTerminalNodes reading from a single LeafStore.
+     *
+     * @param leafStoreFactory Creates the LeafStore from the outputs of this tree's terminal nodes, in pre-order.
+     */
+    public Tree<Y> withLeafStore(Function<List<Y>, LeafStore<Y>> leafStoreFactory){
+        final List<TerminalNode> terminalNodes = rootNode.getNodesOfType(TerminalNode.class);
+        final List<Y> leaves = new ArrayList<>(terminalNodes.size());
+        for(final TerminalNode<Y> terminalNode : terminalNodes){
+            leaves.add(terminalNode.getResponseValue());
+        }
+
+        final LeafStore<Y> leafStore = leafStoreFactory.apply(leaves);
+        final Node<Y> newRootNode = replaceTerminalNodes(rootNode, leafStore, new int[1]);
+
+        return new Tree<>(newRootNode, bootstrapRowIds.clone());
+    }
+
+    // nextLeafIndex must be visited in the same order as getNodesOfType
+    private static <Y> Node<Y> replaceTerminalNodes(Node<Y> node, LeafStore<Y> leafStore, int[] nextLeafIndex){
+        if(node instanceof TerminalNode){
+            return new StoredTerminalNode<>(leafStore, nextLeafIndex[0]++, ((TerminalNode<Y>) node).getSize());
+        }
+
+        final SplitNode<Y> splitNode = (SplitNode<Y>) node;
+        final Node<Y> leftHand = replaceTerminalNodes(splitNode.getLeftHand(), leafStore, nextLeafIndex);
+        final Node<Y> rightHand = replaceTerminalNodes(splitNode.getRightHand(), leafStore, nextLeafIndex);
+
+        return SplitNode.<Y>builder()
+                .leftHand(leftHand)
+                .rightHand(rightHand)
+                .splitRule(splitNode.getSplitRule())
+                .probabilityNaLeftHand(splitNode.getProbabilityNaLeftHand())
+                .build();
+    }
+
     @Override
     public String toString(){
         return rootNode.toString();
@@ -16,6 +16,7 @@
 
 package ca.joeltherrien.randomforest.tree;
 
+import ca.joeltherrien.randomforest.ColumnarDataset;
 import ca.joeltherrien.randomforest.Row;
 import ca.joeltherrien.randomforest.VisibleForTesting;
 import ca.joeltherrien.randomforest.covariates.Covariate;
@@ -23,12 +24,16 @@ import ca.joeltherrien.randomforest.utils.SingletonIterator;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
+import lombok.Getter;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Builder
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter(AccessLevel.PACKAGE)
 public class TreeTrainer<Y, O> {
 
     private final ResponseCombiner<Y, O> responseCombiner;
@@ -49,14 +54,57 @@ public class TreeTrainer<Y, O> {
      */
     private final boolean checkNodePurity;
 
+    /**
+     * Only used when training on a ColumnarDataset. If true, the rows of each NumericCovariate are sorted once per tree
+     * and nodes pass the sorted order down to their children, instead of every node sorting its rows for every covariate
+     * it tries. This costs extra memory of about one int per bootstrapped row per NumericCovariate.
+     */
+    private final boolean presortNumericCovariates;
+
+    /**
+     * Only used when training on a ColumnarDataset with a HistogramSplitFinder. If greater than 0 (and at most
+     * NumericBinning.MAX_BINS), the values of each NumericCovariate are quantized into this many bins and splits are
+     * only considered between bins; each node then aggregates its rows into a histogram instead of sorting them.
+     * Covariates with no more unique values than bins produce the same splits as without histograms.
+     * presortNumericCovariates is ignored when this is set.
+     */
+    private final int numberOfHistogramBins;
+
+    /**
+     * If greater than 0, each covariate tried at a node draws its random numbers from its own Random, and nodes with at
+     * least this many rows score their covariates in parallel. Trees are the same regardless of which nodes were scored
+     * in parallel, but differ from those grown with this set to 0.
+     */
+    private final int parallelCovariateNodeSize;
+
+    /**
+     * If greater than 0, each child node draws its random numbers from its own Random, and the two children of a node
+     * with at least this many rows are grown as separate ForkJoinTasks. Trees are the same regardless of which subtrees
+     * were grown in parallel, but differ from those grown with this set to 0.
+     */
+    private final int parallelSubtreeNodeSize;
+
     private final List<Covariate> covariates;
 
     public Tree<O> growTree(List<Row<Y>> data, Random random){
         final Node<O> rootNode = growNode(data, 0, random);
-        return new Tree<>(rootNode, data.stream().mapToInt(Row::getId).toArray());
+        return responseCombiner.compactTree(new Tree<>(rootNode, data.stream().mapToInt(Row::getId).toArray()));
 
     }
 
+    /**
+     * Grow a tree on a ColumnarDataset. Given the same bootstrap sample and Random, this produces the same tree as
+     * growTree(List, Random) would on the equivalent List of Rows.
+     *
+     * @param data The training data. The covariates in the dataset must be the same as those in this TreeTrainer.
+     * @param bootstrapRows The rows (positions in data, not ids) to train on; rows may be repeated.
+     * @param random The source of randomness.
+     * @return A trained tree
+     */
+    public Tree<O> growTree(ColumnarDataset<Y> data, int[] bootstrapRows, Random random){
+        return responseCombiner.compactTree(new ColumnarTreeGrower<>(this, data).growTree(bootstrapRows, random));
+    }
+
     private Node<O> growNode(List<Row<Y>> data, int depth, Random random){
         // See https://kogalur.github.io/randomForestSRC/theory.html#section3.1 (near bottom)
         if(data.size() >= 2*nodeSize && depth < maxNodeDepth && !nodeIsPure(data)){
@@ -81,6 +129,10 @@ public class TreeTrainer<Y, O> {
             // Assign missing values to the split if necessary
             bestSplit = randomlyAssignNAs(data, bestSplit, random);
 
+            if(parallelSubtreeNodeSize > 0){
+                return growChildrenConcurrently(data.size(), bestSplit, depth, probabilityLeftHand, random);
+            }
+
             final Node<O> leftNode;
             final Node<O> rightNode;
 
@@ -112,7 +164,41 @@ public class TreeTrainer<Y, O> {
 
     }
 
-    private List<Covariate> selectCovariates(int mtry, Random random){
+    /**
+     * Used in place of growNode's recursion when parallelSubtreeNodeSize is set; see parallelSubtreeNodeSize.
+     *
+     */
+    private Node<O> growChildrenConcurrently(int size, Split<Y, ?> split, int depth, double probabilityLeftHand, Random random){
+        final Random leftRandom = new Random(random.nextLong());
+        final Random rightRandom = new Random(random.nextLong());
+
+        final ForkJoinTask<Node<O>> leftTask = ForkJoinTask.adapt(() -> growNode(split.leftHand, depth+1, leftRandom));
+        final ForkJoinTask<Node<O>> rightTask = ForkJoinTask.adapt(() -> growNode(split.rightHand, depth+1, rightRandom));
+
+        final boolean leftIsSmaller = split.leftHand.size() < split.rightHand.size();
+
+        if(size >= parallelSubtreeNodeSize){
+            // the larger hand is grown on this thread
+            if(leftIsSmaller){
+                ForkJoinTask.invokeAll(rightTask, leftTask);
+            }
+            else{
+                ForkJoinTask.invokeAll(leftTask, rightTask);
+            }
+        }
+        else if(leftIsSmaller){
+            leftTask.invoke();
+            rightTask.invoke();
+        }
+        else{
+            rightTask.invoke();
+            leftTask.invoke();
+        }
+
+        return new SplitNode<>(leftTask.join(), rightTask.join(), split.getSplitRule(), probabilityLeftHand);
+    }
+
+    List<Covariate> selectCovariates(int mtry, Random random){
         if(mtry >= covariates.size()){
             return covariates;
         }
@@ -129,6 +215,9 @@ public class TreeTrainer<Y, O> {
 
     @VisibleForTesting
     public Split<Y, ?> findBestSplitRule(List<Row<Y>> data, List<Covariate> covariatesToTry, Random random){
+        if(parallelCovariateNodeSize > 0){
+            return findBestSplitRuleConcurrently(data, covariatesToTry, random);
+        }
 
         SplitAndScore<Y, ?> bestSplitAndScore = null;
         final SplitFinder noGenericSplitFinder = splitFinder; // cause Java generics are sometimes too frustrating
@@ -180,6 +269,64 @@ public class TreeTrainer<Y, O> {
 
     }
 
+    /**
+     * Same as findBestSplitRule, except every covariate draws from its own Random (seeded from random in order) so
+     * that they can be scored independently; if there are at least parallelCovariateNodeSize rows they're scored in
+     * parallel. The best split is then chosen in order of covariatesToTry. See ColumnarTreeGrower, which does the same.
+     *
+     */
+    private Split<Y, ?> findBestSplitRuleConcurrently(List<Row<Y>> data, List<Covariate> covariatesToTry, Random random){
+        final int numberOfCovariates = covariatesToTry.size();
+
+        final long[] seeds = new long[numberOfCovariates];
+        for(int i=0; i<numberOfCovariates; i++){
+            seeds[i] = random.nextLong();
+        }
+
+        final SplitFinder noGenericSplitFinder = splitFinder;
+        final SplitAndScore<Y, ?>[] candidates = new SplitAndScore[numberOfCovariates];
+
+        IntStream stream = IntStream.range(0, numberOfCovariates);
+        if(data.size() >= parallelCovariateNodeSize){
+            stream = stream.parallel();
+        }
+
+        stream.forEach(i -> {
+            final Covariate covariate = covariatesToTry.get(i);
+            final Random covariateRandom = new Random(seeds[i]);
+
+            final Iterator<Split> iterator = covariate.generateSplitRuleUpdater(data, this.numberOfSplits, covariateRandom);
+            if(iterator == null){
+                return;
+            }
+
+            final SplitAndScore<Y, ?> candidate = noGenericSplitFinder.findBestSplit(iterator);
+
+            // Always penalizing gives the same choice as penalizing only the splits that may be the best, as the
+            // penalty can only lower a score.
+            if(candidate != null && covariate.haveNASplitPenalty()){
+                final Split<Y, ?> candidateSplitWithNAs = randomlyAssignNAs(data, candidate.getSplit(), covariateRandom);
+                final double newScore = splitFinder.findBestSplit(new SingletonIterator<>(candidateSplitWithNAs)).getScore();
+                candidate.setScore(Math.min(newScore, candidate.getScore()));
+            }
+
+            candidates[i] = candidate;
+        });
+
+        SplitAndScore<Y, ?> bestSplitAndScore = null;
+        for(final SplitAndScore<Y, ?> candidate : candidates){
+            if(candidate != null && (bestSplitAndScore == null || candidate.getScore() > bestSplitAndScore.getScore())){
+                bestSplitAndScore = candidate;
+            }
+        }
+
+        if(bestSplitAndScore == null){
+            return null;
+        }
+
+        return bestSplitAndScore.getSplit();
+    }
+
     private <V> Split<Y, V> randomlyAssignNAs(List<Row<Y>> data, Split<Y, V> existingSplit, Random random){
 
         // Now that we have the best split; we need to handle any NAs that were dropped off
@@ -25,7 +25,22 @@ import java.util.zip.GZIPOutputStream;
 
 public class DataUtils {
 
+    /**
+     * @param folder Either a directory of tree files, or a ForestArchive file.
+     */
     public static <O, FO> OnlineForest<O, FO> loadOnlineForest(File folder, ResponseCombiner<O, FO> treeResponseCombiner) throws IOException, ClassNotFoundException {
+        if(folder.isFile()){
+            try(final ForestArchive forestArchive = ForestArchive.open(folder)){
+                final List<Tree<O>> treeList = new ArrayList<>(forestArchive.getNumberOfTrees());
+                forestArchive.<O>getTrees().forEach(treeList::add);
+
+                return OnlineForest.<O, FO>builder()
+                        .trees(treeList)
+                        .treeResponseCombiner(treeResponseCombiner)
+                        .build();
+            }
+        }
+
         if(!folder.isDirectory()){
             throw new IllegalArgumentException("Tree directory must be a directory!");
         }
@@ -43,9 +58,7 @@ public class DataUtils {
         final List<Tree<O>> treeList = new ArrayList<>(treeFileList.size());
 
         for(final File treeFile : treeFileList){
-            final ObjectInputStream inputStream = new ObjectInputStream(new GZIPInputStream(new FileInputStream(treeFile)));
-
-            final Tree<O> tree = (Tree) inputStream.readObject();
+            final Tree<O> tree = TreeCodec.loadTree(treeFile);
 
             treeList.add(tree);
 
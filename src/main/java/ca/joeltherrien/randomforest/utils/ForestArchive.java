@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.utils;
+
+import ca.joeltherrien.randomforest.tree.Tree;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A whole forest in one file, as an alternative to a directory of tree files. The file is a header (MAGIC and the
+ * version), then one segment per tree holding the tree as written by TreeCodec, then a footer listing each segment's
+ * offset, length and name (e.g. tree-1.tree), and finally the footer's offset and FOOTER_MAGIC.
+ *
+ * Trees are only ever appended. Each append writes the new segment over the old footer and then writes a new footer,
+ * so the archive is complete after every append (but not during one).
+ *
+ * Trees are read lazily by memory mapping their segment, so they can be accessed in any order, and several JVMs
+ * reading the same archive share the operating system's page cache. A ForestArchive may be read from several threads
+ * at once.
+ *
+ */
+public final class ForestArchive implements Closeable {
+
+    public static final int MAGIC = 0x4C524641; // "LRFA"
+    public static final int FOOTER_MAGIC = 0x4C524649; // "LRFI"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+    private static final int TRAILER_LENGTH = Long.BYTES + Integer.BYTES;
+
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final List<String> names;
+
+    private final MappedByteBuffer[] segments; // lazily mapped
+
+    private ForestArchive(final FileChannel channel, final Index index){
+        this.channel = channel;
+        this.offsets = index.offsets.stream().mapToLong(Long::longValue).toArray();
+        this.lengths = index.lengths.stream().mapToInt(Integer::intValue).toArray();
+        this.names = Collections.unmodifiableList(index.names);
+        this.segments = new MappedByteBuffer[offsets.length];
+    }
+
+    public static ForestArchive open(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try{
+            return new ForestArchive(channel, readIndex(channel));
+        } catch(IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getNumberOfTrees(){
+        return offsets.length;
+    }
+
+    public List<String> getTreeNames(){
+        return names;
+    }
+
+    public <Y> Tree<Y> getTree(final int index){
+        MappedByteBuffer segment = segments[index];
+
+        if(segment == null){
+            // no harm if two threads do this at once
+            try {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, offsets[index], lengths[index]);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read tree " + names.get(index), e);
+            }
+            segments[index] = segment;
+        }
+
+        // duplicate so that each reader has its own position
+        return TreeCodec.readTree(segment.duplicate());
+    }
+
+    /**
+     * Iterates over the trees in the order they were appended, reading each one as it's reached.
+     *
+     */
+    public <Y> Iterable<Tree<Y>> getTrees(){
+        return () -> new Iterator<Tree<Y>>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < offsets.length;
+            }
+
+            @Override
+            public Tree<Y> next() {
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                return getTree(position++);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Opens an archive for appending trees, creating it if it doesn't exist.
+     *
+     */
+    public static Writer openWriter(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+        try{
+            final Index index;
+            if(channel.size() == 0){
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                writeFully(channel, header, 0);
+                index = new Index(HEADER_LENGTH);
+            }
+            else{
+                index = readIndex(channel);
+            }
+
+            return new Writer(channel, index);
+        } catch(IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes every tree in the directory (see DataUtils#loadOnlineForest for which files are used) into a new archive.
+     *
+     */
+    public static void createFromDirectory(final File directory, final File archiveFile) throws IOException, ClassNotFoundException {
+        if(!directory.isDirectory()){
+            throw new IllegalArgumentException("Tree directory must be a directory!");
+        }
+
+        final File[] treeFiles = directory.listFiles((file, s) -> s.endsWith(".tree"));
+        Arrays.sort(treeFiles, Comparator.comparing(File::getName));
+
+        try(final Writer writer = openWriter(archiveFile)){
+            for(final File treeFile : treeFiles){
+                writer.append(treeFile.getName(), TreeCodec.loadTree(treeFile));
+            }
+        }
+    }
+
+    public static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final Index index;
+
+        private Writer(final FileChannel channel, final Index index){
+            this.channel = channel;
+            this.index = index;
+        }
+
+        public synchronized List<String> getTreeNames(){
+            return new ArrayList<>(index.names);
+        }
+
+        /**
+         * Appends a tree; it must be one that TreeCodec can encode.
+         *
+         */
+        public synchronized void append(final String name, final Tree<?> tree) throws IOException {
+            final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            try(final DataOutputStream outputStream = new DataOutputStream(byteStream)){
+                TreeCodec.writeTree(tree, outputStream);
+            }
+            final byte[] segment = byteStream.toByteArray();
+
+            final long offset = index.end;
+            writeFully(channel, ByteBuffer.wrap(segment), offset);
+
+            index.offsets.add(offset);
+            index.lengths.add(segment.length);
+            index.names.add(name);
+            index.end = offset + segment.length;
+
+            writeFooter();
+        }
+
+        private void writeFooter() throws IOException {
+            final List<byte[]> nameBytes = new ArrayList<>(index.names.size());
+            int footerLength = Integer.BYTES + TRAILER_LENGTH;
+            for(final String name : index.names){
+                final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                nameBytes.add(bytes);
+                footerLength += Long.BYTES + 2 * Integer.BYTES + bytes.length;
+            }
+
+            final ByteBuffer footer = ByteBuffer.allocate(footerLength);
+            footer.putInt(index.names.size());
+            for(int i=0; i<index.names.size(); i++){
+                footer.putLong(index.offsets.get(i));
+                footer.putInt(index.lengths.get(i));
+                footer.putInt(nameBytes.get(i).length);
+                footer.put(nameBytes.get(i));
+            }
+            footer.putLong(index.end);
+            footer.putInt(FOOTER_MAGIC);
+            footer.flip();
+
+            writeFully(channel, footer, index.end);
+            channel.truncate(index.end + footerLength);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class Index {
+        final List<Long> offsets = new ArrayList<>();
+        final List<Integer> lengths = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        long end; // where the next segment (and then the footer) goes
+
+        Index(final long end){
+            this.end = end;
+        }
+    }
+
+    private static Index readIndex(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if(size < HEADER_LENGTH + TRAILER_LENGTH){
+            throw new IllegalArgumentException("File is too small to be a forest archive");
+        }
+
+        final ByteBuffer header = readFully(channel, 0, HEADER_LENGTH);
+        if(header.getInt() != MAGIC){
+            throw new IllegalArgumentException("Not a forest archive");
+        }
+        final int version = header.getInt();
+        if(version > VERSION){
+            throw new IllegalArgumentException("Forest archive was written in version " + version + " of the format, but only up to version " + VERSION + " is supported");
+        }
+
+        final ByteBuffer trailer = readFully(channel, size - TRAILER_LENGTH, TRAILER_LENGTH);
+        final long footerOffset = trailer.getLong();
+        if(trailer.getInt() != FOOTER_MAGIC){
+            throw new IllegalArgumentException("Forest archive is missing its footer; it may not have been completely written");
+        }
+
+        final ByteBuffer footer = readFully(channel, footerOffset, (int) (size - TRAILER_LENGTH - footerOffset));
+        final int numberOfTrees = footer.getInt();
+
+        final Index index = new Index(footerOffset);
+        for(int i=0; i<numberOfTrees; i++){
+            index.offsets.add(footer.getLong());
+            index.lengths.add(footer.getInt());
+            final byte[] nameBytes = new byte[footer.getInt()];
+            footer.get(nameBytes);
+            index.names.add(new String(nameBytes, StandardCharsets.UTF_8));
+        }
+
+        return index;
+    }
+
+    private static ByteBuffer readFully(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, position + buffer.position()) < 0){
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long currentPosition = position;
+        while(buffer.hasRemaining()){
+            currentPosition += channel.write(buffer, currentPosition);
+        }
+    }
+
+}
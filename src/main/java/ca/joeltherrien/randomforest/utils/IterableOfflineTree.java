@@ -20,11 +20,8 @@ import ca.joeltherrien.randomforest.tree.Tree;
 import lombok.RequiredArgsConstructor;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.Iterator;
-import java.util.zip.GZIPInputStream;
 
 @RequiredArgsConstructor
 public class IterableOfflineTree<Y> implements Iterable<Tree<Y>> {
@@ -53,9 +50,7 @@ public class IterableOfflineTree<Y> implements Iterable<Tree<Y>> {
 
 
             try {
-                final ObjectInputStream inputStream= new ObjectInputStream(new GZIPInputStream(new FileInputStream(treeFile)));
-                final Tree<Y> tree = (Tree) inputStream.readObject();
-                return tree;
+                return TreeCodec.loadTree(treeFile);
             } catch (IOException | ClassNotFoundException e) {
                 e.printStackTrace();
                 throw new RuntimeException("Failed to load tree for " + treeFile.toString());
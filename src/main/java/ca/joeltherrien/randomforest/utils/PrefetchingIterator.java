@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.utils;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Iterates over loader.apply(0), ..., loader.apply(size-1), with a background thread calling loader up to depth
+ * elements ahead of the consumer. This is used to load (and decode) the next trees of an OfflineForest while the
+ * current one is being evaluated.
+ *
+ * If depth is 0 elements are loaded on the calling thread when they're reached. Any exception thrown by loader is
+ * rethrown by next, and loader may not return null. The iterator should be closed if it's abandoned before the end, to
+ * stop the background thread. The thread is never interrupted (loader may be reading from an interruptible channel,
+ * which an interrupt would close); it stops once it has finished the element it's loading.
+ *
+ */
+public final class PrefetchingIterator<T> implements Iterator<T>, Closeable {
+
+    private final int size;
+    private final IntFunction<T> loader;
+    private final BlockingQueue<Object> queue; // null if depth is 0
+    private final Thread thread;
+
+    private volatile boolean cancelled = false;
+
+    private int position = 0;
+
+    public PrefetchingIterator(final int size, final IntFunction<T> loader, final int depth){
+        if(depth < 0){
+            throw new IllegalArgumentException("depth must be at least 0");
+        }
+
+        this.size = size;
+        this.loader = loader;
+
+        if(depth == 0 || size == 0){
+            this.queue = null;
+            this.thread = null;
+        }
+        else{
+            this.queue = new ArrayBlockingQueue<>(depth);
+            this.thread = new Thread(this::load, "tree-prefetch");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    private void load(){
+        try{
+            for(int i=0; i<size && !cancelled; i++){
+                Object element;
+                try{
+                    element = loadElement(i);
+                } catch(RuntimeException | Error e){
+                    element = new Failure(e);
+                }
+
+                // wait for room, but give up once closed
+                while(!queue.offer(element, 100, TimeUnit.MILLISECONDS)){
+                    if(cancelled){
+                        return;
+                    }
+                }
+
+                if(element instanceof Failure){
+                    return;
+                }
+            }
+        } catch(InterruptedException e){
+            // not expected, as close doesn't interrupt; just stop
+        }
+    }
+
+    private T loadElement(final int i){
+        final T element = loader.apply(i);
+        if(element == null){
+            throw new NullPointerException("loader returned null for element " + i);
+        }
+        return element;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < size;
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext()){
+            throw new NoSuchElementException();
+        }
+
+        if(queue == null){
+            return loadElement(position++);
+        }
+
+        final Object element;
+        try {
+            element = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the next element", e);
+        }
+
+        if(element instanceof Failure){
+            position = size;
+            final Throwable cause = ((Failure) element).cause;
+            if(cause instanceof Error){
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+
+        position++;
+        return (T) element;
+    }
+
+    @Override
+    public void close() {
+        if(thread != null){
+            cancelled = true;
+            queue.clear();
+        }
+    }
+
+    private static final class Failure {
+        private final Throwable cause;
+
+        private Failure(final Throwable cause){
+            this.cause = cause;
+        }
+    }
+
+}
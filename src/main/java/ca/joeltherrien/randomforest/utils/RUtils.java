@@ -16,7 +16,9 @@
 
 package ca.joeltherrien.randomforest.utils;
 
+import ca.joeltherrien.randomforest.ColumnarDataset;
 import ca.joeltherrien.randomforest.CovariateRow;
+import ca.joeltherrien.randomforest.ResponseColumn;
 import ca.joeltherrien.randomforest.Row;
 import ca.joeltherrien.randomforest.covariates.Covariate;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
@@ -109,6 +111,47 @@ public final class RUtils {
         return rowList;
     }
 
+    /**
+     * Same as importDataWithResponses, but the data is stored in a ColumnarDataset which uses much less memory.
+     *
+     */
+    public static <Y> ColumnarDataset<Y> importColumnarDataWithResponses(List<Y> responses, List<Covariate> covariates, List<String[]> rawCovariateData){
+        if(covariates.size() != rawCovariateData.size()){
+            throw new IllegalArgumentException("covariates size doesn't match number of columns in rawCovariateData; there must be a one-to-one relationship");
+        }
+
+        final int n = responses.size();
+        final int p = covariates.size();
+
+        for(int j=0; j<p; j++){
+            if(rawCovariateData.get(j).length != n){
+                final String covariateWithBadLength = covariates.get(j).getName();
+                throw new IllegalArgumentException(
+                        "Length of covariate " + covariateWithBadLength +
+                                "(" + rawCovariateData.get(j).length +
+                                ") does not match length of responses (" + n + ").");
+            }
+        }
+
+        final int[] ids = new int[n];
+        for(int i=0; i<n; i++){
+            ids[i] = i+1;
+        }
+
+        final ColumnarDataset<Y> dataset = new ColumnarDataset<>(covariates, ids, ResponseColumn.of(responses));
+
+        for(int j=0; j<p; j++){
+            final Covariate covariate = covariates.get(j);
+            final String[] rawColumn = rawCovariateData.get(j);
+
+            for(int i=0; i<n; i++){
+                dataset.setValue(i, covariate.createValue(rawColumn[i]));
+            }
+        }
+
+        return dataset;
+    }
+
     public static List<CovariateRow> importData(List<Covariate> covariates, List<String[]> rawCovariateData){
         if(covariates.size() != rawCovariateData.size()){
             throw new IllegalArgumentException("covariates size doesn't match number of columns in rawCovariateData; there must be a one-to-one relationship");
@@ -34,7 +34,9 @@ public final class RightContinuousStepFunction extends StepFunction {
 
     private static final long serialVersionUID = 1L;
 
-    private final double[] y;
+    private final double[] y; // null if stored in single precision
+    private final int yOffset; // the y value of point i is y[yOffset + i]; see ofRange
+    private final float[] singleY; // null unless stored in single precision
 
     /**
      * Represents the value that should be returned by evaluate if there are no points prior to the time the function is being evaluated at.
@@ -45,11 +47,61 @@ public final class RightContinuousStepFunction extends StepFunction {
     private final double defaultY;
 
     public RightContinuousStepFunction(double[] x, double[] y, double defaultY) {
+        this(x, y, 0, defaultY);
+    }
+
+    private RightContinuousStepFunction(double[] x, double[] y, int yOffset, double defaultY) {
         super(x);
         this.y = y;
+        this.yOffset = yOffset;
+        this.singleY = null;
         this.defaultY = defaultY;
     }
 
+    /**
+     * Creates a function whose y values are y[yOffset] up to y[yOffset + x.length - 1], without copying them, so that
+     * many functions can be backed by one large array. Neither array may be modified afterwards. When serialized the
+     * function only writes its own y values.
+     *
+     */
+    public static RightContinuousStepFunction ofRange(double[] x, double[] y, int yOffset, double defaultY){
+        if(yOffset < 0 || yOffset + x.length > y.length){
+            throw new IllegalArgumentException("y doesn't have x.length values starting at yOffset");
+        }
+        return new RightContinuousStepFunction(x, y, yOffset, defaultY);
+    }
+
+    private RightContinuousStepFunction(double[] x, float[] singleY, double defaultY) {
+        super(x);
+        this.y = null;
+        this.yOffset = 0;
+        this.singleY = singleY;
+        this.defaultY = defaultY;
+    }
+
+    /**
+     * Returns a copy of this function that stores its y values as floats, using about half the memory for them. The
+     * values are rounded to about 7 significant digits; x and defaultY are kept as they are (x is shared with this
+     * function).
+     *
+     */
+    public RightContinuousStepFunction toSinglePrecision(){
+        if(singleY != null){
+            return this;
+        }
+
+        final float[] newY = new float[x.length];
+        for(int i=0; i<x.length; i++){
+            newY[i] = (float) y[yOffset + i];
+        }
+
+        return new RightContinuousStepFunction(x, newY, defaultY);
+    }
+
+    public boolean isSinglePrecision(){
+        return singleY != null;
+    }
+
     /**
      * This isn't a formal constructor because of limitations with abstract classes.
      *
@@ -76,7 +128,15 @@ public final class RightContinuousStepFunction extends StepFunction {
     }
 
     public double[] getY(){
-        return y.clone();
+        if(singleY != null){
+            final double[] copy = new double[singleY.length];
+            for(int i=0; i<singleY.length; i++){
+                copy[i] = singleY[i];
+            }
+            return copy;
+        }
+
+        return Arrays.copyOfRange(y, yOffset, yOffset + x.length);
     }
 
     @Override
@@ -86,7 +146,7 @@ public final class RightContinuousStepFunction extends StepFunction {
             return defaultY;
         }
         else{
-            return y[index];
+            return evaluateByIndex(index);
         }
     }
 
@@ -97,7 +157,7 @@ public final class RightContinuousStepFunction extends StepFunction {
             return defaultY;
         }
         else{
-            return y[index];
+            return evaluateByIndex(index);
         }
     }
 
@@ -107,10 +167,18 @@ public final class RightContinuousStepFunction extends StepFunction {
             return defaultY;
         }
 
-        return y[i];
+        return singleY != null ? singleY[i] : y[yOffset + i];
     }
 
 
+    // a function created by ofRange is written with a copy of only its own y values
+    private Object writeReplace(){
+        if(y != null && (yOffset != 0 || y.length != x.length)){
+            return new RightContinuousStepFunction(x, getY(), defaultY);
+        }
+        return this;
+    }
+
     @Override
     public String toString(){
         final StringBuilder builder = new StringBuilder();
@@ -122,7 +190,7 @@ public final class RightContinuousStepFunction extends StepFunction {
             builder.append("x:");
             builder.append(x[i]);
             builder.append("\ty:");
-            builder.append(y[i]);
+            builder.append(evaluateByIndex(i));
             builder.append("\n");
         }
 
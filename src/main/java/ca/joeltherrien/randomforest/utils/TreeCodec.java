@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.utils;
+
+import ca.joeltherrien.randomforest.covariates.SplitRule;
+import ca.joeltherrien.randomforest.covariates.bool.BooleanSplitRule;
+import ca.joeltherrien.randomforest.covariates.factor.FactorSplitRule;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericSplitRule;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskFunctions;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskLeafStore;
+import ca.joeltherrien.randomforest.tree.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads and writes trees in a compact binary format, which is much faster to load than Java serialization and doesn't
+ * depend on the layout of our classes. loadTree also reads trees saved with Java serialization (see
+ * DataUtils#saveObject).
+ *
+ * The format (version 1) is a header of MAGIC and the version, followed by the bootstrap row ids, the terminal nodes
+ * and then the split nodes. Split nodes are numbered in pre-order and stored as parallel arrays like in CompiledTree;
+ * a child that is a terminal node is stored as ~leafSlot. Covariates are referred to by their index, and a factor
+ * split refers to its left hand levels by their position in a table of the tree's level names. Arrays are written as
+ * their length followed by their big-endian values.
+ *
+ * Only trees with Double or CompetingRiskFunctions outputs and numeric, factor or boolean splits can be written; see
+ * canEncode.
+ *
+ */
+public final class TreeCodec {
+
+    public static final int MAGIC = 0x4C524654; // "LRFT"
+    public static final int VERSION = 1;
+
+    private static final byte DOUBLE_LEAVES = 0;
+    private static final byte COMPETING_RISK_LEAVES = 1;
+
+    private static final byte NUMERIC_SPLIT = 0;
+    private static final byte FACTOR_SPLIT = 1;
+    private static final byte BOOLEAN_SPLIT = 2;
+
+    private TreeCodec(){}
+
+    public static boolean canEncode(final Tree<?> tree){
+        final Node rootNode = tree.getRootNode();
+
+        for(final Object splitNode : rootNode.getNodesOfType(SplitNode.class)){
+            final SplitRule splitRule = ((SplitNode) splitNode).getSplitRule();
+            if(!(splitRule instanceof NumericSplitRule || splitRule instanceof FactorSplitRule || splitRule instanceof BooleanSplitRule)){
+                return false;
+            }
+        }
+
+        final List<TerminalNode> terminalNodes = rootNode.getNodesOfType(TerminalNode.class);
+        final Object firstLeaf = terminalNodes.get(0).getResponseValue();
+        if(!(firstLeaf instanceof Double || firstLeaf instanceof CompetingRiskFunctions)){
+            return false;
+        }
+
+        // StoredTerminalNodes' outputs have to be recreated to be checked, but a store only holds one type anyway
+        for(final TerminalNode terminalNode : terminalNodes){
+            if(!(terminalNode instanceof StoredTerminalNode) && !firstLeaf.getClass().isInstance(terminalNode.getResponseValue())){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public static void saveTree(final Tree<?> tree, final File file) throws IOException {
+        try(final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+            writeTree(tree, outputStream);
+        }
+    }
+
+    /**
+     * Loads a tree saved with saveTree, or one saved with Java serialization in a GZIP stream.
+     *
+     */
+    public static <Y> Tree<Y> loadTree(final File file) throws IOException, ClassNotFoundException {
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+
+        // GZIPInputStream.GZIP_MAGIC in little-endian order
+        if(bytes.length >= 2 && bytes[0] == (byte) 0x1f && bytes[1] == (byte) 0x8b){
+            try(final ObjectInputStream inputStream = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes)))){
+                return (Tree<Y>) inputStream.readObject();
+            }
+        }
+
+        return readTree(ByteBuffer.wrap(bytes));
+    }
+
+    public static <Y> void writeTree(final Tree<Y> tree, final DataOutputStream outputStream) throws IOException {
+        if(!canEncode(tree)){
+            throw new IllegalArgumentException("TreeCodec doesn't support this tree's outputs or split rules; use Java serialization instead");
+        }
+
+        final Node<Y> rootNode = tree.getRootNode();
+        final List<TerminalNode> terminalNodes = rootNode.getNodesOfType(TerminalNode.class);
+        final Encoder<Y> encoder = new Encoder<>(rootNode.getNodesOfType(SplitNode.class).size(), terminalNodes.size());
+        final int root = encoder.addNode(rootNode);
+
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(VERSION);
+
+        writeInts(outputStream, tree.getBootstrapRowIds());
+
+        final Object firstLeaf = terminalNodes.get(0).getResponseValue();
+        if(firstLeaf instanceof Double){
+            outputStream.writeByte(DOUBLE_LEAVES);
+            final double[] values = new double[terminalNodes.size()];
+            for(int i=0; i<values.length; i++){
+                values[i] = (Double) encoder.leaves.get(i).getResponseValue();
+            }
+            writeDoubles(outputStream, values);
+        }
+        else{
+            outputStream.writeByte(COMPETING_RISK_LEAVES);
+            createCompetingRiskLeafStore(encoder.leaves, (CompetingRiskFunctions) firstLeaf).write(outputStream);
+        }
+        writeInts(outputStream, encoder.leafSizes);
+
+        outputStream.writeInt(root);
+        writeBytes(outputStream, encoder.splitTypes);
+        writeInts(outputStream, encoder.covariateIndices);
+        writeDoubles(outputStream, encoder.thresholds);
+        writeDoubles(outputStream, encoder.probabilityNaLeftHand);
+        writeInts(outputStream, encoder.leftChildren);
+        writeInts(outputStream, encoder.rightChildren);
+
+        outputStream.writeInt(encoder.levelNames.size());
+        for(final String levelName : encoder.levelNames){
+            final byte[] nameBytes = levelName.getBytes(StandardCharsets.UTF_8);
+            outputStream.writeInt(nameBytes.length);
+            outputStream.write(nameBytes);
+        }
+
+        final int[] factorLevelOffsets = new int[encoder.factorLevels.size()+1];
+        int totalFactorLevels = 0;
+        for(int i=0; i<encoder.factorLevels.size(); i++){
+            totalFactorLevels += encoder.factorLevels.get(i).length;
+            factorLevelOffsets[i+1] = totalFactorLevels;
+        }
+        final int[] factorLevels = new int[totalFactorLevels];
+        for(int i=0; i<encoder.factorLevels.size(); i++){
+            System.arraycopy(encoder.factorLevels.get(i), 0, factorLevels, factorLevelOffsets[i], encoder.factorLevels.get(i).length);
+        }
+        writeInts(outputStream, factorLevelOffsets);
+        writeInts(outputStream, factorLevels);
+    }
+
+    // Reuses the tree's CompetingRiskLeafStore if it already has one in the same order; otherwise creates one
+    private static CompetingRiskLeafStore createCompetingRiskLeafStore(final List<TerminalNode> leaves, final CompetingRiskFunctions firstLeaf){
+        if(leaves.get(0) instanceof StoredTerminalNode){
+            final LeafStore leafStore = ((StoredTerminalNode) leaves.get(0)).getLeafStore();
+            boolean sameOrder = leafStore instanceof CompetingRiskLeafStore && leafStore.getNumberOfLeaves() == leaves.size();
+
+            for(int i=0; sameOrder && i<leaves.size(); i++){
+                sameOrder = leaves.get(i) instanceof StoredTerminalNode
+                        && ((StoredTerminalNode) leaves.get(i)).getLeafStore() == leafStore
+                        && ((StoredTerminalNode) leaves.get(i)).getLeafIndex() == i;
+            }
+
+            if(sameOrder){
+                return (CompetingRiskLeafStore) leafStore;
+            }
+        }
+
+        final List<CompetingRiskFunctions> functions = new ArrayList<>(leaves.size());
+        for(final TerminalNode leaf : leaves){
+            functions.add((CompetingRiskFunctions) leaf.getResponseValue());
+        }
+
+        return new CompetingRiskLeafStore(functions, firstLeaf.getNumberOfEvents());
+    }
+
+    public static <Y> Tree<Y> readTree(final ByteBuffer buffer){
+        final int magic = buffer.getInt();
+        if(magic != MAGIC){
+            throw new IllegalArgumentException("Not a tree written by TreeCodec");
+        }
+
+        final int version = buffer.getInt();
+        if(version > VERSION){
+            throw new IllegalArgumentException("Tree was written in version " + version + " of the format, but only up to version " + VERSION + " is supported");
+        }
+
+        final int[] bootstrapRowIds = readInts(buffer);
+
+        final byte leafType = buffer.get();
+        final double[] doubleLeaves;
+        final CompetingRiskLeafStore competingRiskLeafStore;
+        if(leafType == DOUBLE_LEAVES){
+            doubleLeaves = readDoubles(buffer);
+            competingRiskLeafStore = null;
+        }
+        else if(leafType == COMPETING_RISK_LEAVES){
+            doubleLeaves = null;
+            competingRiskLeafStore = CompetingRiskLeafStore.read(buffer);
+        }
+        else{
+            throw new IllegalArgumentException("Unknown type of terminal nodes: " + leafType);
+        }
+        final int[] leafSizes = readInts(buffer);
+
+        final int root = buffer.getInt();
+        final Decoder decoder = new Decoder();
+        decoder.splitTypes = readBytes(buffer);
+        decoder.covariateIndices = readInts(buffer);
+        decoder.thresholds = readDoubles(buffer);
+        decoder.probabilityNaLeftHand = readDoubles(buffer);
+        decoder.leftChildren = readInts(buffer);
+        decoder.rightChildren = readInts(buffer);
+
+        decoder.levelNames = new String[buffer.getInt()];
+        for(int i=0; i<decoder.levelNames.length; i++){
+            final byte[] nameBytes = new byte[buffer.getInt()];
+            buffer.get(nameBytes);
+            decoder.levelNames[i] = new String(nameBytes, StandardCharsets.UTF_8);
+        }
+        decoder.factorLevelOffsets = readInts(buffer);
+        decoder.factorLevels = readInts(buffer);
+
+        decoder.leafCreator = leafSlot -> doubleLeaves != null ?
+                new TerminalNode<>(doubleLeaves[leafSlot], leafSizes[leafSlot]) :
+                new StoredTerminalNode<>(competingRiskLeafStore, leafSlot, leafSizes[leafSlot]);
+
+        return new Tree<>((Node<Y>) decoder.createNode(root), bootstrapRowIds);
+    }
+
+    private static final class Encoder<Y> {
+        final byte[] splitTypes;
+        final int[] covariateIndices;
+        final double[] thresholds;
+        final double[] probabilityNaLeftHand;
+        final int[] leftChildren;
+        final int[] rightChildren;
+
+        final List<TerminalNode> leaves;
+        final int[] leafSizes;
+
+        final List<String> levelNames = new ArrayList<>();
+        final Map<String, Integer> levelNameIndices = new HashMap<>();
+        final List<int[]> factorLevels = new ArrayList<>(); // by split node; empty if not a factor split
+
+        Encoder(final int numberOfSplitNodes, final int numberOfLeaves){
+            this.splitTypes = new byte[numberOfSplitNodes];
+            this.covariateIndices = new int[numberOfSplitNodes];
+            this.thresholds = new double[numberOfSplitNodes];
+            this.probabilityNaLeftHand = new double[numberOfSplitNodes];
+            this.leftChildren = new int[numberOfSplitNodes];
+            this.rightChildren = new int[numberOfSplitNodes];
+            this.leaves = new ArrayList<>(numberOfLeaves);
+            this.leafSizes = new int[numberOfLeaves];
+        }
+
+        int addNode(final Node<Y> node){
+            if(node instanceof TerminalNode){
+                final int leafSlot = leaves.size();
+                leaves.add((TerminalNode) node);
+                leafSizes[leafSlot] = ((TerminalNode) node).getSize();
+                return ~leafSlot;
+            }
+
+            final SplitNode<Y> splitNode = (SplitNode<Y>) node;
+            final SplitRule splitRule = splitNode.getSplitRule();
+            final int index = factorLevels.size();
+            factorLevels.add(new int[0]);
+
+            covariateIndices[index] = splitRule.getParentCovariateIndex();
+            probabilityNaLeftHand[index] = splitNode.getProbabilityNaLeftHand();
+
+            if(splitRule instanceof NumericSplitRule){
+                splitTypes[index] = NUMERIC_SPLIT;
+                thresholds[index] = ((NumericSplitRule) splitRule).getThreshold();
+            }
+            else if(splitRule instanceof FactorSplitRule){
+                splitTypes[index] = FACTOR_SPLIT;
+                final Set<String> leftSideValues = ((FactorSplitRule) splitRule).getLeftSideValues();
+                final int[] levels = new int[leftSideValues.size()];
+                int i = 0;
+                for(final String level : leftSideValues){
+                    levels[i++] = levelNameIndices.computeIfAbsent(level, name -> {
+                        levelNames.add(name);
+                        return levelNames.size() - 1;
+                    });
+                }
+                factorLevels.set(index, levels);
+            }
+            else{
+                splitTypes[index] = BOOLEAN_SPLIT;
+            }
+
+            leftChildren[index] = addNode(splitNode.getLeftHand());
+            rightChildren[index] = addNode(splitNode.getRightHand());
+
+            return index;
+        }
+    }
+
+    private static final class Decoder {
+        byte[] splitTypes;
+        int[] covariateIndices;
+        double[] thresholds;
+        double[] probabilityNaLeftHand;
+        int[] leftChildren;
+        int[] rightChildren;
+        String[] levelNames;
+        int[] factorLevelOffsets;
+        int[] factorLevels;
+        IntFunction<Node> leafCreator;
+
+        Node createNode(final int node){
+            if(node < 0){
+                return leafCreator.apply(~node);
+            }
+
+            final int covariateIndex = covariateIndices[node];
+            final SplitRule splitRule;
+            if(splitTypes[node] == NUMERIC_SPLIT){
+                splitRule = new NumericSplitRule(covariateIndex, thresholds[node]);
+            }
+            else if(splitTypes[node] == FACTOR_SPLIT){
+                final Set<String> leftSideValues = new HashSet<>();
+                for(int i=factorLevelOffsets[node]; i<factorLevelOffsets[node+1]; i++){
+                    leftSideValues.add(levelNames[factorLevels[i]]);
+                }
+                splitRule = new FactorSplitRule(covariateIndex, leftSideValues);
+            }
+            else if(splitTypes[node] == BOOLEAN_SPLIT){
+                splitRule = new BooleanSplitRule(covariateIndex);
+            }
+            else{
+                throw new IllegalArgumentException("Unknown type of split: " + splitTypes[node]);
+            }
+
+            return SplitNode.builder()
+                    .leftHand(createNode(leftChildren[node]))
+                    .rightHand(createNode(rightChildren[node]))
+                    .splitRule(splitRule)
+                    .probabilityNaLeftHand(probabilityNaLeftHand[node])
+                    .build();
+        }
+    }
+
+    public static void writeBytes(final DataOutputStream outputStream, final byte[] values) throws IOException {
+        outputStream.writeInt(values.length);
+        outputStream.write(values);
+    }
+
+    public static void writeInts(final DataOutputStream outputStream, final int[] values) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+        buffer.asIntBuffer().put(values);
+        outputStream.writeInt(values.length);
+        outputStream.write(buffer.array());
+    }
+
+    public static void writeDoubles(final DataOutputStream outputStream, final double[] values) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES);
+        buffer.asDoubleBuffer().put(values);
+        outputStream.writeInt(values.length);
+        outputStream.write(buffer.array());
+    }
+
+    public static byte[] readBytes(final ByteBuffer buffer){
+        final byte[] values = new byte[buffer.getInt()];
+        buffer.get(values);
+        return values;
+    }
+
+    public static int[] readInts(final ByteBuffer buffer){
+        final int[] values = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+        return values;
+    }
+
+    public static double[] readDoubles(final ByteBuffer buffer){
+        final double[] values = new double[buffer.getInt()];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+        return values;
+    }
+
+}
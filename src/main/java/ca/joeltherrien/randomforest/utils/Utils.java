@@ -123,6 +123,63 @@ public final class Utils {
         }
     }
 
+    /**
+     * Stable sort of a range of row indexes by the values they point to, using the ordering of Double#compare.
+     * Used during training to avoid sorting boxed values.
+     *
+     * @param rows The row indexes to sort; modified in place.
+     * @param from Start of the range (inclusive)
+     * @param to End of the range (exclusive)
+     * @param values The values to sort by, indexed by row.
+     */
+    public static void stableSortByValue(final int[] rows, final int from, final int to, final double[] values){
+        if(to - from < 2){
+            return;
+        }
+
+        final int[] buffer = Arrays.copyOfRange(rows, from, to);
+        mergeSort(buffer, 0, rows, from, to - from, values);
+    }
+
+    // Sorts src[srcFrom, srcFrom + length) into dest[destFrom, destFrom + length); src is used as scratch space.
+    private static void mergeSort(final int[] src, final int srcFrom, final int[] dest, final int destFrom, final int length, final double[] values){
+        if(length < 16){
+            // insertion sort
+            for(int i=0; i<length; i++){
+                final int row = src[srcFrom + i];
+                final double value = values[row];
+                int j = i - 1;
+                while(j >= 0 && Double.compare(values[dest[destFrom + j]], value) > 0){
+                    dest[destFrom + j + 1] = dest[destFrom + j];
+                    j--;
+                }
+                dest[destFrom + j + 1] = row;
+            }
+            return;
+        }
+
+        final int half = length / 2;
+
+        // sort both halves of dest back into src, then merge into dest
+        System.arraycopy(src, srcFrom, dest, destFrom, length);
+        mergeSort(dest, destFrom, src, srcFrom, half, values);
+        mergeSort(dest, destFrom + half, src, srcFrom + half, length - half, values);
+
+        int left = srcFrom;
+        final int leftEnd = srcFrom + half;
+        int right = leftEnd;
+        final int rightEnd = srcFrom + length;
+
+        for(int i = destFrom; i < destFrom + length; i++){
+            if(right >= rightEnd || (left < leftEnd && Double.compare(values[src[left]], values[src[right]]) <= 0)){
+                dest[i] = src[left++];
+            }
+            else{
+                dest[i] = src[right++];
+            }
+        }
+    }
+
     /**
      * Replacement for Java 9's List.of
      *
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk.splitfinder;
+
+/**
+ * Java 17 version of LogRankKernel; uses VectorLogRankKernel when the jdk.incubator.vector module has been added
+ * (java --add-modules jdk.incubator.vector), and otherwise CompetingRiskSplitFinder#scalarLogRankValue.
+ *
+ */
+final class LogRankKernel {
+
+    private static final boolean VECTOR_API_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private LogRankKernel(){}
+
+    static boolean isVectorized(){
+        return VECTOR_API_AVAILABLE;
+    }
+
+    static CompetingRiskSplitFinder.LogRankValue logRankValue(final double[] weights, final int[][] eventsLeft, final int[][] eventsTotal,
+                                                              final int[][] riskSetLeft, final int[][] riskSetTotal){
+        if(VECTOR_API_AVAILABLE){
+            return VectorLogRankKernel.logRankValue(weights, eventsLeft, eventsTotal, riskSetLeft, riskSetTotal);
+        }
+        return CompetingRiskSplitFinder.scalarLogRankValue(weights, eventsLeft, eventsTotal, riskSetLeft, riskSetTotal);
+    }
+
+}
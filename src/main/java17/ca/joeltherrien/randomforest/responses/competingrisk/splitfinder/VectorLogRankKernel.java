@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk.splitfinder;
+
+import jdk.incubator.vector.*;
+
+/**
+ * CompetingRiskSplitFinder#scalarLogRankValue using the Vector API. Only loaded by LogRankKernel when the
+ * jdk.incubator.vector module is present.
+ *
+ * Each block of times is loaded once and scored for every event of focus before moving on. The events usually share
+ * their risk set arrays (all but Gray's test do), in which case they're only converted to doubles once per block.
+ *
+ * Unlike scalarLogRankValue, which sums each event over the times and then adds the events together, this adds the
+ * terms lane by lane across both times and events, so its values can differ from it in their last few digits and the
+ * trees trained with it can differ from those trained without the Vector API.
+ *
+ */
+final class VectorLogRankKernel {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // same number of lanes as DOUBLES, so that each int vector converts into exactly one double vector
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED.withShape(
+            VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    private VectorLogRankKernel(){}
+
+    static CompetingRiskSplitFinder.LogRankValue logRankValue(final double[] weights, final int[][] eventsLeft, final int[][] eventsTotal,
+                                                              final int[][] riskSetLeft, final int[][] riskSetTotal){
+        final int m = weights.length;
+        final int numberOfEvents = eventsLeft.length;
+        final int upperBound = DOUBLES.loopBound(m);
+        final DoubleVector ones = DoubleVector.broadcast(DOUBLES, 1.0);
+
+        DoubleVector summations = DoubleVector.zero(DOUBLES);
+        DoubleVector variances = DoubleVector.zero(DOUBLES);
+
+        for(int k = 0; k<upperBound; k += DOUBLES.length()){
+            final DoubleVector weight = DoubleVector.fromArray(DOUBLES, weights, k);
+            final DoubleVector weightSquared = weight.mul(weight);
+
+            DoubleVector individualsAtRiskDaughterLeft = null;
+            DoubleVector individualsAtRiskDaughterTotal = null;
+
+            for(int e = 0; e<numberOfEvents; e++){
+                final DoubleVector numberEventsAtTimeDaughterLeft = toDoubles(eventsLeft[e], k);
+                final DoubleVector numberEventsAtTimeDaughterTotal = toDoubles(eventsTotal[e], k);
+
+                if(e == 0 || riskSetLeft[e] != riskSetLeft[e-1]){
+                    individualsAtRiskDaughterLeft = toDoubles(riskSetLeft[e], k);
+                }
+                if(e == 0 || riskSetTotal[e] != riskSetTotal[e-1]){
+                    individualsAtRiskDaughterTotal = toDoubles(riskSetTotal[e], k);
+                }
+
+                final DoubleVector deltaSummation = weight.mul(numberEventsAtTimeDaughterLeft.sub(
+                        numberEventsAtTimeDaughterTotal.mul(individualsAtRiskDaughterLeft).div(individualsAtRiskDaughterTotal)));
+                final DoubleVector deltaVariance = weightSquared.mul(numberEventsAtTimeDaughterTotal)
+                        .mul(individualsAtRiskDaughterLeft).div(individualsAtRiskDaughterTotal)
+                        .mul(ones.sub(individualsAtRiskDaughterLeft.div(individualsAtRiskDaughterTotal)))
+                        .mul(individualsAtRiskDaughterTotal.sub(numberEventsAtTimeDaughterTotal)
+                                .div(individualsAtRiskDaughterTotal.sub(1.0)));
+
+                // see scalarLogRankValue; times with NaN variance are left out
+                final VectorMask<Double> valid = deltaVariance.test(VectorOperators.IS_NAN).not();
+                summations = summations.add(deltaSummation, valid);
+                variances = variances.add(deltaVariance, valid);
+            }
+        }
+
+        double summation = summations.reduceLanes(VectorOperators.ADD);
+        double variance = variances.reduceLanes(VectorOperators.ADD);
+
+        for(int k = upperBound; k<m; k++){
+            final double weight = weights[k];
+
+            for(int e = 0; e<numberOfEvents; e++){
+                final double numberEventsAtTimeDaughterLeft = eventsLeft[e][k];
+                final double numberEventsAtTimeDaughterTotal = eventsTotal[e][k];
+                final double individualsAtRiskDaughterLeft = riskSetLeft[e][k];
+                final double individualsAtRiskDaughterTotal = riskSetTotal[e][k];
+
+                final double deltaSummation = weight*(numberEventsAtTimeDaughterLeft - numberEventsAtTimeDaughterTotal*individualsAtRiskDaughterLeft/individualsAtRiskDaughterTotal);
+                final double deltaVariance = weight*weight*numberEventsAtTimeDaughterTotal*individualsAtRiskDaughterLeft/individualsAtRiskDaughterTotal
+                        * (1.0 - individualsAtRiskDaughterLeft / individualsAtRiskDaughterTotal)
+                        * ((individualsAtRiskDaughterTotal - numberEventsAtTimeDaughterTotal) / (individualsAtRiskDaughterTotal - 1.0));
+
+                if(!Double.isNaN(deltaVariance)){
+                    summation += deltaSummation;
+                    variance += deltaVariance;
+                }
+            }
+        }
+
+        return new CompetingRiskSplitFinder.LogRankValue(summation, variance);
+    }
+
+    private static DoubleVector toDoubles(final int[] array, final int offset){
+        return (DoubleVector) IntVector.fromArray(INTS, array, offset).convertShape(VectorOperators.I2D, DOUBLES, 0);
+    }
+
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest;
+
+import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.covariates.bool.BooleanCovariate;
+import ca.joeltherrien.randomforest.covariates.factor.FactorCovariate;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericBinning;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericCovariate;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericSplitRule;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskFunctions;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskHistogram;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponseColumn;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponseWithCensorTime;
+import ca.joeltherrien.randomforest.responses.competingrisk.combiner.CompetingRiskFunctionCombiner;
+import ca.joeltherrien.randomforest.responses.competingrisk.combiner.CompetingRiskResponseCombiner;
+import ca.joeltherrien.randomforest.responses.competingrisk.splitfinder.GrayLogRankSplitFinder;
+import ca.joeltherrien.randomforest.responses.competingrisk.splitfinder.LogRankSplitFinder;
+import ca.joeltherrien.randomforest.responses.regression.MeanResponseCombiner;
+import ca.joeltherrien.randomforest.responses.regression.WeightedVarianceSplitFinder;
+import ca.joeltherrien.randomforest.tree.ColumnarNode;
+import ca.joeltherrien.randomforest.tree.ForestTrainer;
+import ca.joeltherrien.randomforest.tree.OnlineForest;
+import ca.joeltherrien.randomforest.tree.SplitHistogram;
+import ca.joeltherrien.randomforest.tree.SplitNode;
+import ca.joeltherrien.randomforest.tree.Tree;
+import ca.joeltherrien.randomforest.tree.TreeTrainer;
+import ca.joeltherrien.randomforest.utils.ResponseLoader;
+import ca.joeltherrien.randomforest.utils.Utils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestColumnarDataset {
+
+    private List<Covariate> getNACovariates(){
+        return Utils.easyList(
+                new NumericCovariate("x", 0, true),
+                new BooleanCovariate("y", 1, true),
+                new FactorCovariate("z", 2, Utils.easyList("green", "blue", "yellow"), true)
+        );
+    }
+
+    private List<Row<Double>> generateNAData(List<Covariate> covariates, int n, Random random){
+        final List<String> levels = Utils.easyList("green", "blue", "yellow", "NA");
+        final List<Row<Double>> dataList = new ArrayList<>();
+
+        for(int i=0; i<n; i++){
+            final String x = random.nextDouble() < 0.1 ? "NA" : Double.toString(random.nextInt(20));
+            final String y = random.nextDouble() < 0.1 ? "NA" : Boolean.toString(random.nextBoolean());
+            final String z = levels.get(random.nextInt(levels.size()));
+
+            dataList.add(Row.createSimple(Utils.easyMap("x", x, "y", y, "z", z), covariates, i+1, random.nextGaussian()));
+        }
+
+        return dataList;
+    }
+
+    @Test
+    public void testRowViewsMatchOriginalRows(){
+        final List<Covariate> covariates = getNACovariates();
+        final List<Row<Double>> rows = generateNAData(covariates, 100, new Random(123));
+
+        final ColumnarDataset<Double> dataset = ColumnarDataset.fromRows(rows, covariates);
+        final List<Row<Double>> views = dataset.asRows();
+
+        assertEquals(rows.size(), dataset.getNumberOfRows());
+        assertEquals(rows.size(), views.size());
+
+        for(int i=0; i<rows.size(); i++){
+            final Row<Double> original = rows.get(i);
+            final Row<Double> view = views.get(i);
+
+            assertEquals(original.getId(), view.getId());
+            assertEquals(original.getResponse(), view.getResponse());
+
+            for(final Covariate covariate : covariates){
+                final Covariate.Value originalValue = original.getCovariateValue(covariate);
+                final Covariate.Value viewValue = view.getCovariateValue(covariate);
+
+                assertEquals(originalValue.isNA(), viewValue.isNA());
+                assertEquals(originalValue.isNA(), dataset.isNA(covariate.getIndex(), i));
+                assertEquals(originalValue.getValue(), viewValue.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testTrainingWithNAsAndFactors(){
+        final List<Covariate> covariates = getNACovariates();
+        final List<Row<Double>> rows = generateNAData(covariates, 200, new Random(321));
+        final ColumnarDataset<Double> dataset = ColumnarDataset.fromRows(rows, covariates);
+
+        for(final int numberOfHistogramBins : new int[]{0, 8}){
+        for(final boolean presort : new boolean[]{false, true}){
+            final TreeTrainer<Double, Double> treeTrainer = TreeTrainer.<Double, Double>builder()
+                    .checkNodePurity(false)
+                    .covariates(covariates)
+                    .numberOfSplits(0)
+                    .nodeSize(5)
+                    .mtry(3)
+                    .maxNodeDepth(1000)
+                    .splitFinder(new WeightedVarianceSplitFinder())
+                    .responseCombiner(new MeanResponseCombiner())
+                    .presortNumericCovariates(presort)
+                    .numberOfHistogramBins(numberOfHistogramBins)
+                    .build();
+
+            final int[] bootstrapRows = Bootstrapper.bootstrapIndices(dataset.getNumberOfRows(), new Random(5));
+            final int[] originalBootstrapRows = bootstrapRows.clone();
+            final Tree<Double> tree = treeTrainer.growTree(dataset, bootstrapRows, new Random(5));
+
+            // the tree partitions its own copy of the rows
+            assertArrayEquals(originalBootstrapRows, bootstrapRows);
+
+            for(final Row<Double> row : rows){
+                assertTrue(Double.isFinite(tree.evaluate(row)));
+            }
+        }
+        }
+    }
+
+    @Test
+    public void testNumericBinning(){
+        final NumericCovariate covariate = new NumericCovariate("x", 0, false);
+        final ColumnarDataset<Double> dataset = new ColumnarDataset<>(Utils.easyList(covariate), new int[]{1,2,3,4,5,6,7,8},
+                ResponseColumn.of(Utils.easyList(0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0)));
+
+        final String[] values = {"5", "1", "NA", "3", "3", "3", "2", "4"};
+        for(int row=0; row<values.length; row++){
+            dataset.setValue(row, covariate.createValue(values[row]));
+        }
+
+        // one bin per unique value if there's room
+        final NumericBinning fineBinning = dataset.getNumericBinning(0, 256);
+        assertEquals(5, fineBinning.getNumberOfBins());
+        assertEquals(0, fineBinning.getBin(1));
+        assertEquals(2, fineBinning.getBin(3));
+        assertEquals(4, fineBinning.getBin(0));
+        assertEquals(3.0, fineBinning.getUpperBound(2));
+
+        // tied values must share a bin, and bins must follow the order of the values
+        final NumericBinning coarseBinning = dataset.getNumericBinning(0, 3);
+        assertTrue(coarseBinning.getNumberOfBins() <= 3);
+        assertEquals(coarseBinning.getBin(3), coarseBinning.getBin(4));
+        assertEquals(coarseBinning.getBin(3), coarseBinning.getBin(5));
+
+        final int[] rowsInOrder = {1, 6, 3, 7, 0};
+        for(int i=1; i<rowsInOrder.length; i++){
+            assertTrue(coarseBinning.getBin(rowsInOrder[i-1]) <= coarseBinning.getBin(rowsInOrder[i]));
+        }
+        for(final int row : rowsInOrder){
+            final int bin = coarseBinning.getBin(row);
+            assertTrue(dataset.getNumericColumn(0)[row] <= coarseBinning.getUpperBound(bin));
+            assertTrue(bin == 0 || dataset.getNumericColumn(0)[row] > coarseBinning.getUpperBound(bin-1));
+        }
+    }
+
+    private List<Covariate> getCompetingRiskCovariates(){
+        return Utils.easyList(
+                new NumericCovariate("ageatfda", 0, false),
+                new BooleanCovariate("idu", 1, false),
+                new BooleanCovariate("black", 2, false),
+                new NumericCovariate("cd4nadir", 3, false)
+        );
+    }
+
+    private List<Row<CompetingRiskResponse>> getCompetingRiskData(List<Covariate> covariates) throws IOException {
+        return TestUtils.loadData(
+                covariates, new ResponseLoader.CompetingRisksResponseLoader("status", "time"),
+                "src/test/resources/wihs.csv");
+    }
+
+    private TreeTrainer.TreeTrainerBuilder<CompetingRiskResponse, CompetingRiskFunctions> getCompetingRiskTreeTrainerBuilder(List<Covariate> covariates, int numberOfSplits){
+        return TreeTrainer.<CompetingRiskResponse, CompetingRiskFunctions>builder()
+                .covariates(covariates)
+                .splitFinder(new LogRankSplitFinder(new int[]{1}, new int[]{1,2}))
+                .responseCombiner(new CompetingRiskResponseCombiner(new int[]{1,2}))
+                .maxNodeDepth(100000)
+                .mtry(2)
+                .nodeSize(6)
+                .numberOfSplits(numberOfSplits);
+    }
+
+    private ForestTrainer.ForestTrainerBuilder<CompetingRiskResponse, CompetingRiskFunctions, CompetingRiskFunctions> getCompetingRiskForestTrainerBuilder(
+            List<Covariate> covariates, TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> treeTrainer){
+        return ForestTrainer.<CompetingRiskResponse, CompetingRiskFunctions, CompetingRiskFunctions>builder()
+                .treeResponseCombiner(new CompetingRiskFunctionCombiner(new int[]{1,2}, null))
+                .ntree(10)
+                .randomSeed(42)
+                .displayProgress(false)
+                .covariates(covariates)
+                .treeTrainer(treeTrainer);
+    }
+
+    private void assertSameForests(OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> expectedForest,
+                                   OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> actualForest,
+                                   List<? extends CovariateRow> rows){
+        assertEquals(expectedForest.findSplitsByCovariate(), actualForest.findSplitsByCovariate());
+        assertEquals(expectedForest.numberOfTerminalNodes(), actualForest.numberOfTerminalNodes());
+
+        for(int i=0; i<rows.size(); i+=20){
+            final CompetingRiskFunctions expectedPrediction = expectedForest.evaluate(rows.get(i));
+            final CompetingRiskFunctions actualPrediction = actualForest.evaluate(rows.get(i));
+
+            for(final double time : new double[]{0.5, 1.0, 2.0, 5.0, 10.0}){
+                assertEquals(expectedPrediction.getCumulativeIncidenceFunction(1).evaluate(time),
+                        actualPrediction.getCumulativeIncidenceFunction(1).evaluate(time));
+                assertEquals(expectedPrediction.getCumulativeIncidenceFunction(2).evaluate(time),
+                        actualPrediction.getCumulativeIncidenceFunction(2).evaluate(time));
+            }
+        }
+    }
+
+    @Test
+    public void testCompetingRiskForestMatchesRowForest() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates();
+        final List<Row<CompetingRiskResponse>> rows = getCompetingRiskData(covariates);
+        final ColumnarDataset<CompetingRiskResponse> dataset = ColumnarDataset.fromRows(rows, covariates);
+
+        for(final int numberOfSplits : new int[]{0, 5}){
+            final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> treeTrainer =
+                    getCompetingRiskTreeTrainerBuilder(covariates, numberOfSplits).build();
+
+            final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> rowForest = getCompetingRiskForestTrainerBuilder(covariates, treeTrainer)
+                    .data(rows).build().trainSerialInMemory(Optional.empty());
+            final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> columnarForest = getCompetingRiskForestTrainerBuilder(covariates, treeTrainer)
+                    .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+
+            assertSameForests(rowForest, columnarForest, dataset.asRows());
+        }
+    }
+
+    @Test
+    public void testOOBPredictionsAccumulatedFromColumns() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates();
+        final List<Row<CompetingRiskResponse>> rows = getCompetingRiskData(covariates);
+
+        // counts the Covariate.Values created for single cells
+        final AtomicInteger valuesCreated = new AtomicInteger();
+        final ColumnarDataset<CompetingRiskResponse> dataset = new ColumnarDataset<CompetingRiskResponse>(covariates,
+                rows.stream().mapToInt(Row::getId).toArray(),
+                ResponseColumn.of(rows.stream().map(Row::getResponse).collect(Collectors.toList()))){
+            @Override
+            public Covariate.Value getValue(int covariateIndex, int row){
+                valuesCreated.incrementAndGet();
+                return super.getValue(covariateIndex, row);
+            }
+        };
+        for(int i=0; i<rows.size(); i++){
+            for(final Covariate covariate : covariates){
+                dataset.setValue(i, rows.get(i).getCovariateValue(covariate));
+            }
+        }
+
+        final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> treeTrainer =
+                getCompetingRiskTreeTrainerBuilder(covariates, 5).build();
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> rowForest = getCompetingRiskForestTrainerBuilder(covariates, treeTrainer)
+                .data(rows).accumulateOOBPredictions(true).build().trainSerialInMemory(Optional.empty());
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> columnarForest = getCompetingRiskForestTrainerBuilder(covariates, treeTrainer)
+                .columnarData(dataset).accumulateOOBPredictions(true).build().trainSerialInMemory(Optional.empty());
+
+        assertEquals(0, valuesCreated.get());
+
+        final List<CompetingRiskFunctions> rowPredictions = rowForest.getOOBPredictions().get();
+        final List<CompetingRiskFunctions> columnarPredictions = columnarForest.getOOBPredictions().get();
+        final List<CompetingRiskFunctions> evaluatedPredictions = columnarForest.evaluateOOB(dataset.asRows());
+        assertEquals(rows.size(), columnarPredictions.size());
+
+        for(int i=0; i<rows.size(); i++){
+            for(final double time : new double[]{0.5, 1.0, 2.0, 5.0, 10.0}){
+                for(final int event : new int[]{1,2}){
+                    final double expected = rowPredictions.get(i).getCumulativeIncidenceFunction(event).evaluate(time);
+                    assertEquals(expected, columnarPredictions.get(i).getCumulativeIncidenceFunction(event).evaluate(time));
+                    assertEquals(expected, evaluatedPredictions.get(i).getCumulativeIncidenceFunction(event).evaluate(time));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPresortedForestMatchesUnsortedForest() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates();
+        final ColumnarDataset<CompetingRiskResponse> dataset = ColumnarDataset.fromRows(getCompetingRiskData(covariates), covariates);
+
+        for(final int numberOfSplits : new int[]{0, 5}){
+            final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> treeTrainer =
+                    getCompetingRiskTreeTrainerBuilder(covariates, numberOfSplits).build();
+            final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> presortedTreeTrainer =
+                    getCompetingRiskTreeTrainerBuilder(covariates, numberOfSplits).presortNumericCovariates(true).build();
+
+            final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> forest = getCompetingRiskForestTrainerBuilder(covariates, treeTrainer)
+                    .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+            final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> presortedForest = getCompetingRiskForestTrainerBuilder(covariates, presortedTreeTrainer)
+                    .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+
+            assertSameForests(forest, presortedForest, dataset.asRows());
+        }
+    }
+
+    @Test
+    public void testHistogramForestMatchesExactForestWithFewUniqueValues() throws IOException {
+        // every covariate has fewer than 256 unique values, so each value gets its own bin
+        final List<Covariate> covariates = getCompetingRiskCovariates().subList(0, 3);
+        final ColumnarDataset<CompetingRiskResponse> dataset = ColumnarDataset.fromRows(getCompetingRiskData(covariates), covariates);
+
+        for(final int numberOfSplits : new int[]{0, 5}){
+            final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> treeTrainer =
+                    getCompetingRiskTreeTrainerBuilder(covariates, numberOfSplits).build();
+            final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> histogramTreeTrainer =
+                    getCompetingRiskTreeTrainerBuilder(covariates, numberOfSplits).numberOfHistogramBins(256).build();
+
+            final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> forest = getCompetingRiskForestTrainerBuilder(covariates, treeTrainer)
+                    .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+            final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> histogramForest = getCompetingRiskForestTrainerBuilder(covariates, histogramTreeTrainer)
+                    .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+
+            assertSameForests(forest, histogramForest, dataset.asRows());
+        }
+    }
+
+    @Test
+    public void testParallelCovariateScoringMatchesSerial() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates();
+        final List<Row<CompetingRiskResponse>> rows = getCompetingRiskData(covariates);
+        final ColumnarDataset<CompetingRiskResponse> dataset = ColumnarDataset.fromRows(rows, covariates);
+
+        // the List of Rows path scores covariates the same way
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> rowForest = getCompetingRiskForestTrainerBuilder(covariates,
+                getCompetingRiskTreeTrainerBuilder(covariates, 5).parallelCovariateNodeSize(1).build())
+                .data(rows).build().trainSerialInMemory(Optional.empty());
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> serialRowForest = getCompetingRiskForestTrainerBuilder(covariates,
+                getCompetingRiskTreeTrainerBuilder(covariates, 5).parallelCovariateNodeSize(Integer.MAX_VALUE).build())
+                .data(rows).build().trainSerialInMemory(Optional.empty());
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> columnarForest = getCompetingRiskForestTrainerBuilder(covariates,
+                getCompetingRiskTreeTrainerBuilder(covariates, 5).parallelCovariateNodeSize(1).build())
+                .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+
+        assertSameForests(serialRowForest, rowForest, dataset.asRows());
+        assertSameForests(columnarForest, rowForest, dataset.asRows());
+
+        for(final int numberOfHistogramBins : new int[]{0, 16}){
+            for(final boolean presort : new boolean[]{false, true}){
+                // every node is scored in parallel vs. no node is
+                final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> parallelTreeTrainer =
+                        getCompetingRiskTreeTrainerBuilder(covariates, 5).numberOfHistogramBins(numberOfHistogramBins)
+                                .presortNumericCovariates(presort).parallelCovariateNodeSize(1).build();
+                final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> serialTreeTrainer =
+                        getCompetingRiskTreeTrainerBuilder(covariates, 5).numberOfHistogramBins(numberOfHistogramBins)
+                                .presortNumericCovariates(presort).parallelCovariateNodeSize(Integer.MAX_VALUE).build();
+
+                final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> parallelForest = getCompetingRiskForestTrainerBuilder(covariates, parallelTreeTrainer)
+                        .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+                final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> serialForest = getCompetingRiskForestTrainerBuilder(covariates, serialTreeTrainer)
+                        .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+
+                assertSameForests(serialForest, parallelForest, dataset.asRows());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSubtreesMatchSerial() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates();
+        final List<Row<CompetingRiskResponse>> rows = getCompetingRiskData(covariates);
+        final ColumnarDataset<CompetingRiskResponse> dataset = ColumnarDataset.fromRows(rows, covariates);
+
+        final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> serialTreeTrainer =
+                getCompetingRiskTreeTrainerBuilder(covariates, 5).parallelSubtreeNodeSize(Integer.MAX_VALUE).build();
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> serialForest = getCompetingRiskForestTrainerBuilder(covariates, serialTreeTrainer)
+                .data(rows).build().trainSerialInMemory(Optional.empty());
+
+        final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> parallelTreeTrainer =
+                getCompetingRiskTreeTrainerBuilder(covariates, 5).parallelSubtreeNodeSize(1).build();
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> parallelForest = getCompetingRiskForestTrainerBuilder(covariates, parallelTreeTrainer)
+                .data(rows).build().trainSerialInMemory(Optional.empty());
+
+        assertSameForests(serialForest, parallelForest, dataset.asRows());
+
+        for(final boolean presort : new boolean[]{false, true}){
+            final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> columnarTreeTrainer =
+                    getCompetingRiskTreeTrainerBuilder(covariates, 5).presortNumericCovariates(presort).parallelSubtreeNodeSize(50).build();
+            final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> columnarForest = getCompetingRiskForestTrainerBuilder(covariates, columnarTreeTrainer)
+                    .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+
+            assertSameForests(serialForest, columnarForest, dataset.asRows());
+        }
+
+        final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> serialHistogramTreeTrainer =
+                getCompetingRiskTreeTrainerBuilder(covariates, 5).numberOfHistogramBins(16).parallelSubtreeNodeSize(Integer.MAX_VALUE).build();
+        final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> parallelHistogramTreeTrainer =
+                getCompetingRiskTreeTrainerBuilder(covariates, 5).numberOfHistogramBins(16).parallelSubtreeNodeSize(1).build();
+
+        assertSameForests(
+                getCompetingRiskForestTrainerBuilder(covariates, serialHistogramTreeTrainer).columnarData(dataset).build().trainSerialInMemory(Optional.empty()),
+                getCompetingRiskForestTrainerBuilder(covariates, parallelHistogramTreeTrainer).columnarData(dataset).build().trainSerialInMemory(Optional.empty()),
+                dataset.asRows());
+    }
+
+    @Test
+    public void testParallelForestWithParallelNodesMatchesSerialForest() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates();
+        final ColumnarDataset<CompetingRiskResponse> dataset = ColumnarDataset.fromRows(getCompetingRiskData(covariates), covariates);
+
+        final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> treeTrainer = getCompetingRiskTreeTrainerBuilder(covariates, 5)
+                .parallelSubtreeNodeSize(50).parallelCovariateNodeSize(100).build();
+        final ForestTrainer<CompetingRiskResponse, CompetingRiskFunctions, CompetingRiskFunctions> forestTrainer =
+                getCompetingRiskForestTrainerBuilder(covariates, treeTrainer).columnarData(dataset).build();
+
+        assertSameForests(
+                forestTrainer.trainSerialInMemory(Optional.empty()),
+                forestTrainer.trainParallelInMemory(Optional.empty(), 3),
+                dataset.asRows());
+    }
+
+    @Test
+    public void testStreamingScoresMatchHistogramScores() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates();
+        final ColumnarDataset<CompetingRiskResponse> dataset = ColumnarDataset.fromRows(getCompetingRiskData(covariates), covariates);
+        final NumericBinning binning = dataset.getNumericBinning(3, 32);
+
+        // bootstrapping repeats rows, so the histogram's entries have counts greater than 1
+        final int[] rows = Bootstrapper.bootstrapIndices(dataset.getNumberOfRows(), new Random(7));
+        final ColumnarNode<CompetingRiskResponse> node = new ColumnarNode<>(dataset, rows, 0, rows.length);
+
+        final LogRankSplitFinder splitFinder = new LogRankSplitFinder(new int[]{1,2}, new int[]{1,2});
+        final LogRankSplitFinder streamingSplitFinder = new LogRankSplitFinder(new int[]{1,2}, new int[]{1,2}, true);
+        final SplitHistogram histogram = splitFinder.createHistogram(node, 3, binning);
+
+        for(int bin=0; bin<histogram.getNumberOfBins()-1; bin++){
+            final double expectedScore = splitFinder.findBestBin(histogram, new int[]{bin}).getScore();
+            final double actualScore = streamingSplitFinder.findBestBin(histogram, new int[]{bin}).getScore();
+
+            assertEquals(expectedScore, actualScore, 1e-9);
+        }
+    }
+
+    private ColumnarDataset<CompetingRiskResponseWithCensorTime> getGrayCompetingRiskDataset(List<Covariate> covariates) throws IOException {
+        final List<Row<CompetingRiskResponse>> rows = getCompetingRiskData(covariates);
+
+        final int n = rows.size();
+        final int[] ids = new int[n];
+        final int[] delta = new int[n];
+        final double[] u = new double[n];
+        final double[] c = new double[n];
+        for(int i=0; i<n; i++){
+            final CompetingRiskResponse response = rows.get(i).getResponse();
+            ids[i] = rows.get(i).getId();
+            delta[i] = response.getDelta();
+            u[i] = response.getU();
+            c[i] = response.isCensored() ? response.getU() : response.getU() + (i % 7);
+        }
+
+        final ColumnarDataset<CompetingRiskResponseWithCensorTime> dataset =
+                new ColumnarDataset<>(covariates, ids, new CompetingRiskResponseColumn<>(delta, u, c));
+        for(int i=0; i<n; i++){
+            for(final Covariate covariate : covariates){
+                dataset.setValue(i, rows.get(i).getValueByIndex(covariate.getIndex()));
+            }
+        }
+
+        return dataset;
+    }
+
+    @Test
+    public void testGrayHistogramForestMatchesExactForestWithFewUniqueValues() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates().subList(0, 3);
+        final ColumnarDataset<CompetingRiskResponseWithCensorTime> dataset = getGrayCompetingRiskDataset(covariates);
+
+        final List<OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions>> forests = new ArrayList<>();
+        // -1 trains on the rows instead of the columns
+        for(final int numberOfHistogramBins : new int[]{-1, 0, 256}){
+            // raw types as CompetingRiskResponseCombiner takes CompetingRiskResponses
+            final TreeTrainer.TreeTrainerBuilder treeTrainerBuilder = TreeTrainer.builder();
+            final TreeTrainer treeTrainer = treeTrainerBuilder
+                    .covariates(covariates)
+                    .splitFinder(new GrayLogRankSplitFinder(new int[]{1}, new int[]{1,2}))
+                    .responseCombiner(new CompetingRiskResponseCombiner(new int[]{1,2}))
+                    .maxNodeDepth(100000)
+                    .mtry(2)
+                    .nodeSize(6)
+                    .numberOfSplits(5)
+                    .numberOfHistogramBins(Math.max(numberOfHistogramBins, 0))
+                    .build();
+
+            final ForestTrainer.ForestTrainerBuilder forestTrainerBuilder = ForestTrainer.builder();
+            forestTrainerBuilder
+                    .treeResponseCombiner(new CompetingRiskFunctionCombiner(new int[]{1,2}, null))
+                    .ntree(10)
+                    .randomSeed(42)
+                    .displayProgress(false)
+                    .covariates(covariates)
+                    .treeTrainer(treeTrainer);
+
+            if(numberOfHistogramBins < 0){
+                forestTrainerBuilder.data(new ArrayList<>(dataset.asRows()));
+            }
+            else{
+                forestTrainerBuilder.columnarData(dataset);
+            }
+
+            forests.add(forestTrainerBuilder.build().trainSerialInMemory(Optional.empty()));
+        }
+
+        assertSameForests(forests.get(0), forests.get(1), dataset.asRows());
+        assertSameForests(forests.get(0), forests.get(2), dataset.asRows());
+    }
+
+    @Test
+    public void testHistogramForestWithManyUniqueValues() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates();
+        final ColumnarDataset<CompetingRiskResponse> dataset = ColumnarDataset.fromRows(getCompetingRiskData(covariates), covariates);
+
+        final TreeTrainer<CompetingRiskResponse, CompetingRiskFunctions> histogramTreeTrainer =
+                getCompetingRiskTreeTrainerBuilder(covariates, 0).numberOfHistogramBins(16).build();
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> histogramForest = getCompetingRiskForestTrainerBuilder(covariates, histogramTreeTrainer)
+                .columnarData(dataset).build().trainSerialInMemory(Optional.empty());
+
+        // cd4nadir has many more than 16 unique values, so it can only be split at the bins' upper bounds
+        final NumericBinning binning = dataset.getNumericBinning(3, 16);
+        final Set<Double> upperBounds = new HashSet<>();
+        for(int bin=0; bin<binning.getNumberOfBins(); bin++){
+            upperBounds.add(binning.getUpperBound(bin));
+        }
+
+        boolean splitOnCd4nadir = false;
+        for(final Tree<CompetingRiskFunctions> tree : histogramForest.getTrees()){
+            final List<SplitNode> splitNodes = tree.getRootNode().getNodesOfType(SplitNode.class);
+            for(final SplitNode splitNode : splitNodes){
+                if(splitNode.getSplitRule().getParentCovariateIndex() == 3){
+                    splitOnCd4nadir = true;
+                    assertTrue(upperBounds.contains(((NumericSplitRule) splitNode.getSplitRule()).getThreshold()));
+                }
+            }
+        }
+        assertTrue(splitOnCd4nadir);
+    }
+
+    @Test
+    public void testHistogramSubtraction() throws IOException {
+        final List<Covariate> covariates = getCompetingRiskCovariates();
+        final ColumnarDataset<CompetingRiskResponseWithCensorTime> dataset = getGrayCompetingRiskDataset(covariates);
+        final GrayLogRankSplitFinder splitFinder = new GrayLogRankSplitFinder(new int[]{1}, new int[]{1,2});
+        final NumericBinning binning = dataset.getNumericBinning(3, 16);
+
+        final int[] rows = Bootstrapper.bootstrapIndices(dataset.getNumberOfRows(), new Random(99));
+        final int cut = rows.length / 3;
+
+        final CompetingRiskHistogram parent = (CompetingRiskHistogram) splitFinder.createHistogram(new ColumnarNode<>(dataset, rows, 0, rows.length), 3, binning);
+        final CompetingRiskHistogram left = (CompetingRiskHistogram) splitFinder.createHistogram(new ColumnarNode<>(dataset, rows, 0, cut), 3, binning);
+        final CompetingRiskHistogram right = (CompetingRiskHistogram) splitFinder.createHistogram(new ColumnarNode<>(dataset, rows, cut, rows.length), 3, binning);
+
+        final CompetingRiskHistogram subtracted = (CompetingRiskHistogram) splitFinder.subtractHistogram(parent, left);
+
+        assertArrayEquals(right.getBinCounts(), subtracted.getBinCounts());
+        assertArrayEquals(right.getBinEntryStart(), subtracted.getBinEntryStart());
+        assertArrayEquals(right.getEntryTimeRank(), subtracted.getEntryTimeRank());
+        assertArrayEquals(right.getEntryDelta(), subtracted.getEntryDelta());
+        assertArrayEquals(right.getEntryCensorTimeRank(), subtracted.getEntryCensorTimeRank());
+        assertArrayEquals(right.getEntryCount(), subtracted.getEntryCount());
+        assertArrayEquals(right.getTimes(), subtracted.getTimes());
+        assertArrayEquals(right.getEntryCensorTimeIndex(), subtracted.getEntryCensorTimeIndex());
+    }
+
+}
@@ -18,23 +18,35 @@ package ca.joeltherrien.randomforest;
 
 import ca.joeltherrien.randomforest.covariates.Covariate;
 import ca.joeltherrien.randomforest.covariates.bool.BooleanCovariate;
+import ca.joeltherrien.randomforest.covariates.factor.FactorCovariate;
 import ca.joeltherrien.randomforest.covariates.numeric.NumericCovariate;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskFunctions;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
 import ca.joeltherrien.randomforest.responses.competingrisk.combiner.CompetingRiskFunctionCombiner;
 import ca.joeltherrien.randomforest.responses.competingrisk.combiner.CompetingRiskResponseCombiner;
 import ca.joeltherrien.randomforest.responses.competingrisk.splitfinder.LogRankSplitFinder;
+import ca.joeltherrien.randomforest.responses.regression.MeanResponseCombiner;
+import ca.joeltherrien.randomforest.responses.regression.WeightedVarianceSplitFinder;
 import ca.joeltherrien.randomforest.tree.*;
 import ca.joeltherrien.randomforest.utils.DataUtils;
+import ca.joeltherrien.randomforest.utils.ForestArchive;
 import ca.joeltherrien.randomforest.utils.ResponseLoader;
 import ca.joeltherrien.randomforest.utils.RightContinuousStepFunction;
+import ca.joeltherrien.randomforest.utils.TreeCodec;
 import ca.joeltherrien.randomforest.utils.Utils;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -186,6 +198,174 @@ public class TestSavingLoading {
 
     }
 
+    @Test
+    public void testSavingLoadingArchive() throws IOException, ClassNotFoundException {
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<CompetingRiskResponse>> dataset = getData(covariates, DEFAULT_FILEPATH);
+
+        final File directory = new File(SAVE_TREE_LOCATION);
+        if(directory.exists()){
+            TestUtils.removeFolder(directory);
+        }
+        directory.mkdir();
+        final File archiveFile = new File(SAVE_TREE_LOCATION + "forest.lrfa");
+
+        final ForestTrainer<CompetingRiskResponse, CompetingRiskFunctions, CompetingRiskFunctions> directoryTrainer =
+                getForestBuilder(covariates, dataset, getTreeTrainerBuilder(covariates).build())
+                        .saveTreeLocation(SAVE_TREE_LOCATION + "directory")
+                        .build();
+        directoryTrainer.trainSerialOnDisk(Optional.empty());
+
+        // train half the trees, then resume with a reopened archive
+        final ForestTrainer<CompetingRiskResponse, CompetingRiskFunctions, CompetingRiskFunctions> archiveTrainer =
+                getForestBuilder(covariates, dataset, getTreeTrainerBuilder(covariates).build())
+                        .saveTreeLocation(archiveFile.getPath())
+                        .saveTreesToArchive(true)
+                        .ntree(NTREE / 2)
+                        .build();
+        archiveTrainer.trainSerialOnDisk(Optional.empty()).close();
+        archiveTrainer.setNtree(NTREE);
+        archiveTrainer.trainSerialOnDisk(Optional.empty()).close();
+
+        assertTrue(archiveFile.isFile());
+
+        final CompetingRiskFunctionCombiner treeResponseCombiner = new CompetingRiskFunctionCombiner(new int[]{1,2}, null);
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> directoryForest =
+                DataUtils.loadOnlineForest(new File(SAVE_TREE_LOCATION + "directory"), treeResponseCombiner);
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> onlineForest = DataUtils.loadOnlineForest(archiveFile, treeResponseCombiner);
+        final OfflineForest<CompetingRiskFunctions, CompetingRiskFunctions> offlineForest = new OfflineForest<>(archiveFile, treeResponseCombiner);
+
+        assertEquals(NTREE, onlineForest.getNumberOfTrees());
+        assertEquals(NTREE, offlineForest.getNumberOfTrees());
+
+        try(final ForestArchive forestArchive = ForestArchive.open(archiveFile)){
+            for(int i=0; i<NTREE; i++){
+                assertEquals("tree-" + (i+1) + ".tree", forestArchive.getTreeNames().get(i));
+            }
+        }
+
+        final CovariateRow predictionRow = getPredictionRow(covariates);
+        assertTrue(competingFunctionsEqual(onlineForest.evaluate(predictionRow), offlineForest.evaluate(predictionRow)));
+
+        final List<CovariateRow> predictionRows = Utils.easyList(predictionRow, predictionRow);
+        final List<CompetingRiskFunctions> prefetchedFunctions = offlineForest.withPrefetch(3).evaluate(predictionRows);
+        final List<CompetingRiskFunctions> unprefetchedFunctions = offlineForest.withPrefetch(0).evaluateSerial(predictionRows);
+        for(int i=0; i<predictionRows.size(); i++){
+            assertTrue(competingFunctionsEqual(prefetchedFunctions.get(i), unprefetchedFunctions.get(i)));
+        }
+
+        final List<CompetingRiskFunctions> oobFunctions = offlineForest.evaluateOOB(predictionRows);
+        final List<CompetingRiskFunctions> serialOOBFunctions = offlineForest.withPrefetch(0).evaluateSerialOOB(predictionRows);
+        for(int i=0; i<predictionRows.size(); i++){
+            assertTrue(competingFunctionsEqual(oobFunctions.get(i), serialOOBFunctions.get(i)));
+            assertTrue(competingFunctionsEqual(offlineForest.evaluateOOB(predictionRow), oobFunctions.get(i)));
+        }
+
+        // random access
+        final Tree<CompetingRiskFunctions> lastTree = offlineForest.getTree(NTREE - 1);
+        assertTrue(competingFunctionsEqual(
+                onlineForest.getTrees().get(NTREE - 1).evaluate(predictionRow),
+                lastTree.evaluate(predictionRow)));
+
+        // packing an existing directory gives the same forest
+        final File packedFile = new File(SAVE_TREE_LOCATION + "packed.lrfa");
+        ForestArchive.createFromDirectory(new File(SAVE_TREE_LOCATION + "directory"), packedFile);
+        final OfflineForest<CompetingRiskFunctions, CompetingRiskFunctions> packedForest = new OfflineForest<>(packedFile, treeResponseCombiner);
+        assertEquals(NTREE, packedForest.getNumberOfTrees());
+        assertTrue(competingFunctionsEqual(directoryForest.evaluate(predictionRow), packedForest.evaluate(predictionRow)));
+
+        // closing a forest closes its archive; trees that weren't read can't be read anymore
+        offlineForest.close();
+        packedForest.close();
+        try(final OfflineForest<CompetingRiskFunctions, CompetingRiskFunctions> closedForest = new OfflineForest<>(archiveFile, treeResponseCombiner)){
+            closedForest.close();
+            assertThrows(UncheckedIOException.class, () -> closedForest.getTree(0));
+        }
+
+        TestUtils.removeFolder(directory);
+        assertFalse(directory.exists());
+    }
+
+    @Test
+    public void testTreeCodecMatchesJavaSerialization() throws IOException, ClassNotFoundException {
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<CompetingRiskResponse>> dataset = getData(covariates, DEFAULT_FILEPATH);
+
+        final File directory = new File(SAVE_TREE_LOCATION);
+        if(directory.exists()){
+            TestUtils.removeFolder(directory);
+        }
+        directory.mkdir();
+
+        final Tree<CompetingRiskFunctions> tree = getTreeTrainerBuilder(covariates).build().growTree(dataset, new Random(123));
+
+        final File binaryFile = new File(directory, "binary.tree");
+        final File legacyFile = new File(directory, "legacy.tree");
+        TreeCodec.saveTree(tree, binaryFile);
+        DataUtils.saveObject(tree, legacyFile.getPath());
+
+        assertEquals(TreeCodec.MAGIC, ByteBuffer.wrap(Files.readAllBytes(binaryFile.toPath())).getInt());
+
+        final Tree<CompetingRiskFunctions> binaryTree = TreeCodec.loadTree(binaryFile);
+        final Tree<CompetingRiskFunctions> legacyTree = TreeCodec.loadTree(legacyFile);
+
+        assertArrayEquals(tree.getBootstrapRowIds(), binaryTree.getBootstrapRowIds());
+        assertEquals(tree.getNodesOfType(TerminalNode.class).size(), binaryTree.getNodesOfType(TerminalNode.class).size());
+
+        for(final Row<CompetingRiskResponse> row : dataset){
+            assertTrue(competingFunctionsEqual(tree.evaluate(row), binaryTree.evaluate(row)));
+            assertTrue(competingFunctionsEqual(tree.evaluate(row), legacyTree.evaluate(row)));
+        }
+
+        TestUtils.removeFolder(directory);
+    }
+
+    @Test
+    public void testTreeCodecWithFactors(){
+        final List<Covariate> covariates = Utils.easyList(
+                new NumericCovariate("x", 0, false),
+                new BooleanCovariate("y", 1, false),
+                new FactorCovariate("z", 2, Utils.easyList("green", "blue", "yellow", "red"), false)
+        );
+        final List<String> levels = Utils.easyList("green", "blue", "yellow", "red");
+
+        final Random random = new Random(321);
+        final List<Row<Double>> rows = new ArrayList<>();
+        for(int i=0; i<200; i++){
+            final String z = levels.get(random.nextInt(levels.size()));
+            final boolean y = random.nextBoolean();
+            rows.add(Row.createSimple(Utils.easyMap(
+                    "x", Double.toString(random.nextDouble()),
+                    "y", Boolean.toString(y),
+                    "z", z), covariates, i+1, levels.indexOf(z) + (y ? 1.0 : 0.0) + random.nextGaussian()));
+        }
+
+        final Tree<Double> tree = TreeTrainer.<Double, Double>builder()
+                .covariates(covariates)
+                .splitFinder(new WeightedVarianceSplitFinder())
+                .responseCombiner(new MeanResponseCombiner())
+                .maxNodeDepth(1000)
+                .mtry(3)
+                .nodeSize(3)
+                .numberOfSplits(0)
+                .build()
+                .growTree(rows, new Random(5));
+
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try(final DataOutputStream outputStream = new DataOutputStream(byteStream)){
+            TreeCodec.writeTree(tree, outputStream);
+        } catch (IOException e) {
+            fail(e);
+        }
+
+        final Tree<Double> decodedTree = TreeCodec.readTree(ByteBuffer.wrap(byteStream.toByteArray()));
+
+        assertEquals(tree.getNodesOfType(SplitNode.class).size(), decodedTree.getNodesOfType(SplitNode.class).size());
+        for(final Row<Double> row : rows){
+            assertEquals(tree.evaluate(row), decodedTree.evaluate(row));
+        }
+    }
+
     /*
         We don't implement equals() methods on the below mentioned classes because then we'd need to implement an
         appropriate hashCode() method that's consistent with the equals(), and we only need plain equals() for
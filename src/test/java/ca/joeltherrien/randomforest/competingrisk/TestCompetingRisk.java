@@ -31,8 +31,10 @@ import ca.joeltherrien.randomforest.responses.competingrisk.splitfinder.LogRankS
 import ca.joeltherrien.randomforest.tree.Forest;
 import ca.joeltherrien.randomforest.tree.ForestTrainer;
 import ca.joeltherrien.randomforest.tree.Node;
+import ca.joeltherrien.randomforest.tree.OnlineForest;
 import ca.joeltherrien.randomforest.tree.TreeTrainer;
 import ca.joeltherrien.randomforest.utils.ResponseLoader;
+import ca.joeltherrien.randomforest.utils.RightContinuousStepFunction;
 import ca.joeltherrien.randomforest.utils.StepFunction;
 import ca.joeltherrien.randomforest.utils.Utils;
 import org.junit.jupiter.api.Test;
@@ -44,6 +46,7 @@ import java.util.Random;
 
 import static ca.joeltherrien.randomforest.TestUtils.assertCumulativeFunction;
 import static ca.joeltherrien.randomforest.TestUtils.closeEnough;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -292,6 +295,84 @@ public class TestCompetingRisk {
     }
 
 
+    @Test
+    public void testCoarsenedPredictionsBoundCIFError() throws IOException {
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<CompetingRiskResponse>> dataset = getData(covariates, DEFAULT_FILEPATH);
+
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> forest =
+                getForestBuilder(covariates, dataset, getTreeTrainerBuilder(covariates).build())
+                .ntree(50)
+                .build()
+                .trainSerialInMemory(Optional.empty());
+
+        final double maxCIFError = 0.01;
+        final int[] events = new int[]{1,2};
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> coarseForest = OnlineForest.<CompetingRiskFunctions, CompetingRiskFunctions>builder()
+                .trees(forest.getTrees())
+                .treeResponseCombiner(new CompetingRiskFunctionCombiner(events, null, maxCIFError))
+                .build();
+
+        final List<Row<CompetingRiskResponse>> rows = dataset.subList(0, 50);
+        final List<CompetingRiskFunctions> predictions = forest.evaluate(rows);
+        final List<CompetingRiskFunctions> coarsePredictions = coarseForest.evaluate(rows);
+
+        for(int i=0; i<rows.size(); i++){
+            final double[] times = predictions.get(i).getSurvivalCurve().getX();
+            final int numberOfCoarseTimes = coarsePredictions.get(i).getSurvivalCurve().getX().length;
+            assertTrue(numberOfCoarseTimes < times.length);
+            assertTrue(numberOfCoarseTimes <= 1.0 / maxCIFError);
+
+            for(final int event : events){
+                final RightContinuousStepFunction cif = predictions.get(i).getCumulativeIncidenceFunction(event);
+                final RightContinuousStepFunction coarseCIF = coarsePredictions.get(i).getCumulativeIncidenceFunction(event);
+
+                for(final double time : times){
+                    assertTrue(Math.abs(cif.evaluate(time) - coarseCIF.evaluate(time)) <= maxCIFError);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSinglePrecisionPredictions() throws IOException {
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<CompetingRiskResponse>> dataset = getData(covariates, DEFAULT_FILEPATH);
+
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> forest =
+                getForestBuilder(covariates, dataset, getTreeTrainerBuilder(covariates).build())
+                .ntree(50)
+                .build()
+                .trainSerialInMemory(Optional.empty());
+
+        final int[] events = new int[]{1,2};
+        final OnlineForest<CompetingRiskFunctions, CompetingRiskFunctions> singlePrecisionForest = OnlineForest.<CompetingRiskFunctions, CompetingRiskFunctions>builder()
+                .trees(forest.getTrees())
+                .treeResponseCombiner(new CompetingRiskFunctionCombiner(events, null, 0.0, true))
+                .build();
+
+        final List<Row<CompetingRiskResponse>> rows = dataset.subList(0, 50);
+        final List<CompetingRiskFunctions> predictions = forest.evaluate(rows);
+        final List<CompetingRiskFunctions> singlePrecisionPredictions = singlePrecisionForest.evaluate(rows);
+
+        for(int i=0; i<rows.size(); i++){
+            final CompetingRiskFunctions functions = predictions.get(i);
+            final CompetingRiskFunctions singlePrecisionFunctions = singlePrecisionPredictions.get(i);
+
+            assertTrue(singlePrecisionFunctions.getSurvivalCurve().isSinglePrecision());
+            assertArrayEquals(functions.getSurvivalCurve().getX(), singlePrecisionFunctions.getSurvivalCurve().getX());
+            assertArrayEquals(functions.getSurvivalCurve().getY(), singlePrecisionFunctions.getSurvivalCurve().getY(), 1e-6);
+
+            for(final int event : events){
+                assertTrue(singlePrecisionFunctions.getCumulativeIncidenceFunction(event).isSinglePrecision());
+                assertArrayEquals(functions.getCumulativeIncidenceFunction(event).getY(),
+                        singlePrecisionFunctions.getCumulativeIncidenceFunction(event).getY(), 1e-6);
+                assertArrayEquals(functions.getCauseSpecificHazardFunction(event).getY(),
+                        singlePrecisionFunctions.getCauseSpecificHazardFunction(event).getY(), 1e-5);
+            }
+        }
+    }
+
     @Test
     public void testLogRankSplitFinderAllCovariates() throws IOException {
         final List<Covariate> covariates = getCovariates();
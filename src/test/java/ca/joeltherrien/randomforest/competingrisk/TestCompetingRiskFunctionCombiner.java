@@ -25,7 +25,12 @@ import ca.joeltherrien.randomforest.utils.RightContinuousStepFunction;
 import ca.joeltherrien.randomforest.utils.Utils;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class TestCompetingRiskFunctionCombiner {
     private final int[] events = new int[]{1,2};
@@ -96,6 +101,37 @@ public class TestCompetingRiskFunctionCombiner {
     }
 
 
+
+    @Test
+    public void testUnknownTimesMatchesKnownTimes(){
+        final Random random = new Random(123);
+        final List<CompetingRiskFunctions> functions = new ArrayList<>();
+
+        for(int f=0; f<20; f++){
+            final List<CompetingRiskResponse> responses = new ArrayList<>();
+            for(int i=0; i<15; i++){
+                responses.add(new CompetingRiskResponse(random.nextInt(3), random.nextInt(40) + 1.0));
+            }
+            functions.add(createFunction(responses));
+        }
+
+        final double[] allTimes = functions.stream()
+                .flatMapToDouble(function -> Arrays.stream(function.getSurvivalCurve().getX()))
+                .sorted().distinct().toArray();
+
+        final CompetingRiskFunctions unknownTimesResult = new CompetingRiskFunctionCombiner(events, null).combine(functions);
+        final CompetingRiskFunctions knownTimesResult = new CompetingRiskFunctionCombiner(events, allTimes).combine(functions);
+
+        assertArrayEquals(allTimes, unknownTimesResult.getSurvivalCurve().getX());
+        assertArrayEquals(knownTimesResult.getSurvivalCurve().getY(), unknownTimesResult.getSurvivalCurve().getY(), 1e-10);
+        for(final int event : events){
+            assertArrayEquals(knownTimesResult.getCauseSpecificHazardFunction(event).getY(),
+                    unknownTimesResult.getCauseSpecificHazardFunction(event).getY(), 1e-10);
+            assertArrayEquals(knownTimesResult.getCumulativeIncidenceFunction(event).getY(),
+                    unknownTimesResult.getCumulativeIncidenceFunction(event).getY(), 1e-10);
+        }
+    }
+
 }
 
 /* Code to get randomForestSRC results; last tested on version 2.9.0
@@ -17,15 +17,22 @@
 package ca.joeltherrien.randomforest.competingrisk;
 
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskFunctions;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskLeafStore;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
 import ca.joeltherrien.randomforest.responses.competingrisk.combiner.CompetingRiskResponseCombiner;
+import ca.joeltherrien.randomforest.utils.RightContinuousStepFunction;
 import ca.joeltherrien.randomforest.utils.StepFunction;
 import org.junit.jupiter.api.Test;
 
 import static ca.joeltherrien.randomforest.TestUtils.closeEnough;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
+import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 public class TestCompetingRiskResponseCombiner {
 
@@ -103,4 +110,74 @@ public class TestCompetingRiskResponseCombiner {
     }
 
 
+    @Test
+    public void testLeafStoreRecreatesFunctions(){
+        final CompetingRiskResponseCombiner combiner = new CompetingRiskResponseCombiner(new int[]{1,2});
+        final Random random = new Random(123);
+
+        final List<CompetingRiskFunctions> leaves = new ArrayList<>();
+        for(int l=0; l<20; l++){
+            final List<CompetingRiskResponse> data = new ArrayList<>();
+            final int n = 1 + random.nextInt(15);
+            for(int i=0; i<n; i++){
+                data.add(new CompetingRiskResponse(random.nextInt(3), random.nextInt(30) / 2.0));
+            }
+            leaves.add(combiner.combine(data));
+        }
+
+        final CompetingRiskLeafStore leafStore = new CompetingRiskLeafStore(leaves, 2);
+        assertEquals(leaves.size(), leafStore.getNumberOfLeaves());
+
+        for(int l=0; l<leaves.size(); l++){
+            final CompetingRiskFunctions expected = leaves.get(l);
+            final CompetingRiskFunctions actual = leafStore.getLeaf(l);
+
+            assertSameFunction(expected.getSurvivalCurve(), actual.getSurvivalCurve());
+            for(int event=1; event<=2; event++){
+                assertSameFunction(expected.getCauseSpecificHazardFunction(event), actual.getCauseSpecificHazardFunction(event));
+                assertSameFunction(expected.getCumulativeIncidenceFunction(event), actual.getCumulativeIncidenceFunction(event));
+            }
+
+            // the leaf is only built once
+            assertSame(actual, leafStore.getLeaf(l));
+        }
+    }
+
+    @Test
+    public void testLeafStoreFunctionsSerializeOnlyTheirOwnValues() throws IOException, ClassNotFoundException {
+        final CompetingRiskResponseCombiner combiner = new CompetingRiskResponseCombiner(new int[]{1,2});
+        final List<CompetingRiskFunctions> leaves = new ArrayList<>();
+        for(int l=0; l<200; l++){
+            final List<CompetingRiskResponse> data = new ArrayList<>();
+            for(int i=0; i<10; i++){
+                data.add(new CompetingRiskResponse(1 + i % 2, l + i));
+            }
+            leaves.add(combiner.combine(data));
+        }
+
+        final CompetingRiskLeafStore leafStore = new CompetingRiskLeafStore(leaves, 2);
+        final RightContinuousStepFunction stored = leafStore.getLeaf(100).getCumulativeIncidenceFunction(2);
+        final RightContinuousStepFunction copy = new RightContinuousStepFunction(stored.getX(), stored.getY(), stored.getDefaultY());
+
+        final byte[] storedBytes = serialize(stored);
+        assertEquals(serialize(copy).length, storedBytes.length);
+
+        final RightContinuousStepFunction deserialized = (RightContinuousStepFunction) new ObjectInputStream(new ByteArrayInputStream(storedBytes)).readObject();
+        assertSameFunction(leaves.get(100).getCumulativeIncidenceFunction(2), deserialized);
+    }
+
+    private byte[] serialize(Object object) throws IOException {
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try(final ObjectOutputStream outputStream = new ObjectOutputStream(byteStream)){
+            outputStream.writeObject(object);
+        }
+        return byteStream.toByteArray();
+    }
+
+    private void assertSameFunction(RightContinuousStepFunction expected, RightContinuousStepFunction actual){
+        assertArrayEquals(expected.getX(), actual.getX());
+        assertArrayEquals(expected.getY(), actual.getY());
+        assertEquals(expected.getDefaultY(), actual.getDefaultY());
+    }
+
 }
@@ -20,9 +20,14 @@ import ca.joeltherrien.randomforest.Row;
 import ca.joeltherrien.randomforest.TestUtils;
 import ca.joeltherrien.randomforest.covariates.Covariate;
 import ca.joeltherrien.randomforest.covariates.numeric.NumericCovariate;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskGraySetsImpl;
 import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponse;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskResponseWithCensorTime;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskSetsImpl;
+import ca.joeltherrien.randomforest.responses.competingrisk.CompetingRiskUtils;
 import ca.joeltherrien.randomforest.responses.competingrisk.splitfinder.LogRankSplitFinder;
 import ca.joeltherrien.randomforest.tree.Split;
+import ca.joeltherrien.randomforest.tree.SplitAndScore;
 import ca.joeltherrien.randomforest.utils.Data;
 import ca.joeltherrien.randomforest.utils.ResponseLoader;
 import ca.joeltherrien.randomforest.utils.SingletonIterator;
@@ -30,10 +35,15 @@ import ca.joeltherrien.randomforest.utils.Utils;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestLogRankSplitFinder {
@@ -71,6 +81,159 @@ public class TestLogRankSplitFinder {
     }
 
 
+    @Test
+    public void testScoreSumsEachEventBeforeAddingTheEvents() throws IOException {
+        final int[] events = new int[]{1,2};
+        final LogRankSplitFinder splitFinder = new LogRankSplitFinder(events, events);
+
+        final List<Row<CompetingRiskResponse>> data = loadData("src/test/resources/test_split_data.csv").getRows();
+        final List<Row<CompetingRiskResponse>> leftHand = data.subList(0, 196);
+        final List<Row<CompetingRiskResponse>> rightHand = data.subList(196, data.size());
+
+        final CompetingRiskSetsImpl sets = CompetingRiskUtils.calculateSetsEfficiently(
+                leftHand.stream().map(Row::getResponse).collect(Collectors.toList()),
+                rightHand.stream().map(Row::getResponse).collect(Collectors.toList()),
+                events, true);
+
+        // the order of the additions when each event was scored on its own (with a weight of 1); trained forests
+        // depend on it
+        double numerator = 0.0;
+        double denominatorSquared = 0.0;
+        for(final int event : events){
+            double summation = 0.0;
+            double variance = 0.0;
+
+            for(int k=0; k<sets.getDistinctTimes().length; k++){
+                final double eventsLeft = sets.getNumberOfEventsLeft(k, event);
+                final double eventsTotal = sets.getNumberOfEventsTotal(k, event);
+                final double riskSetLeft = sets.getRiskSetLeft(k, event);
+                final double riskSetTotal = sets.getRiskSetTotal(k, event);
+
+                final double deltaSummation = (eventsLeft - eventsTotal*riskSetLeft/riskSetTotal);
+                final double deltaVariance = eventsTotal*riskSetLeft/riskSetTotal
+                        * (1.0 - riskSetLeft / riskSetTotal)
+                        * ((riskSetTotal - eventsTotal) / (riskSetTotal - 1.0));
+
+                if(!Double.isNaN(deltaVariance)){
+                    summation += deltaSummation;
+                    variance += deltaVariance;
+                }
+            }
+
+            numerator += summation;
+            denominatorSquared += variance;
+        }
+
+        assertEquals(Double.valueOf(Math.abs(numerator / Math.sqrt(denominatorSquared))),
+                splitFinder.findBestSplit(turnIntoSplitIterator(leftHand, rightHand)).getScore());
+    }
+
+    @Test
+    public void testUpdatedSetsMatchCalculatedSets() throws IOException {
+        final List<CompetingRiskResponse> responses = loadData("src/test/resources/test_split_data.csv").getRows()
+                .stream().map(Row::getResponse).collect(Collectors.toList());
+
+        final List<CompetingRiskResponse> leftHand = responses.subList(0, 196);
+        final List<CompetingRiskResponse> rightHand = responses.subList(196, responses.size());
+
+        final CompetingRiskSetsImpl expectedSets = CompetingRiskUtils.calculateSetsEfficiently(
+                new ArrayList<>(leftHand), new ArrayList<>(rightHand), new int[]{1,2}, true);
+
+        final CompetingRiskSetsImpl updatedSets = CompetingRiskUtils.calculateSetsEfficiently(
+                new ArrayList<>(), new ArrayList<>(responses), new int[]{1,2}, true);
+        for(final CompetingRiskResponse response : leftHand){
+            updatedSets.update(response);
+        }
+
+        assertArrayEquals(expectedSets.getDistinctTimes(), updatedSets.getDistinctTimes());
+        for(int k=0; k<expectedSets.getDistinctTimes().length; k++){
+            assertEquals(expectedSets.getRiskSetLeft(k, 1), updatedSets.getRiskSetLeft(k, 1));
+            assertEquals(expectedSets.getRiskSetTotal(k, 1), updatedSets.getRiskSetTotal(k, 1));
+
+            for(int event=0; event<=2; event++){
+                assertEquals(expectedSets.getNumberOfEventsLeft(k, event), updatedSets.getNumberOfEventsLeft(k, event));
+                assertEquals(expectedSets.getNumberOfEventsTotal(k, event), updatedSets.getNumberOfEventsTotal(k, event));
+            }
+        }
+    }
+
+    @Test
+    public void testGraySetsMatchDefinition() throws IOException {
+        final List<CompetingRiskResponse> rawResponses = loadData("src/test/resources/test_split_data.csv").getRows()
+                .stream().map(Row::getResponse).collect(Collectors.toList());
+
+        final List<CompetingRiskResponseWithCensorTime> responses = new ArrayList<>();
+        for(int i=0; i<rawResponses.size(); i++){
+            final CompetingRiskResponse response = rawResponses.get(i);
+            final double c = response.isCensored() ? response.getU() : response.getU() + (i % 3) * 0.5;
+            responses.add(new CompetingRiskResponseWithCensorTime(response.getDelta(), response.getU(), c));
+        }
+
+        final List<CompetingRiskResponseWithCensorTime> leftHand = responses.subList(0, 196);
+        final List<CompetingRiskResponseWithCensorTime> rightHand = responses.subList(196, responses.size());
+
+        final CompetingRiskGraySetsImpl calculatedSets = CompetingRiskUtils.calculateGraySetsEfficiently(
+                new ArrayList<>(leftHand), new ArrayList<>(rightHand), new int[]{1,2});
+
+        final CompetingRiskGraySetsImpl updatedSets = CompetingRiskUtils.calculateGraySetsEfficiently(
+                new ArrayList<>(), new ArrayList<>(responses), new int[]{1,2});
+        for(final CompetingRiskResponseWithCensorTime response : leftHand){
+            updatedSets.update(response);
+        }
+
+        final double[] times = calculatedSets.getDistinctTimes();
+        for(int k=0; k<times.length; k++){
+            for(final int event : new int[]{1,2}){
+                final int expectedLeft = grayRiskSet(leftHand, times[k], event);
+                final int expectedTotal = grayRiskSet(responses, times[k], event);
+
+                assertEquals(expectedLeft, calculatedSets.getRiskSetLeft(k, event));
+                assertEquals(expectedTotal, calculatedSets.getRiskSetTotal(k, event));
+                assertEquals(expectedLeft, updatedSets.getRiskSetLeft(k, event));
+                assertEquals(expectedTotal, updatedSets.getRiskSetTotal(k, event));
+            }
+        }
+    }
+
+    // Rows with U >= t, or that had a competing event before t and haven't yet been censored
+    private int grayRiskSet(List<CompetingRiskResponseWithCensorTime> responses, double time, int event){
+        int count = 0;
+        for(final CompetingRiskResponseWithCensorTime response : responses){
+            if(response.getU() >= time ||
+                    (!response.isCensored() && response.getDelta() != event && response.getC() > time)){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testStreamingScoresMatchScores() throws IOException {
+        final Data<CompetingRiskResponse> data = loadData("src/test/resources/test_split_data.csv");
+        final NumericCovariate covariate = (NumericCovariate) data.getCovariateList().get(0);
+
+        for(final int[] eventsOfFocus : new int[][]{{1}, {1,2}}){
+            final LogRankSplitFinder splitFinder = new LogRankSplitFinder(eventsOfFocus, new int[]{1,2});
+            final LogRankSplitFinder streamingSplitFinder = new LogRankSplitFinder(eventsOfFocus, new int[]{1,2}, true);
+
+            for(final int numberOfSplits : new int[]{0, 10}){
+                final SplitAndScore<CompetingRiskResponse, ?> expected = splitFinder.findBestSplit((Iterator)
+                        covariate.generateSplitRuleUpdater(data.getRows(), numberOfSplits, new Random(5)));
+                final SplitAndScore<CompetingRiskResponse, ?> actual = streamingSplitFinder.findBestSplit((Iterator)
+                        covariate.generateSplitRuleUpdater(data.getRows(), numberOfSplits, new Random(5)));
+
+                closeEnough(expected.getScore(), actual.getScore(), 1e-9);
+                assertEquals(expected.getSplit().getSplitRule().toString(), actual.getSplit().getSplitRule().toString());
+            }
+
+            final List<Row<CompetingRiskResponse>> rows = data.getRows();
+            closeEnough(
+                    splitFinder.findBestSplit(turnIntoSplitIterator(rows.subList(0, 196), rows.subList(196, rows.size()))).getScore(),
+                    streamingSplitFinder.findBestSplit(turnIntoSplitIterator(rows.subList(0, 196), rows.subList(196, rows.size()))).getScore(),
+                    1e-9);
+        }
+    }
+
     private void closeEnough(double expected, double actual, double margin){
         assertTrue(Math.abs(expected - actual) < margin, "Expected " + expected + " but saw " + actual);
     }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.Bootstrapper;
+import ca.joeltherrien.randomforest.ColumnarDataset;
+import ca.joeltherrien.randomforest.Row;
+import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.covariates.bool.BooleanCovariate;
+import ca.joeltherrien.randomforest.covariates.factor.FactorCovariate;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericCovariate;
+import ca.joeltherrien.randomforest.responses.regression.MeanResponseCombiner;
+import ca.joeltherrien.randomforest.responses.regression.WeightedVarianceSplitFinder;
+import ca.joeltherrien.randomforest.utils.Utils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCompiledTree {
+
+    private List<Covariate> getCovariates(){
+        return Utils.easyList(
+                new NumericCovariate("x", 0, false),
+                new BooleanCovariate("y", 1, false),
+                new FactorCovariate("z", 2, Utils.easyList("green", "blue", "yellow", "red"), false)
+        );
+    }
+
+    private List<Row<Double>> generateData(List<Covariate> covariates, int n, double naProbability, Random random){
+        final List<String> levels = Utils.easyList("green", "blue", "yellow", "red");
+        final List<Row<Double>> dataList = new ArrayList<>();
+
+        for(int i=0; i<n; i++){
+            final double x = random.nextDouble();
+            final boolean y = random.nextBoolean();
+            final String z = levels.get(random.nextInt(levels.size()));
+            final double response = x + (y ? 1.0 : 0.0) + levels.indexOf(z) + random.nextGaussian();
+
+            dataList.add(Row.createSimple(Utils.easyMap(
+                    "x", random.nextDouble() < naProbability ? "NA" : Double.toString(x),
+                    "y", random.nextDouble() < naProbability ? "NA" : Boolean.toString(y),
+                    "z", random.nextDouble() < naProbability ? "NA" : z), covariates, i+1, response));
+        }
+
+        return dataList;
+    }
+
+    private TreeTrainer<Double, Double> getTreeTrainer(List<Covariate> covariates){
+        return TreeTrainer.<Double, Double>builder()
+                .checkNodePurity(false)
+                .covariates(covariates)
+                .numberOfSplits(0)
+                .nodeSize(3)
+                .mtry(3)
+                .maxNodeDepth(1000)
+                .splitFinder(new WeightedVarianceSplitFinder())
+                .responseCombiner(new MeanResponseCombiner())
+                .build();
+    }
+
+    @Test
+    public void testCompiledTreeMatchesTree(){
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<Double>> rows = generateData(covariates, 300, 0.0, new Random(123));
+        final ColumnarDataset<Double> dataset = ColumnarDataset.fromRows(rows, covariates);
+
+        final Tree<Double> tree = getTreeTrainer(covariates).growTree(rows, new Random(5));
+        final CompiledTree<Double> compiledTree = CompiledTree.compile(tree, covariates);
+
+        assertEquals(tree.getNodesOfType(SplitNode.class).size(), compiledTree.getNumberOfSplitNodes());
+        assertEquals(tree.getNodesOfType(TerminalNode.class).size(), compiledTree.getNumberOfTerminalNodes());
+        assertTrue(compiledTree.getNumberOfSplitNodes() > 10);
+
+        for(int i=0; i<rows.size(); i++){
+            final Row<Double> row = rows.get(i);
+
+            assertEquals(tree.evaluate(row), compiledTree.evaluate(row));
+            assertEquals(tree.evaluate(row), compiledTree.evaluate(dataset, i));
+            assertEquals(tree.idInBootstrapSample(row.getId()), compiledTree.idInBootstrapSample(row.getId()));
+        }
+    }
+
+    @Test
+    public void testCompiledTreeWithNAs(){
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<Double>> trainingRows = generateData(covariates, 300, 0.0, new Random(123));
+        final List<Row<Double>> rowsWithNAs = generateData(covariates, 300, 0.3, new Random(321));
+        final ColumnarDataset<Double> dataset = ColumnarDataset.fromRows(rowsWithNAs, covariates);
+
+        final Tree<Double> tree = getTreeTrainer(covariates).growTree(trainingRows, new Random(5));
+        final CompiledTree<Double> compiledTree = CompiledTree.compile(tree, covariates);
+
+        final List<TerminalNode> terminalNodes = tree.getNodesOfType(TerminalNode.class);
+
+        // NAs go to a random hand, so just check that we always land in a terminal node
+        for(int i=0; i<rowsWithNAs.size(); i++){
+            final Double rowPrediction = compiledTree.evaluate(rowsWithNAs.get(i));
+            final Double columnarPrediction = compiledTree.evaluate(dataset, i);
+
+            assertTrue(terminalNodes.stream().anyMatch(node -> node.getResponseValue() == rowPrediction));
+            assertTrue(terminalNodes.stream().anyMatch(node -> node.getResponseValue() == columnarPrediction));
+        }
+    }
+
+    @Test
+    public void testCompiledForestMatchesForest(){
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<Double>> rows = generateData(covariates, 200, 0.0, new Random(123));
+
+        final ForestTrainer.ForestTrainerBuilder<Double, Double, Double> forestTrainerBuilder = ForestTrainer.builder();
+        final OnlineForest<Double, Double> forest = forestTrainerBuilder
+                .treeResponseCombiner(new MeanResponseCombiner())
+                .ntree(10)
+                .randomSeed(42)
+                .displayProgress(false)
+                .covariates(covariates)
+                .treeTrainer(getTreeTrainer(covariates))
+                .data(rows)
+                .build()
+                .trainSerialInMemory(Optional.empty());
+
+        final OnlineForest<Double, Double> compiledForest = forest.compile(covariates);
+
+        assertEquals(forest.evaluate(rows), compiledForest.evaluate(rows));
+        assertEquals(forest.evaluateOOB(rows), compiledForest.evaluateOOB(rows));
+    }
+
+}
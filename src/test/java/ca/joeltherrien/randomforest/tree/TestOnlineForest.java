@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.Row;
+import ca.joeltherrien.randomforest.TestUtils;
+import ca.joeltherrien.randomforest.covariates.Covariate;
+import ca.joeltherrien.randomforest.covariates.bool.BooleanCovariate;
+import ca.joeltherrien.randomforest.covariates.numeric.NumericCovariate;
+import ca.joeltherrien.randomforest.responses.regression.MeanResponseCombiner;
+import ca.joeltherrien.randomforest.responses.regression.WeightedVarianceSplitFinder;
+import ca.joeltherrien.randomforest.utils.Utils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestOnlineForest {
+
+    private List<Covariate> getCovariates(){
+        return Utils.easyList(
+                new NumericCovariate("x", 0, false),
+                new BooleanCovariate("y", 1, false)
+        );
+    }
+
+    private List<Row<Double>> generateData(List<Covariate> covariates, int n, Random random){
+        final List<Row<Double>> dataList = new ArrayList<>();
+
+        for(int i=0; i<n; i++){
+            final double x = random.nextDouble();
+            final boolean y = random.nextBoolean();
+            final double response = x + (y ? 1.0 : 0.0) + random.nextGaussian();
+
+            dataList.add(Row.createSimple(Utils.easyMap(
+                    "x", Double.toString(x),
+                    "y", Boolean.toString(y)), covariates, i+1, response));
+        }
+
+        return dataList;
+    }
+
+    private OnlineForest<Double, Double> trainForest(List<Covariate> covariates, List<Row<Double>> rows){
+        return getForestTrainerBuilder(covariates, rows).build().trainSerialInMemory(Optional.empty());
+    }
+
+    private ForestTrainer.ForestTrainerBuilder<Double, Double, Double> getForestTrainerBuilder(List<Covariate> covariates, List<Row<Double>> rows){
+        final TreeTrainer<Double, Double> treeTrainer = TreeTrainer.<Double, Double>builder()
+                .covariates(covariates)
+                .numberOfSplits(0)
+                .nodeSize(5)
+                .mtry(2)
+                .maxNodeDepth(1000)
+                .splitFinder(new WeightedVarianceSplitFinder())
+                .responseCombiner(new MeanResponseCombiner())
+                .build();
+
+        final ForestTrainer.ForestTrainerBuilder<Double, Double, Double> forestTrainerBuilder = ForestTrainer.builder();
+        return forestTrainerBuilder
+                .treeResponseCombiner(new MeanResponseCombiner())
+                .ntree(20)
+                .randomSeed(42)
+                .displayProgress(false)
+                .covariates(covariates)
+                .treeTrainer(treeTrainer)
+                .data(rows);
+    }
+
+    @Test
+    public void testBlockedEvaluationMatchesRowByRow(){
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<Double>> rows = generateData(covariates, 100, new Random(123));
+        final OnlineForest<Double, Double> forest = trainForest(covariates, rows);
+
+        // block sizes that don't divide the number of rows or trees
+        final OnlineForest<Double, Double> blockedForest = OnlineForest.<Double, Double>builder()
+                .trees(forest.getTrees())
+                .treeResponseCombiner(new MeanResponseCombiner())
+                .rowBlockSize(7)
+                .treeBlockSize(3)
+                .build();
+
+        final List<Double> predictions = blockedForest.evaluate(rows);
+        final List<Double> serialPredictions = blockedForest.evaluateSerial(rows);
+        final List<Double> oobPredictions = blockedForest.evaluateOOB(rows);
+        final List<Double> serialOOBPredictions = blockedForest.evaluateSerialOOB(rows);
+
+        assertEquals(rows.size(), predictions.size());
+        assertEquals(predictions, serialPredictions);
+        assertEquals(oobPredictions, serialOOBPredictions);
+
+        final MeanResponseCombiner combiner = new MeanResponseCombiner();
+        for(int i=0; i<rows.size(); i++){
+            final Row<Double> row = rows.get(i);
+
+            final List<Double> treeOutputs = new ArrayList<>();
+            final List<Double> oobTreeOutputs = new ArrayList<>();
+            for(final Tree<Double> tree : forest.getTrees()){
+                treeOutputs.add(tree.evaluate(row));
+                if(!tree.idInBootstrapSample(row.getId())){
+                    oobTreeOutputs.add(tree.evaluate(row));
+                }
+            }
+
+            assertEquals(combiner.combine(treeOutputs), predictions.get(i), 1e-10);
+            assertEquals(combiner.combine(oobTreeOutputs), oobPredictions.get(i), 1e-10);
+            assertEquals(predictions.get(i), forest.evaluate(row), 1e-10);
+            assertEquals(oobPredictions.get(i), forest.evaluateOOB(row), 1e-10);
+        }
+    }
+
+    @Test
+    public void testBlockSizesMustBePositive(){
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<Double>> rows = generateData(covariates, 20, new Random(123));
+        final OnlineForest<Double, Double> forest = trainForest(covariates, rows);
+
+        final OnlineForest<Double, Double> zeroRowBlockForest = OnlineForest.<Double, Double>builder()
+                .trees(forest.getTrees())
+                .treeResponseCombiner(new MeanResponseCombiner())
+                .rowBlockSize(0)
+                .build();
+        final OnlineForest<Double, Double> zeroTreeBlockForest = OnlineForest.<Double, Double>builder()
+                .trees(forest.getTrees())
+                .treeResponseCombiner(new MeanResponseCombiner())
+                .treeBlockSize(0)
+                .build();
+
+        // a treeBlockSize of 0 used to loop forever
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for(final OnlineForest<Double, Double> badForest : Utils.easyList(zeroRowBlockForest, zeroTreeBlockForest)){
+                assertThrows(IllegalArgumentException.class, () -> badForest.evaluate(rows));
+                assertThrows(IllegalArgumentException.class, () -> badForest.evaluateSerial(rows));
+                assertThrows(IllegalArgumentException.class, () -> badForest.evaluateOOB(rows));
+                assertThrows(IllegalArgumentException.class, () -> badForest.evaluateSerialOOB(rows));
+            }
+        });
+    }
+
+    @Test
+    public void testOOBPredictionsAccumulatedWhileTraining(){
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<Double>> rows = generateData(covariates, 100, new Random(123));
+
+        final ForestTrainer<Double, Double, Double> forestTrainer = getForestTrainerBuilder(covariates, rows)
+                .accumulateOOBPredictions(true)
+                .build();
+
+        final OnlineForest<Double, Double> serialForest = forestTrainer.trainSerialInMemory(Optional.empty());
+        final OnlineForest<Double, Double> parallelForest = forestTrainer.trainParallelInMemory(Optional.empty(), 4);
+
+        assertFalse(trainForest(covariates, rows).getOOBPredictions().isPresent());
+
+        for(final OnlineForest<Double, Double> forest : Utils.easyList(serialForest, parallelForest)){
+            final List<Double> oobPredictions = forest.getOOBPredictions().get();
+            assertEquals(rows.size(), oobPredictions.size());
+
+            for(int i=0; i<rows.size(); i++){
+                assertEquals(forest.evaluateOOB(rows.get(i)), oobPredictions.get(i), 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void testOOBPredictionForRowNeverOutOfBag(){
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<Double>> rows = generateData(covariates, 100, new Random(123));
+
+        // with one tree most rows are in every tree's bootstrap sample
+        final OnlineForest<Double, Double> forest = getForestTrainerBuilder(covariates, rows)
+                .ntree(1)
+                .accumulateOOBPredictions(true)
+                .build()
+                .trainSerialInMemory(Optional.empty());
+        final Tree<Double> tree = forest.getTrees().get(0);
+
+        final List<Double> oobPredictions = forest.evaluateOOB(rows);
+        final List<Double> serialOOBPredictions = forest.evaluateSerialOOB(rows);
+        final List<Double> accumulatedOOBPredictions = forest.getOOBPredictions().get();
+        final Double emptyCombination = new MeanResponseCombiner().combine(new ArrayList<>());
+
+        int countNeverOutOfBag = 0;
+        for(int i=0; i<rows.size(); i++){
+            final Row<Double> row = rows.get(i);
+            final Double expected = tree.idInBootstrapSample(row.getId()) ? emptyCombination : tree.evaluate(row);
+            if(tree.idInBootstrapSample(row.getId())){
+                countNeverOutOfBag++;
+            }
+
+            assertEquals(expected, forest.evaluateOOB(row), 1e-10);
+            assertEquals(expected, oobPredictions.get(i), 1e-10);
+            assertEquals(expected, serialOOBPredictions.get(i), 1e-10);
+            assertEquals(expected, accumulatedOOBPredictions.get(i), 1e-10);
+        }
+
+        assertTrue(countNeverOutOfBag > 0);
+        assertEquals(Double.valueOf(0.0), emptyCombination);
+    }
+
+    @Test
+    public void testOOBPredictionsAccumulatedWhileResumingOnDisk(){
+        final List<Covariate> covariates = getCovariates();
+        final List<Row<Double>> rows = generateData(covariates, 100, new Random(123));
+
+        final File directory = new File("src/test/resources/trees-oob/");
+        if(directory.exists()){
+            TestUtils.removeFolder(directory);
+        }
+
+        final ForestTrainer<Double, Double, Double> forestTrainer = getForestTrainerBuilder(covariates, rows)
+                .saveTreeLocation(directory.getPath())
+                .accumulateOOBPredictions(true)
+                .ntree(10)
+                .build();
+        forestTrainer.trainSerialOnDisk(Optional.empty());
+
+        // the first 10 trees have to be read back in
+        forestTrainer.setNtree(20);
+        final OfflineForest<Double, Double> forest = forestTrainer.trainParallelOnDisk(Optional.empty(), 2);
+        assertEquals(20, forest.getNumberOfTrees());
+
+        final List<Double> oobPredictions = forest.getOOBPredictions().get();
+        for(int i=0; i<rows.size(); i++){
+            assertEquals(forest.evaluateOOB(rows.get(i)), oobPredictions.get(i), 1e-10);
+        }
+
+        TestUtils.removeFolder(directory);
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.tree;
+
+import ca.joeltherrien.randomforest.CovariateRow;
+import ca.joeltherrien.randomforest.covariates.Covariate;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestOutOfBagIndex {
+
+    @Test
+    public void testMatchesIdInBootstrapSample(){
+        final Random random = new Random(123);
+
+        // ids out of order, with gaps and a repeated id
+        final List<CovariateRow> rows = new ArrayList<>();
+        for(int i=0; i<200; i++){
+            rows.add(new CovariateRow(new Covariate.Value[0], random.nextInt(300)));
+        }
+        rows.add(new CovariateRow(new Covariate.Value[0], rows.get(0).getId()));
+
+        final OutOfBagIndex outOfBagIndex = new OutOfBagIndex(rows);
+
+        for(int t=0; t<10; t++){
+            final int[] bootstrapRowIds = new int[rows.size()];
+            for(int i=0; i<bootstrapRowIds.length; i++){
+                bootstrapRowIds[i] = rows.get(random.nextInt(rows.size())).getId();
+            }
+            final Tree<Double> tree = new Tree<>(new TerminalNode<>(1.0, 1), bootstrapRowIds);
+
+            final BitSet outOfBagRows = outOfBagIndex.findOutOfBagRows(tree);
+            for(int i=0; i<rows.size(); i++){
+                assertEquals(!tree.idInBootstrapSample(rows.get(i).getId()), outOfBagRows.get(i));
+            }
+            assertArrayEquals(outOfBagRows.stream().toArray(), outOfBagIndex.findOutOfBagPositions(tree));
+        }
+    }
+
+}
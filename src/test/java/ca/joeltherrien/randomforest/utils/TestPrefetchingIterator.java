@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPrefetchingIterator {
+
+    @Test
+    public void testOrderIsKept(){
+        for(int depth=0; depth<=3; depth++){
+            final List<Integer> values = new ArrayList<>();
+            try(final PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(10, i -> i * i, depth)){
+                iterator.forEachRemaining(values::add);
+            }
+
+            assertEquals(10, values.size());
+            for(int i=0; i<10; i++){
+                assertEquals(i * i, values.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void testExceptionIsRethrown(){
+        final PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(5, i -> {
+            if(i == 2){
+                throw new IllegalStateException("bad element");
+            }
+            return i;
+        }, 2);
+
+        assertEquals(0, iterator.next().intValue());
+        assertEquals(1, iterator.next().intValue());
+        assertThrows(IllegalStateException.class, iterator::next);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testCloseEarly(){
+        final PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(1000, i -> i, 1);
+        assertEquals(0, iterator.next().intValue());
+        iterator.close(); // the loading thread is blocked on the full queue and must be able to stop
+    }
+
+    @Test
+    public void testCloseDoesNotInterruptLoader() throws Exception {
+        final File file = File.createTempFile("prefetch", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[64]);
+
+        try(final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            final CountDownLatch loaderStarted = new CountDownLatch(1);
+            final CountDownLatch closed = new CountDownLatch(1);
+            final CountDownLatch loaderFinished = new CountDownLatch(1);
+
+            final PrefetchingIterator<ByteBuffer> iterator = new PrefetchingIterator<>(3, i -> {
+                try{
+                    if(i == 1){
+                        loaderStarted.countDown();
+                        awaitKeepingInterrupt(closed);
+                    }
+                    // FileChannel.map closes the channel if the thread is interrupted
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, 64);
+                } catch(IOException e){
+                    throw new IllegalStateException(e);
+                } finally{
+                    if(i == 1){
+                        loaderFinished.countDown();
+                    }
+                }
+            }, 1);
+
+            iterator.next();
+            assertTrue(loaderStarted.await(10, TimeUnit.SECONDS));
+            iterator.close();
+            closed.countDown();
+
+            assertTrue(loaderFinished.await(10, TimeUnit.SECONDS));
+            assertTrue(channel.isOpen());
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, 64);
+        }
+    }
+
+    // like a loader that's busy reading when it's interrupted; the interrupt stays set for what it does next
+    private static void awaitKeepingInterrupt(CountDownLatch latch){
+        boolean interrupted = false;
+        while(true){
+            try{
+                latch.await();
+                break;
+            } catch(InterruptedException e){
+                interrupted = true;
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testNullElementIsRejected(){
+        for(int depth=0; depth<=2; depth++){
+            final PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(3, i -> i == 1 ? null : i, depth);
+
+            assertEquals(0, iterator.next().intValue());
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(NullPointerException.class, iterator::next));
+        }
+    }
+
+}
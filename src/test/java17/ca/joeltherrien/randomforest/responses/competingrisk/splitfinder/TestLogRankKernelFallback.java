@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk.splitfinder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Run by the java17 profile without the jdk.incubator.vector module.
+ *
+ */
+public class TestLogRankKernelFallback {
+
+    @Test
+    public void testScalarLoopIsUsedWithoutVectorModule(){
+        assertFalse(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        assertFalse(LogRankKernel.isVectorized());
+
+        final Random random = new Random(11);
+        for(final int m : new int[]{0, 1, 5, 37, 1001}){
+            final TestVectorLogRankKernel.LogRankInputs inputs = TestVectorLogRankKernel.LogRankInputs.random(random, m, 2, true);
+
+            final CompetingRiskSplitFinder.LogRankValue expected = inputs.scalarLogRankValue();
+            final CompetingRiskSplitFinder.LogRankValue actual = LogRankKernel.logRankValue(inputs.weights,
+                    inputs.eventsLeft, inputs.eventsTotal, inputs.riskSetLeft, inputs.riskSetTotal);
+
+            // same loop, so exactly the same values
+            assertEquals(expected, actual);
+        }
+    }
+
+}
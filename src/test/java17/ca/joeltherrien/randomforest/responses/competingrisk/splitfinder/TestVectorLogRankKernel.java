@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2019 Joel Therrien.
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ca.joeltherrien.randomforest.responses.competingrisk.splitfinder;
+
+import jdk.incubator.vector.DoubleVector;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Run by the java17 profile with the jdk.incubator.vector module added.
+ *
+ */
+public class TestVectorLogRankKernel {
+
+    @Test
+    public void testVectorApiIsUsed(){
+        assertTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        assertTrue(LogRankKernel.isVectorized());
+    }
+
+    @Test
+    public void testMatchesScalarLogRankValue(){
+        final Random random = new Random(7);
+        final int lanes = DoubleVector.SPECIES_PREFERRED.length();
+
+        // lengths shorter than, equal to, and not a multiple of the number of lanes, so the tail loop is covered
+        final int[] lengths = new int[]{0, 1, lanes - 1, lanes, lanes + 1, 3*lanes + 2, 37, 1001};
+
+        for(final int m : lengths){
+            for(int numberOfEvents=1; numberOfEvents<=3; numberOfEvents++){
+                for(final boolean sharedRiskSets : new boolean[]{true, false}){
+                    final LogRankInputs inputs = LogRankInputs.random(random, m, numberOfEvents, sharedRiskSets);
+
+                    final CompetingRiskSplitFinder.LogRankValue expected = inputs.scalarLogRankValue();
+                    final CompetingRiskSplitFinder.LogRankValue actual = VectorLogRankKernel.logRankValue(inputs.weights,
+                            inputs.eventsLeft, inputs.eventsTotal, inputs.riskSetLeft, inputs.riskSetTotal);
+
+                    assertFalse(Double.isNaN(actual.getNumerator()));
+                    assertFalse(Double.isNaN(actual.getVariance()));
+                    assertEquals(expected.getNumerator(), actual.getNumerator(), 1e-10 * (1.0 + Math.abs(expected.getNumerator())));
+                    assertEquals(expected.getVariance(), actual.getVariance(), 1e-10 * (1.0 + Math.abs(expected.getVariance())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTimesWithNaNVarianceAreLeftOut(){
+        // every time has at most one individual at risk, so every variance term is NaN
+        final int m = 4 * DoubleVector.SPECIES_PREFERRED.length() + 1;
+        final double[] weights = new double[m];
+        final int[][] eventsLeft = new int[1][m];
+        final int[][] eventsTotal = new int[1][m];
+        final int[][] riskSetLeft = new int[1][m];
+        final int[][] riskSetTotal = new int[1][m];
+
+        for(int k=0; k<m; k++){
+            weights[k] = 1.0;
+            riskSetTotal[0][k] = k % 2;
+            riskSetLeft[0][k] = k % 2;
+            eventsTotal[0][k] = k % 2;
+            eventsLeft[0][k] = k % 2;
+        }
+
+        final CompetingRiskSplitFinder.LogRankValue value =
+                VectorLogRankKernel.logRankValue(weights, eventsLeft, eventsTotal, riskSetLeft, riskSetTotal);
+
+        assertEquals(0.0, value.getNumerator());
+        assertEquals(0.0, value.getVariance());
+    }
+
+    /**
+     * Random counts that are consistent with each other; about a fifth of the times have 0 or 1 individuals at risk
+     * so that their variance is NaN.
+     *
+     */
+    static final class LogRankInputs {
+        final double[] weights;
+        final int[][] eventsLeft;
+        final int[][] eventsTotal;
+        final int[][] riskSetLeft;
+        final int[][] riskSetTotal;
+
+        private LogRankInputs(int m, int numberOfEvents){
+            this.weights = new double[m];
+            this.eventsLeft = new int[numberOfEvents][m];
+            this.eventsTotal = new int[numberOfEvents][m];
+            this.riskSetLeft = new int[numberOfEvents][];
+            this.riskSetTotal = new int[numberOfEvents][];
+        }
+
+        static LogRankInputs random(Random random, int m, int numberOfEvents, boolean sharedRiskSets){
+            final LogRankInputs inputs = new LogRankInputs(m, numberOfEvents);
+
+            for(int k=0; k<m; k++){
+                inputs.weights[k] = 0.5 + random.nextDouble();
+            }
+
+            for(int e=0; e<numberOfEvents; e++){
+                if(e > 0 && sharedRiskSets){
+                    inputs.riskSetLeft[e] = inputs.riskSetLeft[0];
+                    inputs.riskSetTotal[e] = inputs.riskSetTotal[0];
+                }
+                else{
+                    inputs.riskSetLeft[e] = new int[m];
+                    inputs.riskSetTotal[e] = new int[m];
+                    for(int k=0; k<m; k++){
+                        final int total = random.nextInt(5) == 0 ? random.nextInt(2) : 2 + random.nextInt(200);
+                        inputs.riskSetTotal[e][k] = total;
+                        inputs.riskSetLeft[e][k] = random.nextInt(total + 1);
+                    }
+                }
+
+                for(int k=0; k<m; k++){
+                    final int total = inputs.riskSetTotal[e][k];
+                    final int left = inputs.riskSetLeft[e][k];
+                    inputs.eventsTotal[e][k] = random.nextInt(total + 1);
+                    inputs.eventsLeft[e][k] = random.nextInt(Math.min(left, inputs.eventsTotal[e][k]) + 1);
+                }
+            }
+
+            return inputs;
+        }
+
+        CompetingRiskSplitFinder.LogRankValue scalarLogRankValue(){
+            return CompetingRiskSplitFinder.scalarLogRankValue(weights, eventsLeft, eventsTotal, riskSetLeft, riskSetTotal);
+        }
+    }
+
+}